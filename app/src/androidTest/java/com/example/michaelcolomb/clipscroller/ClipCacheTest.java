@@ -0,0 +1,158 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the clip cache's lookups, least recently used eviction and persistence
+ * across instances using a scratch directory on the device.
+ * @author colomb2
+ */
+public class ClipCacheTest {
+
+    private static final String TEST_DIRECTORY = "clip_cache_test";
+    private static final String URL_1 = "https://example.com/video/one?alt=media&token=abc";
+    private static final String URL_1_NEW_TOKEN = "HTTPS://EXAMPLE.COM/video/one?alt=media&token=xyz";
+    private static final String URL_2 = "https://example.com/video/two?alt=media&token=abc";
+    private static final String URL_3 = "https://example.com/video/three?alt=media&token=abc";
+    private static final int VIDEO_BYTES = 1000;
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                TEST_DIRECTORY);
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    /**
+     * Test that a committed video is returned for equivalent urls and that lookups are
+     * counted as hits and misses.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testCommitAndGet() throws Exception {
+        ClipCache clipCache = new ClipCache(directory, 10 * VIDEO_BYTES);
+
+        assertNull(clipCache.get(URL_1));
+        clipCache.commit(URL_1, writeTempFile(clipCache));
+
+        File cachedFile = clipCache.get(URL_1_NEW_TOKEN);
+        assertNotNull(cachedFile);
+        assertEquals(VIDEO_BYTES, cachedFile.length());
+        assertEquals(1, clipCache.getHitCount());
+        assertEquals(1, clipCache.getMissCount());
+    }
+
+    /**
+     * Test that the least recently used video is evicted when the budget is exceeded.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        ClipCache clipCache = new ClipCache(directory, 2 * VIDEO_BYTES);
+
+        clipCache.commit(URL_1, writeTempFile(clipCache));
+        clipCache.commit(URL_2, writeTempFile(clipCache));
+        clipCache.get(URL_1);
+        clipCache.commit(URL_3, writeTempFile(clipCache));
+
+        assertNotNull(clipCache.get(URL_1));
+        assertNull(clipCache.get(URL_2));
+        assertNotNull(clipCache.get(URL_3));
+        assertEquals(1, clipCache.getEvictionCount());
+        assertEquals(2 * VIDEO_BYTES, clipCache.getSize());
+    }
+
+    /**
+     * Test that cached videos are indexed again by a new cache instance and that
+     * unfinished temporary files are discarded.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testSurvivesRestart() throws Exception {
+        ClipCache clipCache = new ClipCache(directory, 10 * VIDEO_BYTES);
+        clipCache.commit(URL_1, writeTempFile(clipCache));
+        File unfinished = writeTempFile(clipCache);
+
+        ClipCache restartedCache = new ClipCache(directory, 10 * VIDEO_BYTES);
+
+        assertNotNull(restartedCache.get(URL_1));
+        assertEquals(VIDEO_BYTES, restartedCache.getSize());
+        assertTrue(!unfinished.exists());
+    }
+
+    /**
+     * Test that a download that cannot be moved into the cache leaves the previous entry in
+     * place, and that a video whose file was deleted is no longer reported as cached.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testFailedCommitKeepsEntry() throws Exception {
+        ClipCache clipCache = new ClipCache(directory, 10 * VIDEO_BYTES);
+        File cachedFile = clipCache.commit(URL_1, writeTempFile(clipCache));
+
+        File missingFile = writeTempFile(clipCache);
+        missingFile.delete();
+        assertEquals(cachedFile, clipCache.commit(URL_1, missingFile));
+        assertEquals(VIDEO_BYTES, clipCache.getSize());
+        assertNull(clipCache.commit(URL_2, missingFile));
+
+        cachedFile.delete();
+        assertFalse(clipCache.contains(URL_1));
+        assertEquals(0, clipCache.getEntryCount());
+        assertEquals(0, clipCache.getSize());
+    }
+
+    /**
+     * This helper method writes a fake video into a new temporary cache file.
+     * @param clipCache to create the temporary file in
+     * @return the written temporary file
+     * @throws IOException if the file could not be written
+     */
+    private File writeTempFile(ClipCache clipCache) throws IOException {
+        File tempFile = clipCache.createTempFile();
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+
+        try {
+            outputStream.write(new byte[VIDEO_BYTES]);
+        } finally {
+            outputStream.close();
+        }
+
+        return tempFile;
+    }
+
+    /**
+     * This helper method deletes the scratch cache directory.
+     */
+    private void deleteDirectory() {
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+
+        directory.delete();
+    }
+}
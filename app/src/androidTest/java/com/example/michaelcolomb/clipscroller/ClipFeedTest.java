@@ -0,0 +1,233 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the live clip feed against the in-memory FakeClipBackend, so that it
+ * runs offline and its timing does not depend on the network.
+ * @author colomb2
+ */
+public class ClipFeedTest {
+
+    private static final long LATENCY = 20;
+    private static final long NOW = 1500000000000L;
+    private static final int CLIPS = 30;
+    private static final int PAGE_SIZE = 10;
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int S_10_SECONDS = 10;
+    private static final String INSTANCE_ID = "feed_test_instance";
+
+    private FakeClipBackend backend;
+    private ClipFeed clipFeed;
+    private FeedRecorder recorder;
+
+    /**
+     * This method seeds the fake backend with clips created a minute apart.
+     */
+    @Before
+    public void setUp() {
+        ClipRank.setRankByTrending(false);
+        ClipFeed.setPageSize(PAGE_SIZE);
+        backend = new FakeClipBackend(InstrumentationRegistry.getTargetContext(), LATENCY, 0);
+        recorder = new FeedRecorder();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CLIPS; i++)
+                    backend.putClip(hashFor(i), clipFor(i));
+
+                clipFeed = new ClipFeed(backend);
+                clipFeed.setListener(recorder);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                clipFeed.release();
+            }
+        });
+
+        backend.shutdown();
+        ClipFeed.setPageSize(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Test that pages load newest first and that each page continues where the last one
+     * ended.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testPagesLoadNewestFirst() throws Exception {
+        loadNextPage();
+        List<String> order = recorder.awaitSize(PAGE_SIZE);
+        assertEquals(hashFor(CLIPS - 1), order.get(0));
+
+        loadNextPage();
+        order = recorder.awaitSize(2 * PAGE_SIZE);
+
+        for (int i = 0; i < order.size(); i++)
+            assertEquals(hashFor(CLIPS - 1 - i), order.get(i));
+    }
+
+    /**
+     * Test that a new clip and a vote reach the feed without reloading it, and that the
+     * vote is reported as a vote-only change.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testLiveUpdates() throws Exception {
+        loadNextPage();
+        recorder.awaitSize(PAGE_SIZE);
+
+        final Clip newClip = clipFor(CLIPS);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                backend.putClip(hashFor(CLIPS), newClip);
+            }
+        });
+
+        assertEquals(hashFor(CLIPS), recorder.awaitSize(PAGE_SIZE + 1).get(0));
+
+        final String votedHash = hashFor(CLIPS - 1);
+        recorder.expectChange(votedHash);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                backend.castVote(votedHash, INSTANCE_ID, true);
+            }
+        });
+
+        assertEquals(ClipFeed.VOTE_PAYLOAD, recorder.awaitChange());
+        assertEquals(1, backend.getClip(votedHash).getVoteCount());
+    }
+
+    /**
+     * Test that a restored snapshot is shown in its saved order before anything loads, and
+     * that the first page drops the saved clips no longer in the feed and updates the
+     * ones that changed.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testSnapshotReconciled() throws Exception {
+        final String goneHash = "gone";
+        final String newestHash = hashFor(CLIPS - 1);
+        Clip staleClip = clipFor(CLIPS - 1);
+        staleClip.setTitle("Stale title");
+
+        Map<String, Clip> clips = new HashMap<>();
+        clips.put(goneHash, clipFor(CLIPS + 1));
+        clips.put(newestHash, staleClip);
+        final FeedSnapshotStore.Snapshot snapshot = new FeedSnapshotStore.Snapshot(false, NOW,
+                Arrays.asList(goneHash, newestHash), clips);
+
+        recorder.expectChange(newestHash);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                clipFeed.restore(snapshot);
+                assertEquals(Arrays.asList(goneHash, newestHash), clipFeed.getOrder());
+                assertFalse(clipFeed.isLoaded());
+                clipFeed.loadNextPage();
+            }
+        });
+
+        assertNull(recorder.awaitChange());
+        List<String> order = recorder.awaitSize(PAGE_SIZE);
+        assertEquals(PAGE_SIZE, order.size());
+        assertFalse(order.contains(goneHash));
+        assertEquals(newestHash, order.get(0));
+        assertEquals("Clip " + (CLIPS - 1), clipFeed.getClipStore().get(newestHash).getTitle());
+    }
+
+    private void loadNextPage() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                clipFeed.loadNextPage();
+            }
+        });
+    }
+
+    private static String hashFor(int index) {
+        return String.format("clip%03d", index);
+    }
+
+    private static Clip clipFor(int index) {
+        Clip clip = new Clip();
+        clip.setTitle("Clip " + index);
+        clip.setDownloadUrl("memory://video/" + index);
+        clip.setTime(NOW + index * 60000L);
+        clip.setHotScore(VoteUtilities.getHotScore(clip.getTime(), 0));
+        return clip;
+    }
+
+    /**
+     * This class records the feed's latest order and waits for it to reach a size or for
+     * a clip to change.
+     */
+    private static class FeedRecorder implements ClipFeed.Listener {
+
+        private List<String> order;
+        private String expectedHash;
+        private Object change;
+        private CountDownLatch changeSignal;
+
+        @Override
+        public synchronized void onFeedChanged(List<String> previousOrder, List<String> order,
+                                               Map<String, Object> changes) {
+            this.order = order;
+
+            if (changeSignal != null && changes.containsKey(expectedHash)) {
+                change = changes.get(expectedHash);
+                changeSignal.countDown();
+            }
+
+            notifyAll();
+        }
+
+        public synchronized List<String> awaitSize(int size) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(S_10_SECONDS);
+
+            while ((order == null || order.size() < size)
+                    && System.currentTimeMillis() < deadline)
+                wait(100);
+
+            assertTrue(order != null && order.size() >= size);
+            return order;
+        }
+
+        public synchronized void expectChange(String hash) {
+            expectedHash = hash;
+            changeSignal = new CountDownLatch(1);
+        }
+
+        public Object awaitChange() throws InterruptedException {
+            assertTrue(changeSignal.await(S_10_SECONDS, TimeUnit.SECONDS));
+            return change;
+        }
+    }
+}
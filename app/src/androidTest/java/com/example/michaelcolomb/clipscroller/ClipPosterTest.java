@@ -0,0 +1,111 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests that posters are extracted from submitted videos, scaled down and
+ * uploaded through the ClipBackend, using a video encoded on the device.
+ * @author colomb2
+ */
+public class ClipPosterTest {
+
+    private static final int VIDEO_WIDTH = 640;
+    private static final int VIDEO_HEIGHT = 480;
+    private static final int VIDEO_FRAME_RATE = 30;
+    private static final int VIDEO_FRAMES = 90;
+    private static final int MAX_POSTER_WIDTH = 480;
+    private static final String POSTER_NAME = "poster/test.jpg";
+    private static final int S_10_SECONDS = 10;
+
+    private FakeClipBackend backend;
+    private File videoFile;
+
+    @Before
+    public void setUp() throws Exception {
+        videoFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "poster_test.mp4");
+        TestVideos.write(videoFile, VIDEO_WIDTH, VIDEO_HEIGHT, VIDEO_FRAME_RATE, VIDEO_FRAMES);
+
+        backend = new FakeClipBackend(InstrumentationRegistry.getTargetContext(), 0, 0);
+        ClipBackends.set(backend);
+    }
+
+    @After
+    public void tearDown() {
+        ClipBackends.set(null);
+        backend.shutdown();
+        videoFile.delete();
+    }
+
+    /**
+     * Test that a poster no wider than the poster width is uploaded for a video.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testUploadPoster() throws Exception {
+        String posterUrl = uploadPoster(Uri.fromFile(videoFile));
+        assertNotNull(posterUrl);
+
+        byte[] poster = backend.getVideo(posterUrl);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(poster, 0, poster.length);
+
+        assertNotNull(bitmap);
+        assertTrue(bitmap.getWidth() <= MAX_POSTER_WIDTH);
+        assertTrue(bitmap.getWidth() * VIDEO_HEIGHT == bitmap.getHeight() * VIDEO_WIDTH);
+    }
+
+    /**
+     * Test that a file which is not a video gives no poster rather than a failure, so the
+     * clip can still be added.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testNoPosterForInvalidVideo() throws Exception {
+        File notVideo = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "not_video.mp4");
+        notVideo.createNewFile();
+
+        try {
+            assertNull(uploadPoster(Uri.fromFile(notVideo)));
+        } finally {
+            notVideo.delete();
+        }
+    }
+
+    private String uploadPoster(Uri videoUri) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] posterUrl = new String[1];
+
+        ClipPoster.upload(InstrumentationRegistry.getTargetContext(), videoUri, POSTER_NAME,
+                new ClipBackend.Callback<String>() {
+                    @Override
+                    public void onSuccess(String result) {
+                        posterUrl[0] = result;
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        done.countDown();
+                    }
+                });
+
+        assertTrue(done.await(S_10_SECONDS, TimeUnit.SECONDS));
+        return posterUrl[0];
+    }
+}
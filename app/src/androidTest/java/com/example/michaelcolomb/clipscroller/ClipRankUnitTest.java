@@ -52,7 +52,8 @@ public class ClipRankUnitTest {
                 int timeCounter = 0;
 
                 for (DataSnapshot likeSnapshot: dataSnapshot.getChildren()) {
-                    ranks.add(ClipRank.create(likeSnapshot.getKey(), timeCounter, likeSnapshot));
+                    ranks.add(ClipRank.create(likeSnapshot.getKey(), timeCounter,
+                            VoteUtilities.getVoteCount(likeSnapshot)));
                     timeCounter += M_MINUTE;
                 }
 
@@ -97,10 +98,12 @@ public class ClipRankUnitTest {
                 int timeCounter = 0;
 
                 for (DataSnapshot likeSnapshot: dataSnapshot.getChildren()) {
+                    int voteCount = VoteUtilities.getVoteCount(likeSnapshot);
+
                     ranksSameTime.add(ClipRank.create(likeSnapshot.getKey(),
-                            0, likeSnapshot));
+                            0, voteCount));
                     ranksDifferentTime.add(ClipRank.create(likeSnapshot.getKey(),
-                            timeCounter, likeSnapshot));
+                            timeCounter, voteCount));
                     timeCounter += 2 * M_MINUTE;
                 }
 
@@ -0,0 +1,116 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.app.Instrumentation;
+import android.support.test.InstrumentationRegistry;
+import android.widget.VideoView;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests that the DecoderPool never holds more players than its cap, releases
+ * the least recently used view to make room, and counts reuses of prepared players as
+ * hits.
+ * @author colomb2
+ */
+public class DecoderPoolTest {
+
+    private static final int MAX_DECODERS = 3;
+    private static final String URL = "memory://video/";
+
+    private Instrumentation instrumentation;
+    private DecoderPool pool;
+    private List<VideoView> videoViews;
+    private List<Integer> evicted;
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        evicted = new ArrayList<>();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool = new DecoderPool(MAX_DECODERS);
+                videoViews = new ArrayList<>();
+
+                for (int i = 0; i <= MAX_DECODERS; i++)
+                    videoViews.add(new VideoView(instrumentation.getTargetContext()));
+            }
+        });
+    }
+
+    /**
+     * Test that acquiring a slot past the cap releases the least recently used view and
+     * tells its row.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testCapEvictsLeastRecentlyUsed() throws Exception {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < MAX_DECODERS; i++)
+                    acquire(i);
+
+                pool.prepared(videoViews.get(0), 0);
+                assertTrue(pool.reuse(videoViews.get(0), URL + 0));
+                acquire(MAX_DECODERS);
+
+                assertEquals(MAX_DECODERS, pool.getActiveCount());
+                assertEquals(MAX_DECODERS, pool.getPeakActiveCount());
+                assertEquals(1, pool.getEvictionCount());
+                assertEquals(1, evicted.size());
+                assertEquals(1, (int) evicted.get(0));
+            }
+        });
+    }
+
+    /**
+     * Test that only a view bound again to the video it has prepared reuses its player,
+     * and that the hit rate and prepare latency are measured.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testReuseCountsHits() throws Exception {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                VideoView videoView = videoViews.get(0);
+                acquire(0);
+                assertFalse(pool.reuse(videoView, URL + 0));
+
+                pool.prepared(videoView, 40);
+                assertTrue(pool.reuse(videoView, URL + 0));
+                assertFalse(pool.reuse(videoView, URL + 1));
+
+                pool.release(videoView);
+                assertFalse(pool.reuse(videoView, URL + 0));
+
+                assertEquals(1, pool.getHitCount());
+                assertEquals(0.5, pool.getHitRate(), 0);
+                assertEquals(40, pool.getMeanPrepareMillis(), 0);
+                assertEquals(0, pool.getActiveCount());
+            }
+        });
+    }
+
+    /**
+     * This helper method takes a slot for a view, recording its index when it is evicted.
+     * @param index of the view
+     */
+    private void acquire(final int index) {
+        pool.acquire(videoViews.get(index), URL + index, new Runnable() {
+            @Override
+            public void run() {
+                evicted.add(index);
+            }
+        });
+    }
+}
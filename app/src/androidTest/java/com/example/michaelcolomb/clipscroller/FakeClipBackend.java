@@ -0,0 +1,629 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class defines an in-memory ClipBackend for deterministic offline tests. Clips,
+ * votes and videos live in maps on the main thread. Every call is answered after an
+ * injectable latency, and video transfers are throttled to an injectable bandwidth, so
+ * the feed, player and submission screen can be load-tested without a network. It answers
+ * on the main Looper and reads uploads through a ContentResolver, as the ClipBackend
+ * contract and the views under test require, so it runs as an instrumented test on an
+ * emulator or device rather than on the plain JVM.
+ * @author colomb2
+ */
+public class FakeClipBackend implements ClipBackend {
+
+    private static final String URL_PREFIX = "memory://";
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    private final Context context;
+    private final Handler handler;
+    private final ExecutorService transferExecutor;
+    private final Map<String, Clip> clips;
+    private final Map<String, Map<String, Boolean>> likes;
+    private final Map<String, byte[]> videos;
+    private final List<RangeWatch> rangeWatches;
+    private final List<VoteWatch> voteWatches;
+
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile boolean failVotes;
+    private final AtomicInteger uploadCount = new AtomicInteger();
+    private final AtomicInteger activeUploads = new AtomicInteger();
+    private final AtomicInteger maxActiveUploads = new AtomicInteger();
+    private final AtomicInteger voteWriteCount = new AtomicInteger();
+    private final AtomicInteger voteBatchCount = new AtomicInteger();
+
+    /**
+     * This constructor creates an empty backend.
+     * @param context used to read uploaded videos
+     * @param latencyMillis delay before every call is answered
+     * @param bytesPerSecond video transfer rate, or 0 for unlimited
+     */
+    public FakeClipBackend(Context context, long latencyMillis, long bytesPerSecond) {
+        this.context = context.getApplicationContext();
+        this.handler = new Handler(Looper.getMainLooper());
+        this.transferExecutor = Executors.newCachedThreadPool();
+        this.clips = Collections.synchronizedMap(new HashMap<String, Clip>());
+        this.likes = new HashMap<>();
+        this.videos = Collections.synchronizedMap(new HashMap<String, byte[]>());
+        this.rangeWatches = new ArrayList<>();
+        this.voteWatches = new ArrayList<>();
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * This method stores a clip immediately, as if it already existed on the server.
+     * Must be called on the main thread.
+     * @param hash key of the clip
+     * @param clip to store
+     */
+    public void putClip(String hash, Clip clip) {
+        clips.put(hash, copyOf(clip));
+        notifyWatches();
+    }
+
+    /**
+     * This method stores a video immediately, as if it had already been uploaded.
+     * @param name storage path of the video
+     * @param data bytes of the video
+     * @return download url of the video
+     */
+    public String putVideo(String name, byte[] data) {
+        String downloadUrl = URL_PREFIX + name;
+        videos.put(downloadUrl, data);
+        return downloadUrl;
+    }
+
+    public Clip getClip(String hash) {
+        Clip clip = clips.get(hash);
+        return clip == null ? null : copyOf(clip);
+    }
+
+    public byte[] getVideo(String downloadUrl) {
+        return videos.get(downloadUrl);
+    }
+
+    public int getUploadCount() {
+        return uploadCount.get();
+    }
+
+    /**
+     * This method returns the most uploads that were ever in progress at the same time.
+     * @return peak number of concurrent uploadVideo calls
+     */
+    public int getMaxActiveUploads() {
+        return maxActiveUploads.get();
+    }
+
+    /**
+     * This method returns the number of uploads still sending, which drops as soon as an
+     * upload is cancelled.
+     * @return number of uploadVideo calls in progress
+     */
+    public int getActiveUploads() {
+        return activeUploads.get();
+    }
+
+    /**
+     * This method returns the number of votes written, counting every vote of a batch, as
+     * each costs a real backend its own transactions.
+     * @return number of votes written by castVote and castVotes
+     */
+    public int getVoteWriteCount() {
+        return voteWriteCount.get();
+    }
+
+    /**
+     * This method returns the number of batches of votes written.
+     * @return number of castVotes calls answered
+     */
+    public int getVoteBatchCount() {
+        return voteBatchCount.get();
+    }
+
+    public Boolean getVote(String hash, String instanceId) {
+        Map<String, Boolean> clipLikes = likes.get(hash);
+        return clipLikes == null ? null : clipLikes.get(instanceId);
+    }
+
+    public void setFailVotes(boolean failVotes) {
+        this.failVotes = failVotes;
+    }
+
+    public void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * This method stops the transfer threads.
+     */
+    public void shutdown() {
+        transferExecutor.shutdownNow();
+    }
+
+    @Override
+    public void loadPage(String orderKey, Double endValue, String endKey, int limit,
+                         final Callback<LinkedHashMap<String, Clip>> callback) {
+        final LinkedHashMap<String, Clip> page = new LinkedHashMap<>();
+
+        for (String hash : range(orderKey, null, null, endValue, endKey, limit))
+            page.put(hash, copyOf(clips.get(hash)));
+
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSuccess(page);
+            }
+        });
+    }
+
+    @Override
+    public Registration watchRange(String orderKey, Double startValue, String startKey,
+                                   Double endValue, String endKey, int limit,
+                                   ClipListener listener) {
+        final RangeWatch watch = new RangeWatch(orderKey, startValue, startKey, endValue,
+                endKey, limit, listener);
+
+        rangeWatches.add(watch);
+        respond(watch);
+
+        return new Registration() {
+            @Override
+            public void remove() {
+                watch.removed = true;
+                rangeWatches.remove(watch);
+            }
+        };
+    }
+
+    @Override
+    public Registration watchVote(String hash, String instanceId, VoteListener listener) {
+        final VoteWatch watch = new VoteWatch(hash, instanceId, listener);
+
+        voteWatches.add(watch);
+        respond(watch);
+
+        return new Registration() {
+            @Override
+            public void remove() {
+                watch.removed = true;
+                voteWatches.remove(watch);
+            }
+        };
+    }
+
+    @Override
+    public void castVote(final String hash, final String instanceId, final Boolean vote) {
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                voteWriteCount.incrementAndGet();
+                applyVote(hash, instanceId, vote);
+                notifyWatches();
+            }
+        });
+    }
+
+    @Override
+    public void castVotes(List<VoteBatcher.Vote> votes, final Callback<Void> callback) {
+        final List<VoteBatcher.Vote> batch = new ArrayList<>(votes);
+
+        if (failVotes) {
+            respondFailure(callback, new IOException("Votes failed"));
+            return;
+        }
+
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                voteBatchCount.incrementAndGet();
+
+                for (VoteBatcher.Vote vote : batch) {
+                    voteWriteCount.incrementAndGet();
+                    applyVote(vote.getHash(), vote.getInstanceId(), vote.getVote());
+                }
+
+                notifyWatches();
+                callback.onSuccess(null);
+            }
+        });
+    }
+
+    @Override
+    public void addClip(final String hash, final Clip clip, final Callback<String> callback) {
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                if (!clips.containsKey(hash))
+                    clips.put(hash, copyOf(clip));
+
+                notifyWatches();
+
+                if (callback != null)
+                    callback.onSuccess(hash);
+            }
+        });
+    }
+
+    @Override
+    public void downloadVideo(final String downloadUrl, final File destination,
+                              final Callback<File> callback) {
+        transferExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] data = videos.get(downloadUrl);
+
+                try {
+                    if (data == null)
+                        throw new FileNotFoundException(downloadUrl);
+
+                    OutputStream output = new FileOutputStream(destination);
+
+                    try {
+                        transfer(new ByteArrayInputStream(data), output);
+                    } finally {
+                        output.close();
+                    }
+
+                    respondSuccess(callback, destination);
+                } catch (IOException e) {
+                    respondFailure(callback, e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Transfer uploadVideo(final Uri source, final String name,
+                                final Callback<String> callback) {
+        final Future<?> upload = transferExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                int active = activeUploads.incrementAndGet();
+
+                while (active > maxActiveUploads.get())
+                    maxActiveUploads.compareAndSet(maxActiveUploads.get(), active);
+
+                try {
+                    InputStream input = context.getContentResolver().openInputStream(source);
+
+                    if (input == null)
+                        throw new FileNotFoundException(source.toString());
+
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+                    try {
+                        transfer(input, output);
+                    } finally {
+                        input.close();
+                    }
+
+                    uploadCount.incrementAndGet();
+                    respondSuccess(callback, putVideo(name, output.toByteArray()));
+                } catch (IOException e) {
+                    respondFailure(callback, e);
+                } finally {
+                    activeUploads.decrementAndGet();
+                }
+            }
+        });
+
+        return new Transfer() {
+            @Override
+            public void cancel() {
+                upload.cancel(true);
+            }
+        };
+    }
+
+    @Override
+    public void findVideo(String name, Callback<String> callback) {
+        String downloadUrl = URL_PREFIX + name;
+        respondSuccess(callback, videos.containsKey(downloadUrl) ? downloadUrl : null);
+    }
+
+    /**
+     * This helper method copies a stream no faster than the configured bandwidth.
+     * @param input to read from
+     * @param output to write to
+     * @throws IOException if the copy fails or is interrupted
+     */
+    private void transfer(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[CHUNK_BYTES];
+        long startTime = SystemClock.elapsedRealtime();
+        long transferred = 0;
+        int read;
+
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+            transferred += read;
+
+            long rate = bytesPerSecond;
+
+            if (rate > 0) {
+                long due = startTime + transferred * 1000 / rate;
+                long wait = due - SystemClock.elapsedRealtime();
+
+                try {
+                    if (wait > 0)
+                        Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    throw new IOException("Transfer interrupted", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * This helper method stores, changes or removes a vote and keeps the clip's vote count
+     * and hot score in step, as the transactions of a real backend would.
+     * @param hash key of the clip
+     * @param instanceId user's instance id
+     * @param vote true if upvote, false if downvote, null to remove the vote
+     */
+    private void applyVote(String hash, String instanceId, Boolean vote) {
+        Clip clip = clips.get(hash);
+
+        if (clip == null)
+            return;
+
+        Map<String, Boolean> clipLikes = likes.get(hash);
+
+        if (clipLikes == null) {
+            clipLikes = new HashMap<>();
+            likes.put(hash, clipLikes);
+        }
+
+        Boolean previousVote = vote == null
+                ? clipLikes.remove(instanceId) : clipLikes.put(instanceId, vote);
+        int voteCount = clip.getVoteCount()
+                + VoteTally.toDirection(vote) - VoteTally.toDirection(previousVote);
+
+        clip.setVoteCount(voteCount);
+        clip.setHotScore(ScoringStrategy.HOT.score(clip.getTime(), voteCount, clip.getTime()));
+    }
+
+    private void respond(Runnable response) {
+        handler.postDelayed(response, latencyMillis);
+    }
+
+    private <T> void respondSuccess(final Callback<T> callback, final T result) {
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSuccess(result);
+            }
+        });
+    }
+
+    private <T> void respondFailure(final Callback<T> callback, final Exception exception) {
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFailure(exception);
+            }
+        });
+    }
+
+    /**
+     * This helper method tells every watch to catch up with the stored data after the
+     * configured latency.
+     */
+    private void notifyWatches() {
+        for (RangeWatch watch : rangeWatches)
+            respond(watch);
+
+        for (VoteWatch watch : voteWatches)
+            respond(watch);
+    }
+
+    /**
+     * This helper method selects the clips in a range, ordered as the database orders them,
+     * by order value and then by hash.
+     * @param orderKey ORDER_BY_TIME or ORDER_BY_HOT_SCORE
+     * @param startValue lowest order value to include, or null for no start
+     * @param startKey clip hash that breaks ties at the start value, or null
+     * @param endValue highest order value to include, or null for no end
+     * @param endKey clip hash that breaks ties at the end value, or null
+     * @param limit maximum number of clips, keeping the highest, or 0 for no limit
+     * @return hashes of the clips in the range, lowest first
+     */
+    private List<String> range(final String orderKey, Double startValue, String startKey,
+                               Double endValue, String endKey, int limit) {
+        List<String> hashes = new ArrayList<>();
+
+        synchronized (clips) {
+            for (Map.Entry<String, Clip> entry : clips.entrySet()) {
+                double value = orderValue(orderKey, entry.getValue());
+                String hash = entry.getKey();
+
+                if (startValue != null && compare(value, hash, startValue, startKey) < 0)
+                    continue;
+
+                if (endValue != null && compare(value, hash, endValue, endKey) > 0)
+                    continue;
+
+                hashes.add(hash);
+            }
+
+            Collections.sort(hashes, new Comparator<String>() {
+                @Override
+                public int compare(String first, String second) {
+                    return FakeClipBackend.compare(orderValue(orderKey, clips.get(first)),
+                            first, orderValue(orderKey, clips.get(second)), second);
+                }
+            });
+        }
+
+        if (limit > 0 && hashes.size() > limit)
+            hashes = new ArrayList<>(hashes.subList(hashes.size() - limit, hashes.size()));
+
+        return hashes;
+    }
+
+    private static double orderValue(String orderKey, Clip clip) {
+        return ORDER_BY_HOT_SCORE.equals(orderKey) ? clip.getHotScore() : clip.getTime();
+    }
+
+    /**
+     * This helper method compares two positions in the order. A null key compares equal
+     * to every key, as a query bound without a key includes every clip at its value.
+     */
+    private static int compare(double value, String hash, double otherValue, String otherHash) {
+        int comparison = Double.compare(value, otherValue);
+
+        if (comparison != 0 || hash == null || otherHash == null)
+            return comparison;
+
+        return hash.compareTo(otherHash);
+    }
+
+    private static Clip copyOf(Clip clip) {
+        Clip copy = new Clip();
+        copy.setTitle(clip.getTitle());
+        copy.setDownloadUrl(clip.getDownloadUrl());
+        copy.setPosterUrl(clip.getPosterUrl());
+        copy.setTime(clip.getTime());
+        copy.setVoteCount(clip.getVoteCount());
+        copy.setHotScore(clip.getHotScore());
+        return copy;
+    }
+
+    private static boolean sameClip(Clip first, Clip second) {
+        return first.getTime() == second.getTime()
+                && first.getVoteCount() == second.getVoteCount()
+                && first.getHotScore() == second.getHotScore()
+                && String.valueOf(first.getTitle()).equals(String.valueOf(second.getTitle()))
+                && String.valueOf(first.getDownloadUrl())
+                        .equals(String.valueOf(second.getDownloadUrl()))
+                && String.valueOf(first.getPosterUrl())
+                        .equals(String.valueOf(second.getPosterUrl()));
+    }
+
+    /**
+     * This class defines one watched range. When run, it compares the clips now in its
+     * range with the clips it last delivered and reports the difference.
+     */
+    private class RangeWatch implements Runnable {
+
+        private final String orderKey;
+        private final Double startValue;
+        private final String startKey;
+        private final Double endValue;
+        private final String endKey;
+        private final int limit;
+        private final ClipListener listener;
+        private final Map<String, Clip> delivered;
+        private boolean removed;
+
+        public RangeWatch(String orderKey, Double startValue, String startKey,
+                          Double endValue, String endKey, int limit, ClipListener listener) {
+            this.orderKey = orderKey;
+            this.startValue = startValue;
+            this.startKey = startKey;
+            this.endValue = endValue;
+            this.endKey = endKey;
+            this.limit = limit;
+            this.listener = listener;
+            this.delivered = new LinkedHashMap<>();
+        }
+
+        @Override
+        public void run() {
+            if (removed)
+                return;
+
+            List<String> hashes = range(orderKey, startValue, startKey, endValue, endKey,
+                    limit);
+            Iterator<Map.Entry<String, Clip>> iterator = delivered.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                String hash = iterator.next().getKey();
+
+                if (!hashes.contains(hash)) {
+                    iterator.remove();
+                    listener.onClipRemoved(hash);
+                }
+            }
+
+            for (String hash : hashes) {
+                Clip clip = copyOf(clips.get(hash));
+                Clip previous = delivered.put(hash, clip);
+
+                if (previous == null)
+                    listener.onClipAdded(hash, copyOf(clip));
+                else if (!sameClip(previous, clip))
+                    listener.onClipChanged(hash, copyOf(clip));
+            }
+        }
+    }
+
+    /**
+     * This class defines one watched vote. When run, it reports the vote if it changed
+     * since it was last delivered.
+     */
+    private class VoteWatch implements Runnable {
+
+        private final String hash;
+        private final String instanceId;
+        private final VoteListener listener;
+        private boolean delivered;
+        private Boolean vote;
+        private boolean removed;
+
+        public VoteWatch(String hash, String instanceId, VoteListener listener) {
+            this.hash = hash;
+            this.instanceId = instanceId;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            if (removed)
+                return;
+
+            Map<String, Boolean> clipLikes = likes.get(hash);
+            Boolean currentVote = clipLikes == null ? null : clipLikes.get(instanceId);
+
+            boolean changed = currentVote == null ? vote != null : !currentVote.equals(vote);
+
+            if (!delivered || changed) {
+                delivered = true;
+                vote = currentVote;
+                listener.onVoteChanged(currentVote);
+            }
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.VideoView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class benchmarks scrolling the clip feed in the main activity. The feed is seeded
+ * from a FakeClipBackend holding real videos, the list is flung by script, and the frame
+ * times, view holder create and bind durations, allocations per bind, the DecoderPool's
+ * hit rate and prepare latency and the most clips seen playing once a fling settles are
+ * reported as instrumentation status and to the log, so that regressions in the adapter
+ * show up as numbers. Run it on a device with the screen on and unlocked.
+ * @author colomb2
+ */
+public class FeedScrollBenchmark {
+
+    private static final String TAG = "FeedScrollBenchmark";
+    private static final int CLIPS = 200;
+    private static final int FLINGS = 12;
+    private static final int FLINGS_BACK = 3;
+    private static final int FLING_VELOCITY = 6000;
+    private static final long LATENCY = 50;
+    private static final long BANDWIDTH = 4 * 1024 * 1024;
+    private static final int VIDEO_WIDTH = 320;
+    private static final int VIDEO_HEIGHT = 240;
+    private static final int VIDEO_FRAME_RATE = 30;
+    private static final int VIDEO_FRAMES = 90;
+    private static final int MAX_SAMPLES = 8192;
+    private static final int S_30_SECONDS = 30;
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.95, 0.99};
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    @Rule
+    public ActivityTestRule<MainActivity> activityRule =
+            new ActivityTestRule<>(MainActivity.class, false, false);
+
+    private Instrumentation instrumentation;
+    private FakeClipBackend backend;
+    private File videoFile;
+    private FrameRecorder frameRecorder;
+    private BindRecorder bindRecorder;
+
+    /**
+     * This method grants storage permission so no dialog interrupts the run, encodes a
+     * test video and seeds the fake backend with clips under urls unique to this run, so
+     * every video starts out of the cache. The saved feed snapshot is deleted, so the
+     * feed starts empty.
+     * @throws Exception if the video cannot be written
+     */
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        TestUtilities.grantStoragePermission(instrumentation);
+
+        videoFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "benchmark.mp4");
+        TestVideos.write(videoFile, VIDEO_WIDTH, VIDEO_HEIGHT, VIDEO_FRAME_RATE, VIDEO_FRAMES);
+        byte[] video = TestUtilities.readFile(videoFile);
+        long runId = System.currentTimeMillis();
+
+        ClipRank.setRankByTrending(false);
+        FeedSnapshotStore.getInstance(InstrumentationRegistry.getTargetContext()).clear();
+        backend = new FakeClipBackend(InstrumentationRegistry.getTargetContext(),
+                LATENCY, BANDWIDTH);
+
+        TestUtilities.seedClips(instrumentation, backend, "bench/" + runId + "/", video, CLIPS);
+
+        frameRecorder = new FrameRecorder();
+        bindRecorder = new BindRecorder();
+        ClipBackends.set(backend);
+        ClipAdapter.setBindObserver(bindRecorder);
+        Debug.startAllocCounting();
+    }
+
+    @After
+    public void tearDown() {
+        Debug.stopAllocCounting();
+        ClipAdapter.setBindObserver(null);
+
+        if (activityRule.getActivity() != null)
+            activityRule.getActivity().finish();
+
+        ClipBackends.set(null);
+        backend.shutdown();
+        videoFile.delete();
+    }
+
+    /**
+     * Benchmark flinging down through the feed, paging as it goes, and back up over rows
+     * that were already bound. Every frame drawn during the flings is measured.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void benchmarkFling() throws Exception {
+        MainActivity activity = activityRule.launchActivity(null);
+        final RecyclerView recyclerView = (RecyclerView) activity.findViewById(R.id.rv_clips);
+        awaitItems(recyclerView);
+
+        float refreshRate = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+        bindRecorder.reset();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DecoderPool.getInstance().resetStats();
+            }
+        });
+        frameRecorder.start();
+
+        int maxPlaying = 0;
+
+        for (int i = 0; i < FLINGS + FLINGS_BACK; i++) {
+            fling(recyclerView, i < FLINGS ? FLING_VELOCITY : -FLING_VELOCITY);
+            SystemClock.sleep(AutoplayController.SETTLE_DELAY * 2);
+            maxPlaying = Math.max(maxPlaying, countPlaying(recyclerView));
+        }
+
+        frameRecorder.stop();
+
+        Bundle results = new Bundle();
+        long refreshPeriod = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+        frameRecorder.report(results, refreshPeriod);
+        bindRecorder.report(results);
+        reportDecoderPool(results);
+        results.putInt("clips_playing_max", maxPlaying);
+        instrumentation.sendStatus(0, results);
+
+        for (String key : results.keySet())
+            Log.i(TAG, key + ": " + results.get(key));
+
+        assertTrue(frameRecorder.count > 1);
+        assertTrue(bindRecorder.binds > 0);
+        assertTrue(results.getInt("decoders_peak") <= DecoderPool.getInstance().getMaxDecoders());
+        assertTrue(maxPlaying <= 1);
+    }
+
+    /**
+     * This helper method counts the rows whose videos are playing.
+     * @param recyclerView showing the feed
+     * @return number of playing clips
+     */
+    private int countPlaying(final RecyclerView recyclerView) {
+        final int[] playing = new int[1];
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < recyclerView.getChildCount(); i++) {
+                    View clipView = recyclerView.getChildAt(i).findViewById(R.id.clip);
+
+                    if (clipView instanceof VideoView && ((VideoView) clipView).isPlaying())
+                        playing[0]++;
+                }
+            }
+        });
+
+        return playing[0];
+    }
+
+    /**
+     * This helper method adds the DecoderPool's hit rate, evictions, peak number of held
+     * players and prepare latency to the results.
+     * @param results to add to
+     */
+    private void reportDecoderPool(final Bundle results) {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DecoderPool pool = DecoderPool.getInstance();
+                results.putDouble("decoder_hit_rate", pool.getHitRate());
+                results.putLong("decoder_evictions", pool.getEvictionCount());
+                results.putInt("decoders_peak", pool.getPeakActiveCount());
+                results.putDouble("prepare_ms_mean", pool.getMeanPrepareMillis());
+                results.putLong("prepare_ms_max", pool.getMaxPrepareMillis());
+            }
+        });
+    }
+
+    /**
+     * This helper method flings the list and waits for it to come to rest.
+     * @param recyclerView to fling
+     * @param velocity vertical velocity in pixels per second
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void fling(final RecyclerView recyclerView, final int velocity)
+            throws InterruptedException {
+        final CountDownLatch idle = new CountDownLatch(1);
+        final RecyclerView.OnScrollListener idleListener = new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE)
+                    idle.countDown();
+            }
+        };
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recyclerView.addOnScrollListener(idleListener);
+
+                if (!recyclerView.fling(0, velocity))
+                    idle.countDown();
+            }
+        });
+
+        assertTrue(idle.await(S_30_SECONDS, TimeUnit.SECONDS));
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recyclerView.removeOnScrollListener(idleListener);
+            }
+        });
+    }
+
+    /**
+     * This helper method waits for the first page of clips to be shown.
+     * @param recyclerView showing the feed
+     */
+    private void awaitItems(final RecyclerView recyclerView) {
+        long deadline = SystemClock.uptimeMillis() + TimeUnit.SECONDS.toMillis(S_30_SECONDS);
+        final int[] count = new int[1];
+
+        while (count[0] == 0 && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(100);
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    count[0] = recyclerView.getChildCount();
+                }
+            });
+        }
+
+        assertTrue(count[0] > 0);
+        instrumentation.waitForIdleSync();
+    }
+
+    /**
+     * This helper method adds the given percentiles of sorted samples to the results.
+     * @param results to add to
+     * @param name prefix of the result keys
+     * @param sorted samples in ascending order
+     * @param count number of samples
+     * @param scale divisor applied to each sample
+     */
+    private static void putPercentiles(Bundle results, String name, long[] sorted, int count,
+                                       double scale) {
+        if (count == 0)
+            return;
+
+        for (double percentile : PERCENTILES) {
+            int index = Math.max(0, (int) Math.ceil(percentile * count) - 1);
+            results.putDouble(String.format(Locale.US, "%s_p%d", name,
+                    Math.round(percentile * 100)), sorted[index] / scale);
+        }
+
+        results.putDouble(name + "_max", sorted[count - 1] / scale);
+    }
+
+    /**
+     * This class records the time of every frame on the main thread. Samples go into a
+     * preallocated array so that recording does not add allocations to the measured run.
+     */
+    private class FrameRecorder implements Choreographer.FrameCallback {
+
+        private final long[] frameTimes = new long[MAX_SAMPLES];
+        private int count;
+        private volatile boolean recording;
+
+        public void start() {
+            recording = true;
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    Choreographer.getInstance().postFrameCallback(FrameRecorder.this);
+                }
+            });
+        }
+
+        public void stop() {
+            recording = false;
+            instrumentation.waitForIdleSync();
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!recording)
+                return;
+
+            if (count < frameTimes.length)
+                frameTimes[count++] = frameTimeNanos;
+
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        /**
+         * This method adds frame interval percentiles and the number of dropped frames,
+         * being the display refreshes that passed without a new frame, to the results.
+         * @param results to add to
+         * @param refreshPeriod nanoseconds between display refreshes
+         */
+        public void report(Bundle results, long refreshPeriod) {
+            int intervals = Math.max(0, count - 1);
+            long[] sorted = new long[intervals];
+            long dropped = 0;
+            int jankyFrames = 0;
+
+            for (int i = 0; i < intervals; i++) {
+                sorted[i] = frameTimes[i + 1] - frameTimes[i];
+                long missed = Math.round((double) sorted[i] / refreshPeriod) - 1;
+
+                if (missed > 0) {
+                    dropped += missed;
+                    jankyFrames++;
+                }
+            }
+
+            Arrays.sort(sorted);
+            results.putInt("frames", count);
+            results.putLong("frames_dropped", dropped);
+            results.putInt("frames_janky", jankyFrames);
+            results.putDouble("refresh_period_ms", refreshPeriod / NANOS_PER_MILLI);
+            putPercentiles(results, "frame_ms", sorted, intervals, NANOS_PER_MILLI);
+        }
+    }
+
+    /**
+     * This class records the duration of each view holder creation and bind, and the
+     * number of objects allocated on the main thread during each bind.
+     */
+    private static class BindRecorder implements ClipAdapter.BindObserver {
+
+        private final long[] createNanos = new long[MAX_SAMPLES];
+        private final long[] bindNanos = new long[MAX_SAMPLES];
+        private final long[] bindAllocations = new long[MAX_SAMPLES];
+        private int creates;
+        private int binds;
+        private long startNanos;
+        private int startAllocations;
+
+        public synchronized void reset() {
+            creates = 0;
+            binds = 0;
+        }
+
+        @Override
+        public synchronized void onCreateStarted() {
+            startNanos = System.nanoTime();
+        }
+
+        @Override
+        public synchronized void onCreateFinished() {
+            if (creates < createNanos.length)
+                createNanos[creates++] = System.nanoTime() - startNanos;
+        }
+
+        @Override
+        public synchronized void onBindStarted() {
+            startAllocations = Debug.getThreadAllocCount();
+            startNanos = System.nanoTime();
+        }
+
+        @Override
+        public synchronized void onBindFinished() {
+            long duration = System.nanoTime() - startNanos;
+
+            if (binds < bindNanos.length) {
+                bindNanos[binds] = duration;
+                bindAllocations[binds] = Debug.getThreadAllocCount() - startAllocations;
+                binds++;
+            }
+        }
+
+        /**
+         * This method adds the creation and bind percentiles and the allocations per bind
+         * to the results.
+         * @param results to add to
+         */
+        public synchronized void report(Bundle results) {
+            long totalAllocations = 0;
+
+            for (int i = 0; i < binds; i++)
+                totalAllocations += bindAllocations[i];
+
+            results.putInt("creates", creates);
+            results.putInt("binds", binds);
+            results.putDouble("bind_allocations_mean",
+                    binds == 0 ? 0 : (double) totalAllocations / binds);
+
+            long[] sorted = Arrays.copyOf(createNanos, creates);
+            Arrays.sort(sorted);
+            putPercentiles(results, "create_ms", sorted, creates, NANOS_PER_MILLI);
+
+            sorted = Arrays.copyOf(bindNanos, binds);
+            Arrays.sort(sorted);
+            putPercentiles(results, "bind_ms", sorted, binds, NANOS_PER_MILLI);
+
+            sorted = Arrays.copyOf(bindAllocations, binds);
+            Arrays.sort(sorted);
+            putPercentiles(results, "bind_allocations", sorted, binds, 1);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests that the FeedSnapshotStore saves the top of a ranked feed in order,
+ * keeps no more than MAX_CLIPS of it, and discards snapshots it cannot use.
+ * @author colomb2
+ */
+public class FeedSnapshotStoreTest {
+
+    private static final long NOW = 1500000000000L;
+
+    private File file;
+    private FeedSnapshotStore store;
+
+    @Before
+    public void setUp() {
+        file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "feed_snapshot_test");
+        file.delete();
+        store = new FeedSnapshotStore(file);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Test that a saved feed is loaded in its ranked order with its clips, and that only
+     * the top MAX_CLIPS clips are kept.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        ClipStore clipStore = new ClipStore();
+        List<String> order = new ArrayList<>();
+
+        for (int i = 0; i < FeedSnapshotStore.MAX_CLIPS * 2; i++) {
+            Clip clip = new Clip("Clip " + i, "memory://video/" + i);
+            clip.setTime(NOW - i);
+            clip.setVoteCount(i);
+
+            if (i % 2 == 0)
+                clip.setPosterUrl("memory://poster/" + i);
+
+            clipStore.put("clip" + i, clip);
+            order.add("clip" + i);
+        }
+
+        store.save(true, order, clipStore);
+        store.flush();
+
+        FeedSnapshotStore.Snapshot snapshot = store.load();
+        assertTrue(snapshot.isRankByTrending());
+        assertEquals(order.subList(0, FeedSnapshotStore.MAX_CLIPS), snapshot.getOrder());
+
+        for (int i = 0; i < FeedSnapshotStore.MAX_CLIPS; i++) {
+            Clip clip = snapshot.getClip("clip" + i);
+            assertEquals("Clip " + i, clip.getTitle());
+            assertEquals("memory://video/" + i, clip.getDownloadUrl());
+            assertEquals(i % 2 == 0 ? "memory://poster/" + i : null, clip.getPosterUrl());
+            assertEquals(NOW - i, clip.getTime());
+            assertEquals(i, clip.getVoteCount());
+        }
+    }
+
+    /**
+     * Test that a snapshot of another version, or one cut short, is not loaded.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testUnusableSnapshotDiscarded() throws Exception {
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+        output.writeInt(FeedSnapshotStore.VERSION + 1);
+        output.close();
+        assertNull(store.load());
+
+        output = new DataOutputStream(new FileOutputStream(file));
+        output.writeInt(FeedSnapshotStore.VERSION);
+        output.writeBoolean(false);
+        output.writeLong(NOW);
+        output.writeInt(1);
+        output.close();
+        assertNull(store.load());
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.michaelcolomb.clipscroller;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests that Metrics counts exactly when updated from many threads, that its
+ * histograms bucket and estimate values, and that its dump is valid JSON.
+ * @author colomb2
+ */
+public class MetricsTest {
+
+    private static final int THREADS = 8;
+    private static final int INCREMENTS = 100000;
+
+    @Before
+    public void setUp() {
+        Metrics.reset();
+    }
+
+    /**
+     * Test that a counter incremented from several threads at once loses no counts, and
+     * that looking it up again returns the same counter.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testConcurrentCounter() throws Exception {
+        final Metrics.Counter counter = Metrics.counter("test.concurrent");
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < INCREMENTS; j++)
+                        counter.increment();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals((long) THREADS * INCREMENTS, counter.get());
+        assertSame(counter, Metrics.counter("test.concurrent"));
+    }
+
+    /**
+     * Test that a histogram keeps its count, sum and max exactly and estimates its
+     * percentiles within a power of two.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testHistogram() throws Exception {
+        Metrics.Histogram histogram = Metrics.histogram("test.histogram");
+
+        for (int value = 1; value <= 100; value++)
+            histogram.record(value);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        assertEquals(63, histogram.getPercentile(0.5));
+        assertEquals(100, histogram.getPercentile(0.99));
+    }
+
+    /**
+     * Test that the dump holds every kind of metric as JSON.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testDump() throws Exception {
+        Metrics.counter("test.dump_counter").add(3);
+        Metrics.gauge("test.dump_gauge").set(7);
+        Metrics.histogram("test.dump_histogram").record(5);
+
+        StringWriter writer = new StringWriter();
+        Metrics.dump(writer);
+        JSONObject dump = new JSONObject(writer.toString());
+
+        assertEquals(3, dump.getJSONObject("counters").getLong("test.dump_counter"));
+        assertEquals(7, dump.getJSONObject("gauges").getLong("test.dump_gauge"));
+
+        JSONObject histogram = dump.getJSONObject("histograms")
+                .getJSONObject("test.dump_histogram");
+        assertEquals(1, histogram.getLong("count"));
+        assertEquals(5, histogram.getLong("p50"));
+
+        JSONArray buckets = histogram.getJSONArray("buckets");
+        assertEquals(1, buckets.length());
+        assertEquals(7, buckets.getJSONArray(0).getLong(0));
+        assertTrue(dump.getLong("uptime_ms") > 0);
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.app.Instrumentation;
+import android.support.test.InstrumentationRegistry;
+import android.widget.MediaController;
+import android.widget.ProgressBar;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests that the ProgressTicker updates tracked progress bars from their
+ * players, wakes rarely for bars that are off the screen, and stops once nothing plays.
+ * @author colomb2
+ */
+public class ProgressTickerTest {
+
+    private static final int DURATION = 10000;
+    private static final long ONE_SECOND = 1000;
+
+    private Instrumentation instrumentation;
+    private ProgressTicker ticker;
+    private ProgressBar progressBar;
+    private FakePlayer player;
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ticker = new ProgressTicker();
+                progressBar = new ProgressBar(instrumentation.getTargetContext(), null,
+                        android.R.attr.progressBarStyleHorizontal);
+                progressBar.setMax(DURATION);
+                player = new FakePlayer();
+            }
+        });
+    }
+
+    /**
+     * Test that an off-screen progress bar follows its player at the throttled rate and
+     * gets its final position once the player stops.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testOffscreenBarThrottled() throws Exception {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                player.playing = true;
+                player.position = 1000;
+                ticker.track(progressBar, player);
+                ticker.resetStats();
+            }
+        });
+
+        Thread.sleep(ONE_SECOND);
+        instrumentation.waitForIdleSync();
+        assertEquals(1000, progressBar.getProgress());
+        assertTrue(ticker.isTicking());
+        assertTrue(ticker.getWakeupsPerSecond()
+                <= ONE_SECOND / ProgressTicker.OFFSCREEN_INTERVAL + 1);
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                player.playing = false;
+                player.position = 2000;
+            }
+        });
+
+        Thread.sleep(ProgressTicker.OFFSCREEN_INTERVAL * 2);
+        instrumentation.waitForIdleSync();
+        assertEquals(2000, progressBar.getProgress());
+        assertFalse(ticker.isTicking());
+        assertEquals(0, ticker.getTrackedCount());
+    }
+
+    /**
+     * Test that tracking a bar again moves it to the new player rather than adding it
+     * twice.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testTrackAgainReplaces() throws Exception {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                player.playing = true;
+                ticker.track(progressBar, player);
+                ticker.track(progressBar, new FakePlayer());
+                assertEquals(1, ticker.getTrackedCount());
+            }
+        });
+    }
+
+    /**
+     * This class defines a player whose state is set by the test.
+     */
+    private static class FakePlayer implements MediaController.MediaPlayerControl {
+
+        private boolean playing;
+        private int position;
+
+        @Override
+        public void start() {
+            playing = true;
+        }
+
+        @Override
+        public void pause() {
+            playing = false;
+        }
+
+        @Override
+        public int getDuration() {
+            return DURATION;
+        }
+
+        @Override
+        public int getCurrentPosition() {
+            return position;
+        }
+
+        @Override
+        public void seekTo(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return playing;
+        }
+
+        @Override
+        public int getBufferPercentage() {
+            return 100;
+        }
+
+        @Override
+        public boolean canPause() {
+            return true;
+        }
+
+        @Override
+        public boolean canSeekBackward() {
+            return true;
+        }
+
+        @Override
+        public boolean canSeekForward() {
+            return true;
+        }
+
+        @Override
+        public int getAudioSessionId() {
+            return 0;
+        }
+    }
+}
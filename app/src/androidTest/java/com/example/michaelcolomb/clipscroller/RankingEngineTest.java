@@ -0,0 +1,102 @@
+package com.example.michaelcolomb.clipscroller;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * This class contains tests for ranking clips with the RankingEngine.
+ * @author colomb2
+ */
+public class RankingEngineTest {
+
+    private static final long NOW = 1500000000000L;
+    private static final long DAY = 86400000L;
+    private static final int CANDIDATES = 100000;
+    private static final int TOP_K = 20;
+    private static final long SEED = 2017;
+
+    /**
+     * Test that clips whose ages differ by more than an int can hold are still ranked
+     * newest first, both by the engine and by sorting ClipRanks.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testRecencyBeyondIntRange() throws Exception {
+        ClipRank.setRankByTrending(false);
+        RankingEngine engine = new RankingEngine();
+        ArrayList<ClipRank> ranks = new ArrayList<>();
+        String[] expected = {"new", "week", "year"};
+
+        engine.add("year", NOW - 365 * DAY, 0);
+        engine.add("new", NOW, 0);
+        engine.add("week", NOW - 7 * DAY, 0);
+        ranks.add(ClipRank.create("year", NOW - 365 * DAY, 0, NOW));
+        ranks.add(ClipRank.create("new", NOW, 0, NOW));
+        ranks.add(ClipRank.create("week", NOW - 7 * DAY, 0, NOW));
+
+        engine.rank(ScoringStrategy.RECENCY, NOW, engine.size());
+        Collections.sort(ranks);
+
+        String[] engineHashes = new String[engine.getRankedCount()];
+        String[] sortedHashes = new String[ranks.size()];
+
+        for (int i = 0; i < engineHashes.length; i++) {
+            engineHashes[i] = engine.getRankedHash(i);
+            sortedHashes[i] = ranks.get(i).getHash();
+        }
+
+        assertArrayEquals(expected, engineHashes);
+        assertArrayEquals(expected, sortedHashes);
+    }
+
+    /**
+     * Test that the top K selected from many clips match the first K of a full sort of
+     * the same clips, for every scoring strategy.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testTopKMatchesFullSort() throws Exception {
+        ScoringStrategy[] strategies = {ScoringStrategy.RECENCY, ScoringStrategy.TRENDING,
+                ScoringStrategy.HOT};
+        RankingEngine engine = new RankingEngine(CANDIDATES);
+        Random random = new Random(SEED);
+        long[] times = new long[CANDIDATES];
+        int[] voteCounts = new int[CANDIDATES];
+
+        for (int i = 0; i < CANDIDATES; i++) {
+            times[i] = NOW - (long) (random.nextDouble() * 30 * DAY);
+            voteCounts[i] = random.nextInt(2001) - 1000;
+            engine.add(String.valueOf(i), times[i], voteCounts[i]);
+        }
+
+        for (ScoringStrategy strategy : strategies) {
+            final double[] scores = new double[CANDIDATES];
+            Integer[] sorted = new Integer[CANDIDATES];
+
+            for (int i = 0; i < CANDIDATES; i++) {
+                scores[i] = strategy.score(times[i], voteCounts[i], NOW);
+                sorted[i] = i;
+            }
+
+            Arrays.sort(sorted, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer first, Integer second) {
+                    return Double.compare(scores[second], scores[first]);
+                }
+            });
+
+            assertEquals(TOP_K, engine.rank(strategy, NOW, TOP_K));
+
+            for (int i = 0; i < TOP_K; i++)
+                assertEquals(String.valueOf(sorted[i]), engine.getRankedHash(i));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageMetadata;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests that the ResumableUploader keeps the storage session of an interrupted
+ * upload for the source it belongs to, resumes it once the upload is cancelled partway
+ * through, and only starts an upload again when the server no longer has its session.
+ * @author colomb2
+ */
+public class ResumableUploadTest {
+
+    private static final String NAME = "video/resumable test.mp4";
+    private static final Uri SESSION_URI = Uri.parse("https://storage.example/upload?id=1");
+    private static final long SENT_BYTES = 4 * 256 * 1024;
+    private static final int TRANSFER_BYTES = 8 * 1024 * 1024;
+    private static final long POLL_INTERVAL = 10;
+    private static final long SETTLE_MILLIS = 1000;
+    private static final int S_60_SECONDS = 60;
+
+    private Context context;
+    private ResumableUploader uploader;
+    private File sourceFile;
+    private Uri source;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        clearPreferences();
+        uploader = new ResumableUploader(context, FirebaseStorage.getInstance().getReference());
+        sourceFile = new File(context.getCacheDir(), "resumable_test.bin");
+        source = Uri.fromFile(sourceFile);
+    }
+
+    @After
+    public void tearDown() {
+        clearPreferences();
+        sourceFile.delete();
+    }
+
+    /**
+     * Test that a saved session is resumed by a new uploader for the same source, with
+     * the bytes sent in it.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testSessionResumedForSameSource() throws Exception {
+        uploader.saveSession(NAME, source, SESSION_URI, SENT_BYTES);
+
+        ResumableUploader restarted = new ResumableUploader(context,
+                FirebaseStorage.getInstance().getReference());
+        assertTrue(restarted.hasSession(NAME));
+        assertEquals(SENT_BYTES, restarted.getSentBytes(NAME));
+        assertEquals(SESSION_URI, restarted.loadSession(NAME, source));
+    }
+
+    /**
+     * Test that a session saved for another source is forgotten rather than resumed.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testSessionForgottenForOtherSource() throws Exception {
+        uploader.saveSession(NAME, source, SESSION_URI, SENT_BYTES);
+
+        Uri otherSource = Uri.fromFile(new File(context.getCacheDir(), "other.bin"));
+        assertNull(uploader.loadSession(NAME, otherSource));
+        assertFalse(uploader.hasSession(NAME));
+    }
+
+    /**
+     * Test that only a missing or expired session starts the upload again, and that
+     * permission and request errors keep the session.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testOnlyLostSessionsRestarted() throws Exception {
+        assertTrue(ResumableUploader.isSessionGone(404));
+        assertTrue(ResumableUploader.isSessionGone(410));
+        assertFalse(ResumableUploader.isSessionGone(400));
+        assertFalse(ResumableUploader.isSessionGone(401));
+        assertFalse(ResumableUploader.isSessionGone(403));
+        assertFalse(ResumableUploader.isSessionGone(500));
+    }
+
+    /**
+     * Test that an upload cancelled partway through stops without completing and keeps
+     * its session, and that a new uploader resumes that session and stores the whole file.
+     * Runs against Firebase Storage.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testCancelledUploadResumed() throws Exception {
+        byte[] data = new byte[TRANSFER_BYTES];
+        new Random(TRANSFER_BYTES).nextBytes(data);
+        OutputStream output = new FileOutputStream(sourceFile);
+
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+
+        UploadCallback interrupted = new UploadCallback();
+        ClipBackend.Transfer transfer = uploader.upload(source, NAME, interrupted);
+        long deadline = SystemClock.uptimeMillis() + TimeUnit.SECONDS.toMillis(S_60_SECONDS);
+
+        while (uploader.getSentBytes(NAME) == 0 && SystemClock.uptimeMillis() < deadline)
+            SystemClock.sleep(POLL_INTERVAL);
+
+        transfer.cancel();
+        long sentBytes = uploader.getSentBytes(NAME);
+        assertTrue(sentBytes > 0 && sentBytes < TRANSFER_BYTES);
+        assertFalse(interrupted.await(SETTLE_MILLIS));
+
+        ResumableUploader restarted = new ResumableUploader(context,
+                FirebaseStorage.getInstance().getReference());
+        assertNotNull(restarted.loadSession(NAME, source));
+
+        UploadCallback resumed = new UploadCallback();
+        restarted.upload(source, NAME, resumed);
+        assertTrue(resumed.await(TimeUnit.SECONDS.toMillis(S_60_SECONDS)));
+        assertNotNull(resumed.downloadUrl);
+        assertFalse(restarted.hasSession(NAME));
+
+        final long[] storedBytes = new long[1];
+        final CountDownLatch metadataLatch = new CountDownLatch(1);
+        FirebaseStorage.getInstance().getReference().child(NAME).getMetadata()
+                .addOnSuccessListener(new OnSuccessListener<StorageMetadata>() {
+                    @Override
+                    public void onSuccess(StorageMetadata metadata) {
+                        storedBytes[0] = metadata.getSizeBytes();
+                        metadataLatch.countDown();
+                    }
+                });
+        assertTrue(metadataLatch.await(S_60_SECONDS, TimeUnit.SECONDS));
+        assertEquals(TRANSFER_BYTES, storedBytes[0]);
+        FirebaseStorage.getInstance().getReference().child(NAME).delete();
+    }
+
+    private void clearPreferences() {
+        context.getSharedPreferences(ResumableUploader.PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    /**
+     * This class defines an upload callback that the test thread can wait on.
+     */
+    private static class UploadCallback implements ClipBackend.Callback<String> {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile String downloadUrl;
+
+        @Override
+        public void onSuccess(String result) {
+            downloadUrl = result;
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(Exception exception) {
+            latch.countDown();
+        }
+
+        /**
+         * This method waits for the upload to be answered.
+         * @param timeout milliseconds to wait
+         * @return true if the upload succeeded or failed within the timeout
+         * @throws InterruptedException if the wait was interrupted
+         */
+        public boolean await(long timeout) throws InterruptedException {
+            return latch.await(timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+}
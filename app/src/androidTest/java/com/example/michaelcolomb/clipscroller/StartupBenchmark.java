@@ -0,0 +1,118 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class benchmarks launching the main activity against a FakeClipBackend holding a
+ * real video. The StartupTracer stages, from launching the activity to its first frame,
+ * first clip title and first playable clip, are reported as instrumentation status and to
+ * the log. The process is already running, so this times the activity's part of a cold
+ * start; the process start is only timed by the tracer in a real launch.
+ * @author colomb2
+ */
+public class StartupBenchmark {
+
+    private static final String TAG = "StartupBenchmark";
+    private static final int CLIPS = 10;
+    private static final long LATENCY = 50;
+    private static final long BANDWIDTH = 4 * 1024 * 1024;
+    private static final int VIDEO_WIDTH = 320;
+    private static final int VIDEO_HEIGHT = 240;
+    private static final int VIDEO_FRAME_RATE = 30;
+    private static final int VIDEO_FRAMES = 30;
+    private static final int S_30_SECONDS = 30;
+
+    @Rule
+    public ActivityTestRule<MainActivity> activityRule =
+            new ActivityTestRule<>(MainActivity.class, false, false);
+
+    private Instrumentation instrumentation;
+    private FakeClipBackend backend;
+    private File videoFile;
+
+    /**
+     * This method grants storage permission so no dialog interrupts the run, deletes the
+     * saved feed snapshot and seeds the fake backend with clips of a test video.
+     * @throws Exception if the video cannot be written
+     */
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        TestUtilities.grantStoragePermission(instrumentation);
+
+        videoFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "startup.mp4");
+        TestVideos.write(videoFile, VIDEO_WIDTH, VIDEO_HEIGHT, VIDEO_FRAME_RATE, VIDEO_FRAMES);
+        byte[] video = TestUtilities.readFile(videoFile);
+        long runId = System.currentTimeMillis();
+
+        ClipRank.setRankByTrending(false);
+        FeedSnapshotStore.getInstance(InstrumentationRegistry.getTargetContext()).clear();
+        backend = new FakeClipBackend(InstrumentationRegistry.getTargetContext(),
+                LATENCY, BANDWIDTH);
+
+        TestUtilities.seedClips(instrumentation, backend, "startup/" + runId + "/", video, CLIPS);
+
+        ClipBackends.set(backend);
+    }
+
+    @After
+    public void tearDown() {
+        if (activityRule.getActivity() != null)
+            activityRule.getActivity().finish();
+
+        ClipBackends.set(null);
+        backend.shutdown();
+        videoFile.delete();
+    }
+
+    /**
+     * Benchmark launching the activity until its first clip can be played.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void benchmarkLaunch() throws Exception {
+        StartupTracer.reset();
+        activityRule.launchActivity(null);
+
+        long deadline = SystemClock.uptimeMillis() + TimeUnit.SECONDS.toMillis(S_30_SECONDS);
+
+        while ((StartupTracer.getStageMillis(StartupTracer.FIRST_PLAYABLE) < 0
+                || StartupTracer.getStageMillis(StartupTracer.DEFERRED_DONE) < 0)
+                && SystemClock.uptimeMillis() < deadline)
+            SystemClock.sleep(100);
+
+        Bundle results = new Bundle();
+
+        for (Map.Entry<String, Long> stage : StartupTracer.getStages().entrySet())
+            results.putLong(stage.getKey() + "_ms", stage.getValue());
+
+        instrumentation.sendStatus(0, results);
+
+        for (String key : results.keySet())
+            Log.i(TAG, key + ": " + results.get(key));
+
+        long activityCreated = StartupTracer.getStageMillis(StartupTracer.ACTIVITY_CREATED);
+        long firstFrame = StartupTracer.getStageMillis(StartupTracer.FIRST_FRAME);
+        assertTrue(activityCreated >= 0 && firstFrame >= activityCreated);
+        assertTrue(StartupTracer.getStageMillis(StartupTracer.FIRST_TITLE) >= 0);
+        assertTrue(StartupTracer.getStageMillis(StartupTracer.FIRST_PLAYABLE) >= 0);
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.Manifest;
+import android.app.Instrumentation;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * This class holds the helpers that tests and benchmarks share: reading files, running
+ * shell commands and seeding a FakeClipBackend with a feed of clips.
+ * @author colomb2
+ */
+public class TestUtilities {
+
+    protected static final long NOW = 1500000000000L;
+    private static final long CLIP_INTERVAL = 60000;
+
+    /**
+     * This method reads a whole file.
+     * @param file to read
+     * @return the file's bytes
+     * @throws IOException if the file could not be read
+     */
+    public static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream input = new FileInputStream(file);
+
+        try {
+            int offset = 0;
+
+            while (offset < data.length) {
+                int read = input.read(data, offset, data.length - offset);
+
+                if (read < 0)
+                    throw new IOException("Unexpected end of " + file);
+
+                offset += read;
+            }
+        } finally {
+            input.close();
+        }
+
+        return data;
+    }
+
+    /**
+     * This method runs a shell command as the shell user and waits for it to finish.
+     * @param instrumentation to run the command through
+     * @param command to run
+     * @throws IOException if its output cannot be read
+     */
+    public static void runShellCommand(Instrumentation instrumentation, String command)
+            throws IOException {
+        InputStream output = new ParcelFileDescriptor.AutoCloseInputStream(
+                instrumentation.getUiAutomation().executeShellCommand(command));
+
+        try {
+            while (output.read() >= 0) { }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * This method grants the application storage permission, so that no dialog interrupts
+     * a run.
+     * @param instrumentation to run the grant through
+     * @throws IOException if the grant's output cannot be read
+     */
+    public static void grantStoragePermission(Instrumentation instrumentation)
+            throws IOException {
+        runShellCommand(instrumentation, "pm grant "
+                + instrumentation.getTargetContext().getPackageName() + " "
+                + Manifest.permission.READ_EXTERNAL_STORAGE);
+    }
+
+    /**
+     * This method seeds a fake backend with clips of one video, a minute apart from NOW,
+     * each under its own download url, so that every clip starts out of the cache.
+     * @param instrumentation to seed the backend on the main thread with
+     * @param backend FakeClipBackend to seed
+     * @param urlPrefix that the clips' storage paths start with
+     * @param video bytes of the video every clip plays
+     * @param count number of clips
+     */
+    public static void seedClips(Instrumentation instrumentation, final FakeClipBackend backend,
+                                 final String urlPrefix, final byte[] video, final int count) {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    Clip clip = new Clip();
+                    clip.setTitle("Clip " + i);
+                    clip.setDownloadUrl(backend.putVideo(urlPrefix + i, video));
+                    clip.setTime(NOW + i * CLIP_INTERVAL);
+                    clip.setHotScore(VoteUtilities.getHotScore(clip.getTime(), 0));
+                    backend.putClip(String.format(Locale.US, "clip%03d", i), clip);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class generates small, playable H.264 videos on the device, so that tests and
+ * benchmarks have real clips to download and play without shipping video files.
+ * @author colomb2
+ */
+public class TestVideos {
+
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final int BIT_RATE = 1000000;
+    private static final int I_FRAME_INTERVAL = 1;
+    private static final long TIMEOUT_US = 10000;
+    private static final long MICROS_PER_SECOND = 1000000;
+
+    /**
+     * This method encodes a video of moving colored frames into an mp4 file. Frames are
+     * drawn with a hardware canvas onto the encoder's input surface.
+     * @param file to write the video to
+     * @param width of the video in pixels
+     * @param height of the video in pixels
+     * @param frameRate frames per second
+     * @param frameCount number of frames
+     * @throws IOException if the encoder or muxer fails
+     */
+    public static void write(File file, int width, int height, int frameRate, int frameCount)
+            throws IOException {
+        write(file, width, height, frameRate, frameCount, BIT_RATE);
+    }
+
+    /**
+     * This method encodes a video as described above at the given bitrate, such as to stand
+     * in for a high bitrate phone recording.
+     * @param file to write the video to
+     * @param width of the video in pixels
+     * @param height of the video in pixels
+     * @param frameRate frames per second
+     * @param frameCount number of frames
+     * @param bitRate video bitrate in bits per second
+     * @throws IOException if the encoder or muxer fails
+     */
+    public static void write(File file, int width, int height, int frameRate, int frameCount,
+                             int bitRate) throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+
+        MediaCodec encoder = MediaCodec.createEncoderByType(MIME_TYPE);
+        MediaMuxer muxer = new MediaMuxer(file.getPath(),
+                MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        Surface surface = null;
+
+        try {
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            surface = encoder.createInputSurface();
+            encoder.start();
+
+            Paint paint = new Paint();
+            paint.setColor(Color.WHITE);
+            Muxing muxing = new Muxing(muxer, frameRate);
+
+            for (int i = 0; i < frameCount; i++) {
+                Canvas canvas = surface.lockHardwareCanvas();
+                canvas.drawColor(Color.HSVToColor(new float[]{(i * 10) % 360, 1, 1}));
+                canvas.drawCircle((i * 8) % width, height / 2, height / 8, paint);
+                surface.unlockCanvasAndPost(canvas);
+                drain(encoder, muxing, false);
+            }
+
+            encoder.signalEndOfInputStream();
+            drain(encoder, muxing, true);
+        } finally {
+            encoder.release();
+
+            if (surface != null)
+                surface.release();
+
+            muxer.release();
+        }
+    }
+
+    /**
+     * This helper method writes the encoder's available output to the muxer. Output is
+     * timestamped by frame index, so the video plays at its frame rate however quickly
+     * it was drawn.
+     * @param encoder MediaCodec to drain
+     * @param muxing state of the muxer
+     * @param endOfStream whether to wait for the end of the stream
+     */
+    private static void drain(MediaCodec encoder, Muxing muxing, boolean endOfStream) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+        while (true) {
+            int index = encoder.dequeueOutputBuffer(info, TIMEOUT_US);
+
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream)
+                    return;
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                muxing.track = muxing.muxer.addTrack(encoder.getOutputFormat());
+                muxing.muxer.start();
+            } else if (index >= 0) {
+                ByteBuffer data = encoder.getOutputBuffer(index);
+
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                    info.presentationTimeUs = muxing.frames++ * MICROS_PER_SECOND
+                            / muxing.frameRate;
+                    muxing.muxer.writeSampleData(muxing.track, data, info);
+                }
+
+                encoder.releaseOutputBuffer(index, false);
+
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    muxing.muxer.stop();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * This class holds the muxer's track and the number of frames written to it.
+     */
+    private static class Muxing {
+
+        private final MediaMuxer muxer;
+        private final int frameRate;
+        private int track;
+        private long frames;
+
+        public Muxing(MediaMuxer muxer, int frameRate) {
+            this.muxer = muxer;
+            this.frameRate = frameRate;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class benchmarks the ClipTranscoder on a 1080p, high bitrate video encoded on the
+ * device. For each profile it reports the encode throughput in frames per second and as a
+ * multiple of real time, and the size of the output relative to the source, as
+ * instrumentation status and to the log.
+ * @author colomb2
+ */
+public class TranscodeBenchmark {
+
+    private static final String TAG = "TranscodeBenchmark";
+    private static final int SOURCE_WIDTH = 1920;
+    private static final int SOURCE_HEIGHT = 1080;
+    private static final int SOURCE_BIT_RATE = 20000000;
+    private static final int SOURCE_FRAME_RATE = 30;
+    private static final int SOURCE_FRAMES = 150;
+    private static final double MICROS_PER_SECOND = 1000000.0;
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    private File sourceFile;
+    private File outputFile;
+
+    @Before
+    public void setUp() throws Exception {
+        File cacheDir = InstrumentationRegistry.getTargetContext().getCacheDir();
+        sourceFile = new File(cacheDir, "transcode_source.mp4");
+        outputFile = new File(cacheDir, "transcode_output.mp4");
+
+        TestVideos.write(sourceFile, SOURCE_WIDTH, SOURCE_HEIGHT, SOURCE_FRAME_RATE,
+                SOURCE_FRAMES, SOURCE_BIT_RATE);
+    }
+
+    @After
+    public void tearDown() {
+        sourceFile.delete();
+        outputFile.delete();
+    }
+
+    /**
+     * Benchmark transcoding to the SD profile.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void benchmarkSd() throws Exception {
+        benchmark("sd", ClipTranscoder.Profile.SD, 848, 480);
+    }
+
+    /**
+     * Benchmark transcoding to the HD profile.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void benchmarkHd() throws Exception {
+        benchmark("hd", ClipTranscoder.Profile.HD, 1280, 720);
+    }
+
+    /**
+     * Test that a video already within the profile is not transcoded.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testSmallVideoNotTranscoded() throws Exception {
+        ClipTranscoder transcoder = new ClipTranscoder(InstrumentationRegistry.getTargetContext(),
+                ClipTranscoder.Profile.SD);
+
+        TestVideos.write(outputFile, 640, 480, SOURCE_FRAME_RATE, SOURCE_FRAME_RATE);
+        assertFalse(transcoder.needsTranscode(Uri.fromFile(outputFile)));
+        assertTrue(transcoder.needsTranscode(Uri.fromFile(sourceFile)));
+    }
+
+    /**
+     * This helper method transcodes the source to a profile, checks the output's size and
+     * frame count, and reports the throughput and size reduction.
+     * @param name prefix of the result keys
+     * @param profile to transcode to
+     * @param width expected width of the output
+     * @param height expected height of the output
+     * @throws IOException if transcoding fails
+     */
+    private void benchmark(String name, ClipTranscoder.Profile profile, int width, int height)
+            throws IOException {
+        ClipTranscoder transcoder = new ClipTranscoder(InstrumentationRegistry.getTargetContext(),
+                profile);
+        final float[] lastProgress = new float[1];
+
+        long startTime = SystemClock.elapsedRealtime();
+        transcoder.transcode(Uri.fromFile(sourceFile), outputFile,
+                new ClipTranscoder.ProgressListener() {
+                    @Override
+                    public void onProgress(float fraction) {
+                        assertTrue(fraction >= lastProgress[0]);
+                        lastProgress[0] = fraction;
+                    }
+                });
+        long elapsed = SystemClock.elapsedRealtime() - startTime;
+
+        MediaExtractor extractor = new MediaExtractor();
+        int frames = 0;
+        long lastSampleTime = 0;
+
+        try {
+            extractor.setDataSource(outputFile.getPath());
+            MediaFormat format = extractor.getTrackFormat(0);
+            assertEquals(width, format.getInteger(MediaFormat.KEY_WIDTH));
+            assertEquals(height, format.getInteger(MediaFormat.KEY_HEIGHT));
+
+            extractor.selectTrack(0);
+
+            while (extractor.getSampleTime() >= 0) {
+                lastSampleTime = extractor.getSampleTime();
+                frames++;
+                extractor.advance();
+            }
+        } finally {
+            extractor.release();
+        }
+
+        double videoSeconds = (lastSampleTime / MICROS_PER_SECOND) + 1.0 / SOURCE_FRAME_RATE;
+        double elapsedSeconds = elapsed / MILLIS_PER_SECOND;
+
+        Bundle results = new Bundle();
+        results.putLong(name + "_elapsed_ms", elapsed);
+        results.putDouble(name + "_fps", frames / elapsedSeconds);
+        results.putDouble(name + "_realtime", videoSeconds / elapsedSeconds);
+        results.putLong(name + "_source_bytes", sourceFile.length());
+        results.putLong(name + "_output_bytes", outputFile.length());
+        results.putDouble(name + "_size_ratio", outputFile.length() / (double) sourceFile.length());
+        results.putDouble(name + "_output_kbps",
+                outputFile.length() * 8 / videoSeconds / MILLIS_PER_SECOND);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+
+        for (String key : results.keySet())
+            Log.i(TAG, key + ": " + results.get(key));
+
+        assertEquals(SOURCE_FRAMES, frames);
+        assertEquals(1f, lastProgress[0], 0f);
+        assertTrue(outputFile.length() < sourceFile.length());
+    }
+}
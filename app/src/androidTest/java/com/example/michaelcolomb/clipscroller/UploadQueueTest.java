@@ -0,0 +1,303 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.app.job.JobInfo;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests that the UploadQueue uploads queued clips through the ClipBackend, no
+ * more at a time than its cap, and adds them only once their videos are stored, that a
+ * video already in storage is not sent again, and that clips that fail are kept on disk
+ * and retried with backoff until they run out of attempts, while stopped clips are not
+ * counted as failed.
+ * @author colomb2
+ */
+public class UploadQueueTest {
+
+    private static final int CLIPS = 3;
+    private static final int VIDEO_WIDTH = 320;
+    private static final int VIDEO_HEIGHT = 240;
+    private static final int VIDEO_FRAME_RATE = 30;
+    private static final int SMALL_BIT_RATE = 100000;
+    private static final long SLOW_BYTES_PER_SECOND = 256 * 1024;
+    private static final long POLL_INTERVAL = 10;
+    private static final int S_10_SECONDS = 10;
+    private static final String DENIED_URI = "content://com.android.contacts/contacts/1/photo";
+
+    private Context context;
+    private FakeClipBackend backend;
+    private File queueFile;
+    private UploadQueue queue;
+    private List<File> videoFiles;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        backend = new FakeClipBackend(context, 0, 0);
+        ClipBackends.set(backend);
+
+        queueFile = new File(context.getCacheDir(), "upload_queue_test.json");
+        queueFile.delete();
+        queue = new UploadQueue(context, queueFile);
+        videoFiles = new ArrayList<>();
+
+        for (int i = 0; i < CLIPS; i++) {
+            File videoFile = new File(context.getCacheDir(), "upload_queue_test" + i + ".mp4");
+            TestVideos.write(videoFile, VIDEO_WIDTH, VIDEO_HEIGHT, VIDEO_FRAME_RATE,
+                    VIDEO_FRAME_RATE);
+            videoFiles.add(videoFile);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        queue.setUnmeteredOnly(false);
+        ClipBackends.set(null);
+        backend.shutdown();
+        queueFile.delete();
+
+        for (File videoFile : videoFiles)
+            videoFile.delete();
+    }
+
+    /**
+     * Test that every queued clip is added with the url of its stored video, and that the
+     * queue is empty afterwards.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testClipsAddedAfterUpload() throws Exception {
+        List<UploadQueue.Entry> entries = enqueueAll();
+
+        assertFalse(queue.runPending());
+        assertTrue(queue.getEntries().isEmpty());
+
+        for (int i = 0; i < CLIPS; i++) {
+            Clip clip = backend.getClip(entries.get(i).getId());
+            assertNotNull(clip);
+            assertArrayEquals(TestUtilities.readFile(videoFiles.get(i)),
+                    backend.getVideo(clip.getDownloadUrl()));
+        }
+    }
+
+    /**
+     * Test that a video posted a second time is not uploaded again, and that both clips
+     * share its stored video and poster.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testDuplicateVideoNotUploaded() throws Exception {
+        String firstId = queue.enqueue("first", Uri.fromFile(videoFiles.get(0))).getId();
+        assertFalse(queue.runPending());
+        int uploadCount = backend.getUploadCount();
+
+        String secondId = queue.enqueue("second", Uri.fromFile(videoFiles.get(0))).getId();
+        assertFalse(queue.runPending());
+
+        Clip first = backend.getClip(firstId);
+        Clip second = backend.getClip(secondId);
+        assertEquals(uploadCount, backend.getUploadCount());
+        assertEquals(first.getDownloadUrl(), second.getDownloadUrl());
+        assertEquals(first.getPosterUrl(), second.getPosterUrl());
+        assertTrue(first.getDownloadUrl().contains(UploadQueue.VIDEO_DIRECTORY));
+    }
+
+    /**
+     * Test that a video that has to be transcoded is stored under its picked bytes and the
+     * profile, so posting it a second time finds it in storage instead of transcoding and
+     * uploading it again.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testTranscodedDuplicateNotUploaded() throws Exception {
+        ClipTranscoder.Profile defaultProfile = ClipTranscoder.getDefaultProfile();
+        ClipTranscoder.Profile profile = new ClipTranscoder.Profile(VIDEO_WIDTH / 2,
+                VIDEO_HEIGHT / 2, SMALL_BIT_RATE, VIDEO_FRAME_RATE, 1);
+        ClipTranscoder.setDefaultProfile(profile);
+
+        try {
+            String firstId = queue.enqueue("first", Uri.fromFile(videoFiles.get(0))).getId();
+            assertFalse(queue.runPending());
+            int uploadCount = backend.getUploadCount();
+
+            String secondId = queue.enqueue("second", Uri.fromFile(videoFiles.get(0))).getId();
+            assertFalse(queue.runPending());
+
+            Clip first = backend.getClip(firstId);
+            Clip second = backend.getClip(secondId);
+            assertEquals(uploadCount, backend.getUploadCount());
+            assertEquals(first.getDownloadUrl(), second.getDownloadUrl());
+            assertTrue(first.getDownloadUrl().contains(profile.getKey()));
+        } finally {
+            ClipTranscoder.setDefaultProfile(defaultProfile);
+        }
+    }
+
+    /**
+     * Test that a clip whose upload fails is not added, stays queued with its attempt
+     * counted, and is still queued when the queue is loaded again.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testFailedUploadStaysQueued() throws Exception {
+        File missingFile = new File(context.getCacheDir(), "missing.mp4");
+        String id = queue.enqueue("missing", Uri.fromFile(missingFile)).getId();
+
+        assertTrue(queue.runPending());
+        assertNull(backend.getClip(id));
+
+        List<UploadQueue.Entry> entries = new UploadQueue(context, queueFile).getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(UploadQueue.State.QUEUED, entries.get(0).getState());
+        assertEquals(1, entries.get(0).getAttempts());
+        assertFalse(entries.get(0).isVideoUploaded());
+    }
+
+    /**
+     * Test that a clip whose video can no longer be read, because the permission to read
+     * it is gone, has its attempt counted instead of being left uploading, and that the
+     * other clips of the run are still added.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testUnreadableVideoCounted() throws Exception {
+        String deniedId = queue.enqueue("denied", Uri.parse(DENIED_URI)).getId();
+        String id = queue.enqueue("Clip", Uri.fromFile(videoFiles.get(0))).getId();
+
+        assertTrue(queue.runPending());
+        assertNotNull(backend.getClip(id));
+        assertNull(backend.getClip(deniedId));
+
+        List<UploadQueue.Entry> entries = queue.getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(UploadQueue.State.QUEUED, entries.get(0).getState());
+        assertEquals(1, entries.get(0).getAttempts());
+    }
+
+    /**
+     * Test that a clip that keeps failing is marked failed after its last attempt, and
+     * is queued again when failed uploads are retried.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testFailedAfterMaxAttempts() throws Exception {
+        File missingFile = new File(context.getCacheDir(), "missing.mp4");
+        queue.enqueue("missing", Uri.fromFile(missingFile));
+
+        for (int i = 0; i < UploadQueue.MAX_ATTEMPTS; i++)
+            assertTrue(queue.runPending());
+
+        assertEquals(UploadQueue.State.FAILED, queue.getEntries().get(0).getState());
+        assertFalse(queue.hasPending());
+        assertFalse(queue.runPending());
+
+        queue.retryFailed();
+        assertTrue(queue.hasPending());
+        assertEquals(0, queue.getEntries().get(0).getAttempts());
+    }
+
+    /**
+     * Test that no more clips are uploaded at the same time than the concurrency cap, and
+     * that the cap is reached when more clips are queued.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testConcurrencyCap() throws Exception {
+        backend.setBandwidth(SLOW_BYTES_PER_SECOND);
+        queue.setMaxConcurrentUploads(CLIPS - 1);
+        enqueueAll();
+
+        assertFalse(queue.runPending());
+        assertTrue(queue.getEntries().isEmpty());
+        assertEquals(CLIPS - 1, backend.getMaxActiveUploads());
+    }
+
+    /**
+     * Test that a clip whose upload is stopped, as when the UploadService loses its
+     * network, stops sending and is queued again without using up an attempt.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testStoppedUploadNotCounted() throws Exception {
+        backend.setBandwidth(SLOW_BYTES_PER_SECOND / 10);
+        queue.enqueue("stopped", Uri.fromFile(videoFiles.get(0)));
+
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.runPending();
+            }
+        });
+        worker.start();
+        long deadline = SystemClock.uptimeMillis() + TimeUnit.SECONDS.toMillis(S_10_SECONDS);
+
+        while (backend.getMaxActiveUploads() == 0 && SystemClock.uptimeMillis() < deadline)
+            SystemClock.sleep(POLL_INTERVAL);
+
+        worker.interrupt();
+        worker.join();
+
+        while (backend.getActiveUploads() > 0 && SystemClock.uptimeMillis() < deadline)
+            SystemClock.sleep(POLL_INTERVAL);
+
+        assertEquals(0, backend.getActiveUploads());
+        assertEquals(0, backend.getUploadCount());
+
+        while (queue.getEntries().get(0).getState() != UploadQueue.State.QUEUED
+                && SystemClock.uptimeMillis() < deadline)
+            SystemClock.sleep(POLL_INTERVAL);
+
+        UploadQueue.Entry entry = new UploadQueue(context, queueFile).getEntries().get(0);
+        assertEquals(UploadQueue.State.QUEUED, entry.getState());
+        assertEquals(0, entry.getAttempts());
+    }
+
+    /**
+     * Test that the upload job waits for an unmetered network only when the queue is set
+     * to, and backs off exponentially.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testUploadJob() throws Exception {
+        queue.setUnmeteredOnly(true);
+        JobInfo job = UploadService.createJob(context);
+        assertEquals(JobInfo.NETWORK_TYPE_UNMETERED, job.getNetworkType());
+        assertEquals(UploadService.INITIAL_BACKOFF, job.getInitialBackoffMillis());
+        assertEquals(JobInfo.BACKOFF_POLICY_EXPONENTIAL, job.getBackoffPolicy());
+
+        queue.setUnmeteredOnly(false);
+        assertEquals(JobInfo.NETWORK_TYPE_ANY, UploadService.createJob(context).getNetworkType());
+    }
+
+    /**
+     * This helper method queues every test video, in order.
+     * @return the queued entries
+     */
+    private List<UploadQueue.Entry> enqueueAll() {
+        List<UploadQueue.Entry> entries = new ArrayList<>();
+
+        for (int i = 0; i < CLIPS; i++)
+            entries.add(queue.enqueue("clip " + i, Uri.fromFile(videoFiles.get(i))));
+
+        return entries;
+    }
+
+}
@@ -84,8 +84,8 @@ public class UpvoteTest {
         Map<String, Object> updatedLikes = new HashMap();
         updatedLikes.put(instanceId1, 1);
 
-        DatabaseReference clipReference = mEntriesReference.child(testClipId);
-        DatabaseReference likeReference = clipReference.child("/likes");
+        DatabaseReference likeReference = mDatabase.getReference(MainActivity.VOTE_ADDRESS)
+                .child(testClipId).child(VoteUtilities.LIKES_ADDRESS);
 
         likeReference.addValueEventListener(new LikeListener());
 
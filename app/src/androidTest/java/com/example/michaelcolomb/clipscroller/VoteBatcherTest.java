@@ -0,0 +1,243 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests that the VoteBatcher writes only the final vote of a burst of taps, hands
+ * the votes of several clips to the backend as one batch, and keeps votes that were not
+ * written until they can be.
+ * @author colomb2
+ */
+public class VoteBatcherTest {
+
+    private static final String PREFERENCES_NAME = "vote_batcher_test";
+    private static final String INSTANCE_ID = "batcher_test_instance";
+    private static final long LATENCY = 20;
+    private static final int S_10_SECONDS = 10;
+
+    private Context context;
+    private FakeClipBackend backend;
+    private VoteBatcher batcher;
+
+    /**
+     * This method seeds the fake backend with two clips and creates a batcher with no
+     * pending votes.
+     */
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        clearPreferences();
+        backend = new FakeClipBackend(context, LATENCY, 0);
+        ClipBackends.set(backend);
+
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                backend.putClip("clip0", new Clip("Clip 0", "memory://clip0"));
+                backend.putClip("clip1", new Clip("Clip 1", "memory://clip1"));
+                batcher = new VoteBatcher(context, PREFERENCES_NAME);
+                batcher.onVoteObserved("clip0", null);
+                batcher.onVoteObserved("clip1", null);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                batcher.release();
+            }
+        });
+        ClipBackends.set(null);
+        backend.shutdown();
+        clearPreferences();
+    }
+
+    /**
+     * Test that voting up, down and up again writes once, with the final vote.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testTogglesCoalesced() throws Exception {
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                batcher.vote("clip0", INSTANCE_ID, true);
+                batcher.vote("clip0", INSTANCE_ID, false);
+                batcher.vote("clip0", INSTANCE_ID, true);
+                batcher.flush();
+            }
+        });
+
+        awaitVoteWrites(1);
+        assertEquals(Boolean.TRUE, getVote("clip0"));
+        assertEquals(1, backend.getClip("clip0").getVoteCount());
+        SystemClock.sleep(VoteBatcher.DEBOUNCE + LATENCY * 2);
+        assertEquals(1, backend.getVoteWriteCount());
+    }
+
+    /**
+     * Test that a vote changed back to the stored vote is not written.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testToggleBackNotWritten() throws Exception {
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                batcher.vote("clip0", INSTANCE_ID, false);
+                batcher.vote("clip0", INSTANCE_ID, null);
+            }
+        });
+
+        assertEquals(0, getPendingCount());
+        SystemClock.sleep(VoteBatcher.DEBOUNCE + LATENCY * 2);
+        assertEquals(0, backend.getVoteWriteCount());
+    }
+
+    /**
+     * Test that votes on two clips are handed over together in one batch, in which each
+     * vote is still a write of its own.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testClipsBatched() throws Exception {
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                batcher.vote("clip0", INSTANCE_ID, true);
+                batcher.vote("clip1", INSTANCE_ID, false);
+            }
+        });
+
+        awaitVoteWrites(2);
+        assertEquals(Boolean.TRUE, getVote("clip0"));
+        assertEquals(Boolean.FALSE, getVote("clip1"));
+        assertEquals(1, backend.getClip("clip0").getVoteCount());
+        assertEquals(-1, backend.getClip("clip1").getVoteCount());
+        assertEquals(2, backend.getVoteWriteCount());
+        assertEquals(1, backend.getVoteBatchCount());
+    }
+
+    /**
+     * Test that a batch that fails is kept, with the taps made since, and written once the
+     * backend can be reached.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testFailedBatchRetried() throws Exception {
+        backend.setFailVotes(true);
+
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                batcher.vote("clip0", INSTANCE_ID, true);
+                batcher.flush();
+                batcher.vote("clip0", INSTANCE_ID, false);
+            }
+        });
+
+        SystemClock.sleep(LATENCY * 5);
+        assertEquals(0, backend.getVoteWriteCount());
+        assertNull(getVote("clip0"));
+        assertEquals(1, getPendingCount());
+
+        backend.setFailVotes(false);
+        awaitVoteWrites(1);
+        assertEquals(Boolean.FALSE, getVote("clip0"));
+        assertEquals(-1, backend.getClip("clip0").getVoteCount());
+    }
+
+    /**
+     * Test that votes left pending by an earlier batcher are written by the next one, and
+     * that writing the same vote twice counts it once.
+     * @throws Exception if failed test
+     */
+    @Test
+    public void testPendingVotesRestored() throws Exception {
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                batcher.vote("clip0", INSTANCE_ID, true);
+                VoteBatcher restored = new VoteBatcher(context, PREFERENCES_NAME);
+                assertEquals(1, restored.getPendingCount());
+                restored.flush();
+                restored.release();
+            }
+        });
+
+        awaitVoteWrites(2);
+        assertEquals(Boolean.TRUE, getVote("clip0"));
+        assertEquals(1, backend.getClip("clip0").getVoteCount());
+    }
+
+    /**
+     * This helper method waits until the backend has answered the given number of vote
+     * writes, flushing the batcher while waiting so a failed batch is retried.
+     * @param count number of writes to wait for
+     */
+    private void awaitVoteWrites(int count) {
+        long deadline = SystemClock.uptimeMillis() + TimeUnit.SECONDS.toMillis(S_10_SECONDS);
+
+        while (backend.getVoteWriteCount() < count && SystemClock.uptimeMillis() < deadline) {
+            runOnMain(new Runnable() {
+                @Override
+                public void run() {
+                    batcher.flush();
+                }
+            });
+            SystemClock.sleep(LATENCY);
+        }
+
+        assertTrue(backend.getVoteWriteCount() >= count);
+    }
+
+    private Boolean getVote(final String hash) {
+        final Boolean[] vote = new Boolean[1];
+
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                vote[0] = backend.getVote(hash, INSTANCE_ID);
+            }
+        });
+
+        return vote[0];
+    }
+
+    private int getPendingCount() {
+        final int[] count = new int[1];
+
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                count[0] = batcher.getPendingCount();
+            }
+        });
+
+        return count[0];
+    }
+
+    private void runOnMain(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    private void clearPreferences() {
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit().clear()
+                .commit();
+    }
+}
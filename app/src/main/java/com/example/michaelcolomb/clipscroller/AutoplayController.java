@@ -0,0 +1,187 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.widget.LinearLayout;
+
+/**
+ * This class defines a scroll listener that autoplays the clip most in view of the feed.
+ * Once the list has been at rest for SETTLE_DELAY, the row whose video shows the largest
+ * share of its height, if at least MIN_VISIBLE_FRACTION, is played muted through the
+ * ClipPlayer and the row chosen before it is paused. Scrolling again cancels a handoff that
+ * has not happened yet, so a fling passes over rows without starting their players. Rows
+ * are also chosen again when they are attached, such as when the first page loads. All
+ * methods must be called on the main thread.
+ * @author colomb2
+ */
+
+public class AutoplayController extends RecyclerView.OnScrollListener
+        implements RecyclerView.OnChildAttachStateChangeListener {
+
+    protected static final long SETTLE_DELAY = 150;
+    protected static final float MIN_VISIBLE_FRACTION = 0.5f;
+
+    private final RecyclerView recyclerView;
+    private final Handler handler;
+    private final Rect visibleRect;
+    private final Runnable handoff;
+
+    private boolean enabled = true;
+    private LinearLayout current;
+    private long handoffCount;
+
+    /**
+     * This constructor creates a controller for the given clip recycler view. It still
+     * needs to be added as a scroll and child attach listener.
+     * @param recyclerView clip recycler view
+     */
+    public AutoplayController(RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.visibleRect = new Rect();
+        this.handoff = new Runnable() {
+            @Override
+            public void run() {
+                handOff();
+            }
+        };
+    }
+
+    /**
+     * This method schedules a handoff once scrolling stops, and cancels the one waiting
+     * when scrolling starts again.
+     * @param recyclerView that changed state
+     * @param newState new scroll state
+     */
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE)
+            schedule();
+        else
+            handler.removeCallbacks(handoff);
+    }
+
+    /**
+     * This method schedules a handoff when the list moves without being scrolled, such as
+     * when rows above are inserted or removed.
+     * @param recyclerView that scrolled
+     * @param dx horizontal scroll distance
+     * @param dy vertical scroll distance
+     */
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE)
+            schedule();
+    }
+
+    @Override
+    public void onChildViewAttachedToWindow(View view) {
+        if (recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE)
+            schedule();
+    }
+
+    /**
+     * This method forgets the chosen row when it leaves the list, so it is not autoplayed
+     * after it is bound to another clip.
+     * @param view row that was detached
+     */
+    @Override
+    public void onChildViewDetachedFromWindow(View view) {
+        if (view == current) {
+            ClipPlayer.stopAutoplay(current);
+            current = null;
+        }
+    }
+
+    /**
+     * This helper method restarts the wait before the next handoff.
+     */
+    private void schedule() {
+        handler.removeCallbacks(handoff);
+
+        if (enabled)
+            handler.postDelayed(handoff, SETTLE_DELAY);
+    }
+
+    /**
+     * This helper method pauses the row that was chosen and autoplays the row most in
+     * view, if they differ and the list is still at rest.
+     */
+    private void handOff() {
+        if (!enabled || recyclerView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE)
+            return;
+
+        LinearLayout target = findMostVisible();
+
+        if (target == current)
+            return;
+
+        if (current != null)
+            ClipPlayer.stopAutoplay(current);
+
+        current = target;
+        handoffCount++;
+
+        if (current != null)
+            ClipPlayer.autoplay(current);
+    }
+
+    /**
+     * This helper method finds the row whose video shows the largest share of its height
+     * on the screen, preferring the higher row when several show all of it.
+     * @return the row most in view, or null if no video is at least MIN_VISIBLE_FRACTION
+     * in view
+     */
+    private LinearLayout findMostVisible() {
+        LinearLayout best = null;
+        float bestFraction = MIN_VISIBLE_FRACTION;
+
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            View row = recyclerView.getChildAt(i);
+            View clipView = row.findViewById(R.id.clip);
+
+            if (!(row instanceof LinearLayout) || clipView == null || clipView.getHeight() == 0
+                    || !clipView.getGlobalVisibleRect(visibleRect))
+                continue;
+
+            float fraction = visibleRect.height() / (float) clipView.getHeight();
+
+            if (best == null ? fraction >= bestFraction : fraction > bestFraction) {
+                best = (LinearLayout) row;
+                bestFraction = fraction;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * This method turns autoplay on or off. Turning it off pauses the chosen row.
+     * @param enabled true to autoplay the row most in view
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+
+        if (enabled) {
+            schedule();
+        } else {
+            handler.removeCallbacks(handoff);
+
+            if (current != null)
+                ClipPlayer.stopAutoplay(current);
+
+            current = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getHandoffCount() {
+        return handoffCount;
+    }
+}
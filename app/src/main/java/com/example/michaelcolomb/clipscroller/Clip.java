@@ -3,7 +3,11 @@ package com.example.michaelcolomb.clipscroller;
 /**
  * This class stores a 'clip'. This means it stores the video address to find a video
  * file in Firebase Storage and the user-chosen title of the video. It also stores
- * creation time.
+ * creation time and the net vote count, which is copied from the clip's likes, kept in
+ * their own votes node, so that the likes do not have to be read to rank or display the
+ * clip. The hot score is stored alongside the vote count, so that the database can order
+ * clips by trend. The poster url, if any, addresses a small image of the clip, so that the
+ * feed can show the clip without its video.
  * @author colomb2
  */
 
@@ -11,13 +15,17 @@ public class Clip {
 
     public String title;
     public String downloadUrl;
+    public String posterUrl;
     public long time;
+    public int voteCount;
+    public double hotScore;
 
     public Clip() {}
 
     /**
      * This constructor allows the creation of a clip with defined title and downloadUrl.
-     * It also sets the time to the current epoch time.
+     * It also sets the time to the current epoch time and the hot score of a clip with
+     * no votes.
      * @param title user-chosen title of the video
      * @param downloadUrl address of the associated file in Firebase Storage
      */
@@ -25,6 +33,7 @@ public class Clip {
         this.title = title;
         this.downloadUrl = downloadUrl;
         time = System.currentTimeMillis();
+        hotScore = VoteUtilities.getHotScore(time, 0);
     }
 
     public String toString() {
@@ -47,6 +56,14 @@ public class Clip {
         this.downloadUrl = downloadUrl;
     }
 
+    public String getPosterUrl() {
+        return posterUrl;
+    }
+
+    public void setPosterUrl(String posterUrl) {
+        this.posterUrl = posterUrl;
+    }
+
     public long getTime() {
         return time;
     }
@@ -54,4 +71,20 @@ public class Clip {
     public void setTime(long time) {
         this.time = time;
     }
+
+    public int getVoteCount() {
+        return voteCount;
+    }
+
+    public void setVoteCount(int voteCount) {
+        this.voteCount = voteCount;
+    }
+
+    public double getHotScore() {
+        return hotScore;
+    }
+
+    public void setHotScore(double hotScore) {
+        this.hotScore = hotScore;
+    }
 }
@@ -2,6 +2,9 @@ package com.example.michaelcolomb.clipscroller;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -12,122 +15,213 @@ import android.widget.TextView;
 import android.widget.VideoView;
 
 import com.google.android.gms.iid.InstanceID;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.Query;
-import com.google.firebase.database.ValueEventListener;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This class defines a RecyclerAdapter. It sets up the recycler view such that
  * each list item displays the title of the clip and video. Upon clicking the item, the
  * video will start.
  */
-public class ClipAdapter extends RecyclerView.Adapter<ClipAdapter.ClipViewHolder> {
+public class ClipAdapter extends RecyclerView.Adapter<ClipAdapter.ClipViewHolder>
+        implements ClipFeed.Listener {
 
     private Context mContext;
-    private DatabaseReference mEntriesReference;
-    private ArrayList<String> clipHashes;
+    private ClipBackend mBackend;
+    private List<String> clipHashes;
+    private ClipFeed clipFeed;
+    private ClipStore clipStore;
+    private FeedSnapshotStore snapshotStore;
+    private Set<ClipBackend.Registration> voteRegistrations;
 
     private static Drawable upSelected;
     private static Drawable upUnselected;
     private static Drawable downSelected;
     private static Drawable downUnselected;
+    private static BindObserver bindObserver;
 
     private static final String SELECTED = "selected";
     private static final String UNSELECTED = "unselected";
-    private static final String LIKES_ADDRESS = "/likes";
-    private static final String TIME_ADDRESS = "/time";
-    private static final int MAX_CLIP_RESULTS = 100;
+    private static final int PAGE_THRESHOLD = 5;
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private static final Metrics.Histogram BIND_MICROS = Metrics.histogram("bind.us");
+    private static final Metrics.Histogram BIND_TITLE_MICROS =
+            Metrics.histogram("bind.to_title_us");
+    private static final Metrics.Counter VOTES_CAST = Metrics.counter("vote.clicks");
 
     /**
      * This private constructor initializes instance class variables, including
-     * setting the vote icons, database reference, context, and empty clipHashes.
+     * setting the vote icons, backend, context, and the live clip feed.
      * @param context to use for android interaction
-     * @param ref Query to use as DatabaseReference to access clips
+     * @param backend ClipBackend to access clips
      */
-    private ClipAdapter(Context context, Query ref) {
+    private ClipAdapter(Context context, ClipBackend backend) {
         upSelected = context.getDrawable(R.drawable.ic_up_selected);
         upUnselected = context.getDrawable(R.drawable.ic_up_unselected);
         downSelected = context.getDrawable(R.drawable.ic_down_selected);
         downUnselected = context.getDrawable(R.drawable.ic_down_unselected);
 
-        this.mEntriesReference = (DatabaseReference) ref;
+        this.mBackend = backend;
         this.mContext = context;
-        this.clipHashes = new ArrayList();
+        this.clipHashes = new ArrayList<>();
+        this.clipFeed = new ClipFeed(backend);
+        this.clipStore = clipFeed.getClipStore();
+        this.snapshotStore = FeedSnapshotStore.getInstance(context);
+        this.voteRegistrations = new HashSet<>();
+
+        clipFeed.setListener(this);
     }
 
     /**
-     * This method creates a new ClipAdapter by generating an empty instance and
-     * loading clip data from the database.
+     * This method creates a new ClipAdapter by generating an empty instance, showing the
+     * feed saved by the FeedSnapshotStore if there is one, and loading the first page of
+     * clip data from the backend. Leftover temporary files are not deleted here, as that
+     * is left to clearCache off the main thread.
      * @param context to use for android interaction
-     * @param ref Query to use as DatabaseReference to access clips
+     * @param backend ClipBackend to access clips
      * @return a new, populated ClipAdapter
      */
-    public static ClipAdapter create(Context context, Query ref) {
-        ClipAdapter clipAdapter = new ClipAdapter(context, ref);
-        clipAdapter.loadList();
+    public static ClipAdapter create(Context context, ClipBackend backend) {
+        ClipAdapter clipAdapter = new ClipAdapter(context, backend);
+        clipAdapter.restoreSnapshot();
+        clipAdapter.loadNextPage();
         return clipAdapter;
     }
 
     /**
-     * This helper method first clears the application's cache to prevent memory overflow
-     * from previous adapters. It then adds a single value event listener to the clips
-     * database reference to get all of the clips stored in the database. It uses ClipRanks
-     * to order the list, which is then stored in the instance 'clipHashes' list.
+     * This helper method shows the saved snapshot of the feed, read from disk before any
+     * clip is requested from the backend.
      */
-    private void loadList() {
-        clearCache();
+    private void restoreSnapshot() {
+        FeedSnapshotStore.Snapshot snapshot = snapshotStore.load();
 
-        mEntriesReference.limitToFirst(MAX_CLIP_RESULTS)
-                .addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                ArrayList<ClipRank> rankedHashes = new ArrayList();
+        if (snapshot != null)
+            clipFeed.restore(snapshot);
+    }
 
-                for (DataSnapshot postSnapshot: dataSnapshot.getChildren()) {
-                    String clipHash = postSnapshot.getKey();
+    /**
+     * This method loads the next page of clips from the feed. Its clips are added to the
+     * list as they arrive and then kept up to date.
+     */
+    public void loadNextPage() {
+        clipFeed.loadNextPage();
+    }
 
-                    DataSnapshot timeSnapshot = postSnapshot.child(TIME_ADDRESS);
-                    long time = timeSnapshot.getValue(long.class);
+    /**
+     * This method ranks the loaded clips again and moves the rows whose position changed.
+     * Nothing is reloaded from the database, unless the ranking mode has changed since
+     * the feed was created, in which case it is replaced by a feed paged in the new order.
+     */
+    public void refresh() {
+        if (clipFeed.isRankByTrending() == ClipRank.isRankByTrending()) {
+            clipFeed.rank();
+            return;
+        }
 
-                    DataSnapshot likeSnapshot = postSnapshot.child(LIKES_ADDRESS);
-                    ClipRank clipRank = ClipRank.create(clipHash, time, likeSnapshot);
-                    rankedHashes.add(clipRank);
-                }
+        clipFeed.release();
+        clipFeed = new ClipFeed(mBackend);
+        clipStore = clipFeed.getClipStore();
+        clipFeed.setListener(this);
+        clipFeed.loadNextPage();
+    }
+
+    /**
+     * This method is called when the feed's order or clips change. The difference between
+     * the old and new order is computed so that only the inserted, removed, moved and
+     * changed rows are updated. Rows whose only change is their vote count are given
+     * VOTE_PAYLOAD, so just their count is rebound. The rows shown are diffed rather than
+     * the feed's previous order, since a replaced feed starts from an empty order. Once the
+     * feed has loaded, its new order is saved as the FeedSnapshotStore snapshot.
+     * @param previousOrder clip hashes in their previous ranked order
+     * @param order clip hashes in their new ranked order
+     * @param changes changed clips mapped to their payload
+     */
+    @Override
+    public void onFeedChanged(final List<String> previousOrder, final List<String> order,
+                              final Map<String, Object> changes) {
+        final List<String> shownOrder = clipHashes;
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return shownOrder.size();
+            }
 
-                Collections.sort(rankedHashes);
-                clipHashes.clear();
+            @Override
+            public int getNewListSize() {
+                return order.size();
+            }
 
-                for (int i = 0; i < rankedHashes.size(); i++) {
-                    clipHashes.add(rankedHashes.get(i).getHash());
-                }
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return shownOrder.get(oldItemPosition).equals(order.get(newItemPosition));
+            }
 
-                notifyItemRangeChanged(0, rankedHashes.size());
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return !changes.containsKey(order.get(newItemPosition));
             }
 
             @Override
-            public void onCancelled(DatabaseError databaseError) { }
-        });
+            public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+                return changes.get(order.get(newItemPosition));
+            }
+        }, true);
+
+        clipHashes = order;
+        diffResult.dispatchUpdatesTo(this);
+
+        if (clipFeed.isLoaded())
+            snapshotStore.save(clipFeed.isRankByTrending(), order, clipStore);
     }
 
     /**
-     * This helper method clears this applications cache to ensure that there is
-     * no memory overflow after using the application for an extended period of time.
+     * This method decides whether the next page should be loaded, given the last visible
+     * position in the list.
+     * @param lastVisiblePosition position of the last visible row
+     * @return true if the user is close enough to the end of the loaded clips
      */
-    private void clearCache() {
-        File cacheDir = mContext.getCacheDir();
+    public boolean isNearEnd(int lastVisiblePosition) {
+        return lastVisiblePosition >= clipHashes.size() - PAGE_THRESHOLD;
+    }
+
+    /**
+     * This method sets the number of clips loaded per page.
+     * @param pageSize number of clips per page
+     */
+    public static void setPageSize(int pageSize) {
+        ClipFeed.setPageSize(pageSize);
+    }
+
+    /**
+     * This method sets an observer told when each view holder is created and bound, so
+     * that benchmarks can time and count the work done per row.
+     * @param observer BindObserver to notify, or null for none
+     */
+    public static void setBindObserver(BindObserver observer) {
+        bindObserver = observer;
+    }
+
+    /**
+     * This helper method deletes loose temporary video files left in this application's
+     * cache directory by earlier versions. Downloaded clips are kept in the ClipCache
+     * subdirectory, which bounds its own size, so they survive refreshes. It reads the
+     * disk, so it should be called off the main thread.
+     * @param context to use for android interaction
+     */
+    public static void clearCache(Context context) {
+        File cacheDir = context.getCacheDir();
         File[] files = cacheDir.listFiles();
 
         if (files != null) {
             for (File file : files) {
-                file.delete();
+                if (file.isFile() && file.getName().startsWith(ClipPlayer.TEMP_VIDEO_NAME))
+                    file.delete();
             }
         }
     }
@@ -141,6 +235,11 @@ public class ClipAdapter extends RecyclerView.Adapter<ClipAdapter.ClipViewHolder
      */
     @Override
     public ClipViewHolder onCreateViewHolder(ViewGroup viewGroup, int position) {
+        BindObserver observer = bindObserver;
+
+        if (observer != null)
+            observer.onCreateStarted();
+
         Context context = viewGroup.getContext();
         int layoutIdForListItem = R.layout.clip_list_item;
         LayoutInflater inflater = LayoutInflater.from(context);
@@ -150,6 +249,9 @@ public class ClipAdapter extends RecyclerView.Adapter<ClipAdapter.ClipViewHolder
                 shouldAttachToParentImmediately);
         ClipViewHolder viewHolder = new ClipViewHolder(view);
 
+        if (observer != null)
+            observer.onCreateFinished();
+
         return viewHolder;
     }
 
@@ -164,6 +266,86 @@ public class ClipAdapter extends RecyclerView.Adapter<ClipAdapter.ClipViewHolder
         viewHolder.bind(clipHashes.get(position));
     }
 
+    /**
+     * This method is called when a view holder is rebound with payloads. If only the
+     * clip's vote count changed, just the count is updated, leaving its video alone.
+     * @param viewHolder to bind the clip to
+     * @param position of clip hashed key in the list
+     * @param payloads changes since the holder was last bound
+     */
+    @Override
+    public void onBindViewHolder(ClipViewHolder viewHolder, int position, List<Object> payloads) {
+        BindObserver observer = bindObserver;
+
+        if (observer != null)
+            observer.onBindStarted();
+
+        if (!payloads.isEmpty())
+            viewHolder.bindVoteCount(clipHashes.get(position));
+        else
+            onBindViewHolder(viewHolder, position);
+
+        if (observer != null)
+            observer.onBindFinished();
+    }
+
+    /**
+     * This method is called when a view holder is recycled. Its database subscriptions
+     * are released so that off-screen rows stop receiving vote updates, and its video is
+     * released by the ClipPlayer, which gives its media player back to the DecoderPool.
+     * @param viewHolder that was recycled
+     */
+    @Override
+    public void onViewRecycled(ClipViewHolder viewHolder) {
+        viewHolder.unbind();
+        ClipPlayer.release((LinearLayout) viewHolder.mContainerView);
+    }
+
+    /**
+     * This method is called when the recycler view stops using this adapter. All of the
+     * adapter's database subscriptions are released.
+     * @param recyclerView that stopped using this adapter
+     */
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        release();
+    }
+
+    /**
+     * This method stops every watch of the adapter's feed and rows.
+     */
+    public void release() {
+        clipFeed.release();
+
+        for (ClipBackend.Registration registration : voteRegistrations)
+            registration.remove();
+
+        voteRegistrations.clear();
+    }
+
+    /**
+     * This method returns the number of rows currently watching the user's vote.
+     * @return number of vote watches
+     */
+    public int getVoteWatchCount() {
+        return voteRegistrations.size();
+    }
+
+    /**
+     * This method returns the download url of the clip at a position if its video should
+     * be prefetched. Clips with a poster are shown without their video, which is only
+     * fetched once the user plays it, so they are not prefetched.
+     * @param position of the clip in the list
+     * @return download url of the clip, or null if it should not be prefetched
+     */
+    public String getPrefetchUrl(int position) {
+        if (position < 0 || position >= clipHashes.size())
+            return null;
+
+        Clip clip = clipStore.get(clipHashes.get(position));
+        return clip == null || clip.getPosterUrl() != null ? null : clip.getDownloadUrl();
+    }
+
     /**
      * This method is used to get the lenght of the clip hash key list within the
      * recycler view
@@ -174,6 +356,20 @@ public class ClipAdapter extends RecyclerView.Adapter<ClipAdapter.ClipViewHolder
         return clipHashes.size();
     }
 
+    /**
+     * This interface is notified around each view holder creation and bind on the main
+     * thread, so that the time and allocations of each can be measured.
+     */
+    public interface BindObserver {
+        void onCreateStarted();
+
+        void onCreateFinished();
+
+        void onBindStarted();
+
+        void onBindFinished();
+    }
+
     /**
      * This class defines a recycler ViewHolder for a clip. It stores references
      * to the necessary views and sets up the proper listeners when the view
@@ -188,6 +384,8 @@ public class ClipAdapter extends RecyclerView.Adapter<ClipAdapter.ClipViewHolder
         public ImageView mDownvote;
         public TextView mVoteCount;
 
+        private ClipBackend.Registration mVoteRegistration;
+
         /**
          * This constructor initializes the view references for the holder.
          * @param itemView containing view of the holder
@@ -204,31 +402,86 @@ public class ClipAdapter extends RecyclerView.Adapter<ClipAdapter.ClipViewHolder
         }
 
         /**
-         * This method calls on the databse at the inputted clip reference. It parses
-         * the returned data to configure the current view holder. The clip video and
-         * vote functionality are configured with the appropriate listeners.
+         * This method looks up the clip in the feed's clip store and configures the current
+         * view holder from it. The clip's poster is shown if it has one, otherwise its video
+         * is configured, and vote functionality is configured with the appropriate
+         * listeners. The vote count is kept current by the feed, so only the
+         * user's own vote is subscribed to. Any subscription from the holder's previous clip
+         * is released first. The first title shown is marked with the StartupTracer. The
+         * time to show the title and to finish binding are recorded in Metrics; the time
+         * until the video is prepared is recorded by the ClipPlayer.
          * @param referenceId hash key for specific clip
          */
-        protected void bind(final String referenceId) {
-            mEntriesReference.child(referenceId)
-                    .addListenerForSingleValueEvent(new ValueEventListener() {
-                @Override
-                public void onDataChange(DataSnapshot dataSnapshot) {
-                    Clip clip = dataSnapshot.getValue(Clip.class);
+        protected void bind(String referenceId) {
+            long startNanos = System.nanoTime();
+            long bindTime = SystemClock.elapsedRealtime();
+            Trace.beginSection("ClipAdapter.bind");
+
+            try {
+                bindClip(referenceId, startNanos, bindTime);
+            } finally {
+                Trace.endSection();
+            }
 
-                    mTitleView.setText(clip.getTitle());
-                    ClipPlayer.configureVideo((LinearLayout) mContainerView, clip.getDownloadUrl());
+            BIND_MICROS.record((System.nanoTime() - startNanos) / NANOS_PER_MICRO);
+        }
 
-                    mUpvote.setOnClickListener(new voteClicked(ClipViewHolder.this, referenceId));
-                    mDownvote.setOnClickListener(new voteClicked(ClipViewHolder.this, referenceId));
+        /**
+         * This helper method binds the clip as described in bind.
+         * @param referenceId hash key for specific clip
+         * @param startNanos time the bind started
+         * @param bindTime elapsed realtime when the bind started
+         */
+        private void bindClip(String referenceId, long startNanos, long bindTime) {
+            unbind();
+            Clip clip = clipStore.get(referenceId);
 
-                    mEntriesReference.child(referenceId).child(LIKES_ADDRESS)
-                            .addValueEventListener(new voteManager(ClipViewHolder.this));
-                }
+            if (clip == null)
+                return;
+
+            mTitleView.setText(clip.getTitle());
+            BIND_TITLE_MICROS.record((System.nanoTime() - startNanos) / NANOS_PER_MICRO);
+            StartupTracer.mark(StartupTracer.FIRST_TITLE);
+            mVoteCount.setText(String.valueOf(clip.getVoteCount()));
 
-                @Override
-                public void onCancelled(DatabaseError databaseError) { }
-            });
+            if (clip.getPosterUrl() != null)
+                ClipPlayer.configurePoster((LinearLayout) mContainerView, clip.getPosterUrl(),
+                        clip.getDownloadUrl());
+            else
+                ClipPlayer.configureVideo((LinearLayout) mContainerView, clip.getDownloadUrl(),
+                        bindTime);
+
+            mUpvote.setOnClickListener(new voteClicked(ClipViewHolder.this, referenceId));
+            mDownvote.setOnClickListener(new voteClicked(ClipViewHolder.this, referenceId));
+
+            String instanceId = InstanceID.getInstance(mContext).getId();
+
+            mVoteRegistration = mBackend.watchVote(referenceId, instanceId,
+                    new voteManager(ClipViewHolder.this, referenceId));
+            voteRegistrations.add(mVoteRegistration);
+        }
+
+        /**
+         * This method updates only the displayed vote count from the feed's clip store.
+         * @param referenceId hash key for specific clip
+         */
+        protected void bindVoteCount(String referenceId) {
+            Clip clip = clipStore.get(referenceId);
+
+            if (clip != null)
+                mVoteCount.setText(String.valueOf(clip.getVoteCount()));
+        }
+
+        /**
+         * This method releases the holder's vote subscription.
+         */
+        protected void unbind() {
+            if (mVoteRegistration != null) {
+                mVoteRegistration.remove();
+                voteRegistrations.remove(mVoteRegistration);
+            }
+
+            mVoteRegistration = null;
         }
     }
 
@@ -289,64 +542,59 @@ public class ClipAdapter extends RecyclerView.Adapter<ClipAdapter.ClipViewHolder
         }
 
         /**
-         * This method stores a vote in the database by updating the likes reference
-         * using a map.
+         * This method hands a vote to the VoteBatcher, which stores it in the database,
+         * updating the clip's likes and its stored vote count together, once the user stops
+         * changing it.
          * @param voteDirection true if upvote, false otherwise
          */
         private void vote(boolean voteDirection) {
-            DatabaseReference likeReference =
-                    mEntriesReference.child(referenceId).child(LIKES_ADDRESS);
             String instanceId = InstanceID
                     .getInstance(upvote.getContext()).getId();
 
-            Map<String, Object> updatedLikes = new HashMap();
-            updatedLikes.put(instanceId, voteDirection);
-
-            likeReference.updateChildren(updatedLikes);
+            VOTES_CAST.increment();
+            VoteBatcher.getInstance(mContext).vote(referenceId, instanceId, voteDirection);
         }
 
         /**
-         * This method removes the vote of the current user.
+         * This method hands the removal of the current user's vote to the VoteBatcher.
          */
         private void removeVote() {
-            DatabaseReference likeReference = mEntriesReference
-                    .child(referenceId).child(LIKES_ADDRESS);
             String instanceId = InstanceID
                     .getInstance(upvote.getContext()).getId();
 
-            likeReference.child(instanceId).removeValue();
+            VOTES_CAST.increment();
+            VoteBatcher.getInstance(mContext).vote(referenceId, instanceId, null);
         }
     }
 
     /**
-     * This class defines a ValueEventListener that listens for vote count changes.
+     * This class defines a VoteListener that listens for changes to the user's vote.
      */
-    private class voteManager implements ValueEventListener {
+    private class voteManager implements ClipBackend.VoteListener {
 
         private ClipViewHolder mViewHolder;
+        private String referenceId;
 
         /**
          * This constructor stores a reference to the list item's view holder.
          * @param viewHolder
+         * @param referenceId hash key of the watched clip
          */
-        public voteManager(ClipViewHolder viewHolder) {
+        public voteManager(ClipViewHolder viewHolder, String referenceId) {
             mViewHolder = viewHolder;
+            this.referenceId = referenceId;
         }
 
         /**
-         * This method uses VoteUtilities to count the votes and determine which, if either,
-         * vote button should be selected for the user with the retrieved instance id.
-         * @param dataSnapshot DataSnapshot for the likes database reference
+         * This method uses VoteUtilities to determine which, if either, vote button should
+         * be selected for the user. A vote the user has cast but the VoteBatcher has not
+         * yet written is shown in place of the stored one.
+         * @param vote the user's vote, or null if there is none
          */
         @Override
-        public void onDataChange(DataSnapshot dataSnapshot) {
-            String instanceId = InstanceID
-                    .getInstance(mViewHolder.mContainerView.getContext()).getId();
-            int likeCount = VoteUtilities.getVoteCount(dataSnapshot);
-
-            mViewHolder.mVoteCount.setText(String.valueOf(likeCount));
-
-            int voteDirection = VoteUtilities.getVoteDirection(dataSnapshot, instanceId);
+        public void onVoteChanged(Boolean vote) {
+            vote = VoteBatcher.getInstance(mContext).onVoteObserved(referenceId, vote);
+            int voteDirection = VoteUtilities.toDirection(vote);
 
             if (voteDirection == 1) {
                 mViewHolder.mUpvote.setImageDrawable(upSelected);
@@ -361,13 +609,10 @@ public class ClipAdapter extends RecyclerView.Adapter<ClipAdapter.ClipViewHolder
             } else {
                 mViewHolder.mDownvote.setImageDrawable(downUnselected);
                 mViewHolder.mUpvote.setImageDrawable(upUnselected);
-                mViewHolder.mDownvote.setTag(SELECTED);
+                mViewHolder.mDownvote.setTag(UNSELECTED);
                 mViewHolder.mUpvote.setTag(UNSELECTED);
             }
         }
-
-        @Override
-        public void onCancelled(DatabaseError databaseError) { }
     }
 }
 
@@ -0,0 +1,157 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * This interface defines every call the application makes to its database and storage.
+ * The feed, player and submission screen only talk to a ClipBackend, so they can run
+ * against Firebase or against an in-memory backend with controlled latency and bandwidth.
+ * All callbacks are delivered on the main thread.
+ * @author colomb2
+ */
+
+public interface ClipBackend {
+
+    String ORDER_BY_TIME = "time";
+    String ORDER_BY_HOT_SCORE = "hotScore";
+
+    /**
+     * This interface is returned by watch calls and stops the watch when removed.
+     */
+    interface Registration {
+        void remove();
+    }
+
+    /**
+     * This interface is returned by transfers and stops the transfer when cancelled.
+     */
+    interface Transfer {
+        void cancel();
+    }
+
+    /**
+     * This interface receives the result of an asynchronous call.
+     * @param <T> type of the result
+     */
+    interface Callback<T> {
+        void onSuccess(T result);
+
+        void onFailure(Exception exception);
+    }
+
+    /**
+     * This interface is notified as clips enter, change within and leave a watched range.
+     */
+    interface ClipListener {
+        void onClipAdded(String hash, Clip clip);
+
+        void onClipChanged(String hash, Clip clip);
+
+        void onClipRemoved(String hash);
+    }
+
+    /**
+     * This interface is notified of a user's vote on a clip.
+     */
+    interface VoteListener {
+        /**
+         * @param vote true if upvote, false if downvote, null if no vote
+         */
+        void onVoteChanged(Boolean vote);
+    }
+
+    /**
+     * This method reads the highest clips, by the given order key, up to and including
+     * an end point.
+     * @param orderKey ORDER_BY_TIME or ORDER_BY_HOT_SCORE
+     * @param endValue highest order value to include, or null for no end
+     * @param endKey clip hash that breaks ties at the end value, or null
+     * @param limit maximum number of clips to read
+     * @param callback given the clips by hash, lowest first
+     */
+    void loadPage(String orderKey, Double endValue, String endKey, int limit,
+                  Callback<LinkedHashMap<String, Clip>> callback);
+
+    /**
+     * This method watches the clips in a range of the given order key. If a limit is given,
+     * only the highest clips in the range are watched.
+     * @param orderKey ORDER_BY_TIME or ORDER_BY_HOT_SCORE
+     * @param startValue lowest order value to include, or null for no start
+     * @param startKey clip hash that breaks ties at the start value, or null
+     * @param endValue highest order value to include, or null for no end
+     * @param endKey clip hash that breaks ties at the end value, or null
+     * @param limit maximum number of clips to watch, or 0 for no limit
+     * @param listener notified of clips in the range
+     * @return registration that stops the watch
+     */
+    Registration watchRange(String orderKey, Double startValue, String startKey,
+                            Double endValue, String endKey, int limit, ClipListener listener);
+
+    /**
+     * This method watches a user's vote on a clip.
+     * @param hash key of the clip
+     * @param instanceId user's instance id
+     * @param listener notified of the vote
+     * @return registration that stops the watch
+     */
+    Registration watchVote(String hash, String instanceId, VoteListener listener);
+
+    /**
+     * This method stores, changes or removes a user's vote on a clip, keeping the clip's
+     * vote count and hot score in step.
+     * @param hash key of the clip
+     * @param instanceId user's instance id
+     * @param vote true if upvote, false if downvote, null to remove the vote
+     */
+    void castVote(String hash, String instanceId, Boolean vote);
+
+    /**
+     * This method stores, changes or removes several votes, keeping each clip's vote count
+     * and hot score in step. The votes are handed over in one call, but each is written in
+     * its own clip's transactions, so the call costs as many writes as there are votes.
+     * Each vote is applied against the vote stored for its user, so writing the same vote
+     * again leaves the count unchanged.
+     * @param votes to write
+     * @param callback told once the votes are stored
+     */
+    void castVotes(List<VoteBatcher.Vote> votes, Callback<Void> callback);
+
+    /**
+     * This method adds a new clip under the given hash. Adding a clip under a hash that is
+     * already taken leaves the stored clip as it is, so a retried add is not duplicated.
+     * @param hash key to add the clip under
+     * @param clip to add
+     * @param callback given the clip's hash, or null if not needed
+     */
+    void addClip(String hash, Clip clip, Callback<String> callback);
+
+    /**
+     * This method downloads a clip's video, or its poster image, into a file.
+     * @param downloadUrl of the video
+     * @param destination file to write the video to
+     * @param callback given the destination once the download completes
+     */
+    void downloadVideo(String downloadUrl, File destination, Callback<File> callback);
+
+    /**
+     * This method uploads a video, or a clip's poster image, to storage. Once the upload is
+     * cancelled, nothing more is sent and its callback may never be called. Uploading the
+     * same source to the same name again resumes it where the backend can.
+     * @param source uri of the video to upload
+     * @param name storage path of the video
+     * @param callback given the video's download url once the upload completes
+     * @return transfer that stops the upload
+     */
+    Transfer uploadVideo(Uri source, String name, Callback<String> callback);
+
+    /**
+     * This method looks for a video, or a clip's poster image, already in storage.
+     * @param name storage path of the video
+     * @param callback given the video's download url, or null if there is no such video
+     */
+    void findVideo(String name, Callback<String> callback);
+}
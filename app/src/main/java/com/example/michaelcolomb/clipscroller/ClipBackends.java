@@ -0,0 +1,50 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.storage.FirebaseStorage;
+
+/**
+ * This class holds the ClipBackend shared by the application's activities. It is the
+ * Firebase backend unless another one, such as a FakeClipBackend, has been set.
+ * @author colomb2
+ */
+
+public class ClipBackends {
+
+    private static volatile ClipBackend backend;
+
+    /**
+     * This method returns the shared backend, creating the Firebase backend on first use.
+     * Once a backend exists it is returned without taking the lock, so the main thread
+     * does not wait on the warmup thread that created it.
+     * @param context to use for android interaction
+     * @return the shared ClipBackend
+     */
+    public static ClipBackend get(Context context) {
+        ClipBackend current = backend;
+
+        if (current != null)
+            return current;
+
+        synchronized (ClipBackends.class) {
+            if (backend == null) {
+                backend = new FirebaseClipBackend(context.getApplicationContext(),
+                        FirebaseDatabase.getInstance().getReference(MainActivity.CLIP_ADDRESS),
+                        FirebaseDatabase.getInstance().getReference(MainActivity.VOTE_ADDRESS),
+                        FirebaseStorage.getInstance());
+            }
+
+            return backend;
+        }
+    }
+
+    /**
+     * This method replaces the shared backend, such as with a fake for testing.
+     * @param backend to share, or null to go back to the Firebase backend
+     */
+    public static synchronized void set(ClipBackend backend) {
+        ClipBackends.backend = backend;
+    }
+}
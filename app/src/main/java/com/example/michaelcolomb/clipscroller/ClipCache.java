@@ -0,0 +1,321 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class defines a persistent, size-bounded disk cache for downloaded clip videos.
+ * Videos are keyed by their normalized download url and are evicted least recently used
+ * first once the byte budget is exceeded. Downloads are written to a temporary file and
+ * renamed into place, so a partially downloaded video is never returned. The cache lives
+ * in its own directory and survives refreshes and process restarts.
+ * @author colomb2
+ */
+
+public class ClipCache {
+
+    private static final String CACHE_DIRECTORY = "clips";
+    private static final String ENTRY_SUFFIX = ".mp4";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final String TOKEN_PARAMETER = "token";
+    private static final String ENCODING = "UTF-8";
+    protected static final long DEFAULT_MAX_BYTES = 100L * 1024 * 1024;
+
+    private static ClipCache instance;
+
+    private final File directory;
+    private final LinkedHashMap<String, Long> entries;
+    private long maxBytes;
+    private long sizeBytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * This constructor creates a cache in the given directory and indexes any videos
+     * already stored there, oldest access first. Temporary files left behind by downloads
+     * that never finished are deleted.
+     * @param directory to store cached videos in
+     * @param maxBytes byte budget of the cache
+     */
+    ClipCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        directory.mkdirs();
+        loadEntries();
+        trimToSize();
+    }
+
+    /**
+     * This method returns the application's shared clip cache, creating it inside the
+     * application's cache directory on first use.
+     * @param context to use for android interaction
+     * @return the shared ClipCache
+     */
+    public static synchronized ClipCache getInstance(Context context) {
+        if (instance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(),
+                    CACHE_DIRECTORY);
+            instance = new ClipCache(directory, DEFAULT_MAX_BYTES);
+        }
+
+        return instance;
+    }
+
+    /**
+     * This helper method indexes the videos already on disk. Their last modified time is
+     * used as the last access time so that the eviction order survives restarts.
+     */
+    private void loadEntries() {
+        File[] files = directory.listFiles();
+
+        if (files == null)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+
+            if (name.endsWith(ENTRY_SUFFIX)) {
+                String key = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+                entries.put(key, file.length());
+                sizeBytes += file.length();
+            } else {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * This method looks up the cached video for a download url. A hit marks the video as
+     * most recently used.
+     * @param downloadUrl of the video clip in storage
+     * @return the cached video file, or null if it is not cached
+     */
+    public synchronized File get(String downloadUrl) {
+        String key = keyFor(downloadUrl);
+        File file = fileFor(key);
+
+        if (entries.get(key) == null || !file.exists()) {
+            removeEntry(key);
+            missCount++;
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        hitCount++;
+        return file;
+    }
+
+    /**
+     * This method checks whether a video is cached without counting a hit or miss or
+     * changing its eviction order. An entry whose file has been deleted is dropped.
+     * @param downloadUrl of the video clip in storage
+     * @return true if the video is cached
+     */
+    public synchronized boolean contains(String downloadUrl) {
+        String key = keyFor(downloadUrl);
+
+        if (!entries.containsKey(key))
+            return false;
+
+        if (fileFor(key).exists())
+            return true;
+
+        removeEntry(key);
+        return false;
+    }
+
+    /**
+     * This method creates a uniquely named temporary file in the cache directory for a
+     * download to be written to. It should be passed to commit or abort when the download
+     * finishes.
+     * @return an empty temporary file
+     * @throws IOException if the file could not be created
+     */
+    public File createTempFile() throws IOException {
+        directory.mkdirs();
+        return File.createTempFile(ClipPlayer.TEMP_VIDEO_NAME, TEMP_SUFFIX, directory);
+    }
+
+    /**
+     * This method atomically moves a completed download into the cache under the given
+     * download url, replacing any previous entry, and evicts videos until the cache is
+     * within its byte budget again. The download is renamed over the previous entry before
+     * the index changes, so if it cannot be moved the previous entry is kept and the
+     * download is discarded.
+     * @param downloadUrl of the video clip in storage
+     * @param tempFile completed download created by createTempFile
+     * @return the cached video file, or null if the download could not be moved and no
+     * previous entry is cached
+     */
+    public synchronized File commit(String downloadUrl, File tempFile) {
+        String key = keyFor(downloadUrl);
+        File file = fileFor(key);
+
+        if (!tempFile.renameTo(file)) {
+            abort(tempFile);
+            return contains(downloadUrl) ? file : null;
+        }
+
+        Long previousSize = entries.remove(key);
+
+        if (previousSize != null)
+            sizeBytes -= previousSize;
+
+        entries.put(key, file.length());
+        sizeBytes += file.length();
+        trimToSize();
+
+        return file;
+    }
+
+    /**
+     * This method discards a temporary file whose download failed or was cancelled.
+     * @param tempFile temporary file created by createTempFile
+     */
+    public void abort(File tempFile) {
+        tempFile.delete();
+    }
+
+    /**
+     * This method changes the byte budget of the cache, evicting videos if the cache
+     * is now over budget.
+     * @param maxBytes new byte budget
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    /**
+     * This helper method evicts the least recently used videos until the cache fits within
+     * its byte budget. The most recently committed video is always kept.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+
+        while (sizeBytes > maxBytes && entries.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            sizeBytes -= entry.getValue();
+            fileFor(entry.getKey()).delete();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * This helper method removes an entry and its file from the cache.
+     * @param key hashed key of the entry
+     */
+    private void removeEntry(String key) {
+        Long size = entries.remove(key);
+
+        if (size != null)
+            sizeBytes -= size;
+
+        fileFor(key).delete();
+    }
+
+    /**
+     * This helper method returns the file that stores the entry with the given key.
+     * @param key hashed key of the entry
+     * @return file of the entry
+     */
+    private File fileFor(String key) {
+        return new File(directory, key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * This method normalizes a download url so that equivalent urls share a cache entry.
+     * The scheme and host are lower cased and the access token, which can be regenerated
+     * without the content changing, is dropped.
+     * @param downloadUrl of the video clip in storage
+     * @return normalized download url
+     */
+    protected static String normalize(String downloadUrl) {
+        Uri uri = Uri.parse(downloadUrl.trim());
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+
+        if (uri.getScheme() != null)
+            builder.scheme(uri.getScheme().toLowerCase());
+
+        if (uri.getEncodedAuthority() != null)
+            builder.encodedAuthority(uri.getEncodedAuthority().toLowerCase());
+
+        if (uri.isHierarchical()) {
+            for (String name : uri.getQueryParameterNames()) {
+                if (!name.equals(TOKEN_PARAMETER)) {
+                    for (String value : uri.getQueryParameters(name))
+                        builder.appendQueryParameter(name, value);
+                }
+            }
+        }
+
+        return builder.build().toString();
+    }
+
+    /**
+     * This helper method hashes a normalized download url into a file name safe key.
+     * @param downloadUrl of the video clip in storage
+     * @return hex encoded hash of the normalized url
+     */
+    private static String keyFor(String downloadUrl) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            byte[] hash = digest.digest(normalize(downloadUrl).getBytes(ENCODING));
+            StringBuilder key = new StringBuilder();
+
+            for (byte b : hash)
+                key.append(String.format("%02x", b));
+
+            return key.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            return String.valueOf(normalize(downloadUrl).hashCode());
+        }
+    }
+
+    public synchronized long getSize() {
+        return sizeBytes;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+}
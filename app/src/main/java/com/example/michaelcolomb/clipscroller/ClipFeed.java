@@ -0,0 +1,429 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class maintains the live, ranked list of clips shown in the feed. Clips are loaded a
+ * page at a time, newest or hottest first, and each loaded range is watched through the
+ * ClipBackend so that added, changed and removed clips update the clip store incrementally.
+ * Updates that arrive together are ranked once, and the listener is told the previous and
+ * new order along with which clips changed, so the list can be updated without a full
+ * reload. A saved FeedSnapshotStore snapshot can be shown until the first page arrives, at
+ * which point the saved clips that are no longer in the feed are dropped. Page query
+ * latency, clips loaded, clips ranked and ranking time are recorded in Metrics.
+ * @author colomb2
+ */
+
+public class ClipFeed {
+
+    /**
+     * This interface is notified whenever the ranked order or the clips in it change.
+     */
+    public interface Listener {
+        /**
+         * @param previousOrder clip hashes in their previous ranked order
+         * @param order clip hashes in their new ranked order
+         * @param changes changed clips mapped to VOTE_PAYLOAD if only their votes changed,
+         *                or to null if anything else changed
+         */
+        void onFeedChanged(List<String> previousOrder, List<String> order,
+                           Map<String, Object> changes);
+    }
+
+    public static final Object VOTE_PAYLOAD = "votes";
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+
+    private static int pageSize = DEFAULT_PAGE_SIZE;
+
+    private static final Metrics.Histogram PAGE_MILLIS = Metrics.histogram("feed.page_ms");
+    private static final Metrics.Counter PAGE_CLIPS = Metrics.counter("feed.clips_loaded");
+    private static final Metrics.Counter PAGE_FAILURES = Metrics.counter("feed.page_failures");
+    private static final Metrics.Counter CLIPS_RANKED = Metrics.counter("feed.clips_ranked");
+    private static final Metrics.Histogram RANK_MICROS = Metrics.histogram("feed.rank_us");
+    private static final Metrics.Gauge FEED_CLIPS = Metrics.gauge("feed.clips");
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final ClipBackend backend;
+    private final boolean rankByTrending;
+    private final String orderKey;
+    private final ClipStore clipStore;
+    private final RankingEngine rankingEngine;
+    private final Handler handler;
+    private final List<ClipBackend.Registration> registrations;
+    private final Map<String, Integer> rangeCounts;
+    private final Map<String, Object> changes;
+    private final Set<String> restoredHashes;
+    private final Runnable rankRunnable;
+    private Listener listener;
+
+    private List<String> order;
+    private double cursorValue;
+    private String cursorKey;
+    private boolean loadingPage;
+    private boolean hasMorePages = true;
+    private boolean loaded;
+    private boolean rankScheduled;
+
+    /**
+     * This constructor creates an empty feed over the given backend. Clips are paged by
+     * their stored hot score if ClipRank is ranking by trend, or by creation time otherwise,
+     * so that each page holds the next clips in ranked order.
+     * @param backend ClipBackend to load clips from
+     */
+    public ClipFeed(ClipBackend backend) {
+        this.backend = backend;
+        this.rankByTrending = ClipRank.isRankByTrending();
+        this.orderKey = rankByTrending
+                ? ClipBackend.ORDER_BY_HOT_SCORE : ClipBackend.ORDER_BY_TIME;
+        this.clipStore = new ClipStore();
+        this.rankingEngine = new RankingEngine();
+        this.handler = new Handler(Looper.getMainLooper());
+        this.registrations = new ArrayList<>();
+        this.rangeCounts = new HashMap<>();
+        this.changes = new HashMap<>();
+        this.restoredHashes = new HashSet<>();
+        this.order = new ArrayList<>();
+        this.rankRunnable = new Runnable() {
+            @Override
+            public void run() {
+                rankScheduled = false;
+                rank();
+            }
+        };
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * This method shows a saved snapshot of the feed in its saved order, so the list has
+     * clips before the first page is loaded. The snapshot is ignored if it was ranked in
+     * the other mode or the first page has already arrived.
+     * @param snapshot saved by the FeedSnapshotStore
+     */
+    public void restore(FeedSnapshotStore.Snapshot snapshot) {
+        if (loaded || snapshot.isRankByTrending() != rankByTrending)
+            return;
+
+        for (String hash : snapshot.getOrder()) {
+            clipStore.put(hash, snapshot.getClip(hash));
+            restoredHashes.add(hash);
+        }
+
+        List<String> previousOrder = order;
+        order = new ArrayList<>(snapshot.getOrder());
+
+        if (listener != null)
+            listener.onFeedChanged(previousOrder, order, new HashMap<String, Object>());
+    }
+
+    /**
+     * This method loads the next page of clips, ordered by the feed's order key, using the
+     * value and key of the lowest clip loaded so far as the cursor. The first page is read
+     * once to find its lowest clip, and from then on everything from that clip upwards,
+     * including clips added later, is watched live. Lower pages are watched with a query
+     * that ends at the cursor. As hot scores change, clips move between these ranges.
+     * Nothing happens if a page is already loading or the last page has been loaded.
+     */
+    public void loadNextPage() {
+        if (loadingPage || !hasMorePages)
+            return;
+
+        loadingPage = true;
+
+        if (cursorKey == null)
+            loadFirstPage();
+        else
+            loadOlderPage();
+    }
+
+    /**
+     * This helper method reads the highest page, then watches every clip from the lowest
+     * clip of that page upwards.
+     */
+    private void loadFirstPage() {
+        final long startTime = SystemClock.elapsedRealtime();
+
+        backend.loadPage(orderKey, null, null, pageSize,
+                new ClipBackend.Callback<LinkedHashMap<String, Clip>>() {
+            @Override
+            public void onSuccess(LinkedHashMap<String, Clip> clips) {
+                PAGE_MILLIS.record(SystemClock.elapsedRealtime() - startTime);
+                dropRestored(clips.keySet());
+                addPage(clips, pageSize);
+
+                if (cursorKey != null)
+                    watch(cursorValue, cursorKey, null, null, 0);
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                PAGE_FAILURES.increment();
+                loadingPage = false;
+            }
+        });
+    }
+
+    /**
+     * This helper method watches the page of clips below the cursor. The page's watch
+     * adds its clips, and the read that follows moves the cursor on.
+     */
+    private void loadOlderPage() {
+        final long startTime = SystemClock.elapsedRealtime();
+
+        watch(null, null, cursorValue, cursorKey, pageSize + 1);
+        backend.loadPage(orderKey, cursorValue, cursorKey, pageSize + 1,
+                new ClipBackend.Callback<LinkedHashMap<String, Clip>>() {
+            @Override
+            public void onSuccess(LinkedHashMap<String, Clip> clips) {
+                PAGE_MILLIS.record(SystemClock.elapsedRealtime() - startTime);
+                addPage(clips, pageSize + 1);
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                PAGE_FAILURES.increment();
+                loadingPage = false;
+            }
+        });
+    }
+
+    /**
+     * This helper method removes the restored clips that are not in the first page or
+     * any watched range, as they have dropped out of the feed since it was saved. The
+     * restored clips that are still in the feed are updated as the page is stored.
+     * @param liveHashes hashes of the clips in the first page
+     */
+    private void dropRestored(Set<String> liveHashes) {
+        for (String hash : restoredHashes) {
+            if (!liveHashes.contains(hash) && !rangeCounts.containsKey(hash)) {
+                clipStore.remove(hash);
+                changes.remove(hash);
+            }
+        }
+
+        restoredHashes.clear();
+        loaded = true;
+    }
+
+    /**
+     * This helper method stores the clips of a loaded page and moves the cursor to its
+     * lowest clip.
+     * @param clips of the page by hash, lowest clip first
+     * @param fullPageCount number of clips a full page returns
+     */
+    private void addPage(LinkedHashMap<String, Clip> clips, int fullPageCount) {
+        int pageCount = 0;
+
+        for (Map.Entry<String, Clip> entry : clips.entrySet()) {
+            Clip clip = entry.getValue();
+            putClip(entry.getKey(), clip);
+
+            if (pageCount++ == 0) {
+                cursorValue = rankByTrending ? clip.getHotScore() : clip.getTime();
+                cursorKey = entry.getKey();
+            }
+        }
+
+        PAGE_CLIPS.add(pageCount);
+        hasMorePages = pageCount >= fullPageCount;
+        loadingPage = false;
+        scheduleRank();
+    }
+
+    /**
+     * This helper method watches a range of clips and remembers the watch so that it can
+     * be stopped later.
+     * @param startValue lowest order value to include, or null for no start
+     * @param startKey clip hash that breaks ties at the start value, or null
+     * @param endValue highest order value to include, or null for no end
+     * @param endKey clip hash that breaks ties at the end value, or null
+     * @param limit maximum number of clips to watch, or 0 for no limit
+     */
+    private void watch(Double startValue, String startKey, Double endValue, String endKey,
+                       int limit) {
+        registrations.add(backend.watchRange(orderKey, startValue, startKey, endValue, endKey,
+                limit, new clipManager()));
+    }
+
+    /**
+     * This helper method stores a clip and records how it changed.
+     * @param hash key of the clip
+     * @param clip decoded clip
+     */
+    private void putClip(String hash, Clip clip) {
+        Clip previous = clipStore.get(hash);
+        clipStore.put(hash, clip);
+
+        if (previous != null) {
+            boolean sameClip = equal(previous.getTitle(), clip.getTitle())
+                    && equal(previous.getDownloadUrl(), clip.getDownloadUrl())
+                    && equal(previous.getPosterUrl(), clip.getPosterUrl())
+                    && previous.getTime() == clip.getTime();
+
+            if (!sameClip)
+                changes.put(hash, null);
+            else if (previous.getVoteCount() != clip.getVoteCount() && !changes.containsKey(hash))
+                changes.put(hash, VOTE_PAYLOAD);
+        }
+    }
+
+    private static boolean equal(Object first, Object second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * This helper method ranks the feed once after the current batch of updates, rather
+     * than once per update.
+     */
+    private void scheduleRank() {
+        if (!rankScheduled) {
+            rankScheduled = true;
+            handler.post(rankRunnable);
+        }
+    }
+
+    /**
+     * This method ranks every stored clip with the RankingEngine and tells the listener
+     * how the order and clips changed since the last ranking. Trending feeds rank by the
+     * hot score, so that clips are in the same order the database pages them in.
+     */
+    public void rank() {
+        long startNanos = System.nanoTime();
+        Trace.beginSection("ClipFeed.rank");
+        rankingEngine.clear();
+
+        for (String hash : clipStore.getHashes()) {
+            Clip clip = clipStore.get(hash);
+            rankingEngine.add(hash, clip.getTime(), clip.getVoteCount());
+        }
+
+        int rankedCount = rankingEngine.rank(
+                rankByTrending ? ScoringStrategy.HOT : ScoringStrategy.RECENCY,
+                System.currentTimeMillis(), rankingEngine.size());
+        List<String> newOrder = new ArrayList<>(rankedCount);
+
+        for (int i = 0; i < rankedCount; i++)
+            newOrder.add(rankingEngine.getRankedHash(i));
+
+        List<String> previousOrder = order;
+        Map<String, Object> rankChanges = new HashMap<>(changes);
+        order = newOrder;
+        changes.clear();
+
+        Trace.endSection();
+        CLIPS_RANKED.add(rankingEngine.size());
+        RANK_MICROS.record((System.nanoTime() - startNanos) / NANOS_PER_MICRO);
+        FEED_CLIPS.set(newOrder.size());
+
+        if (listener != null)
+            listener.onFeedChanged(previousOrder, newOrder, rankChanges);
+    }
+
+    /**
+     * This method stops all of the feed's watches.
+     */
+    public void release() {
+        for (ClipBackend.Registration registration : registrations)
+            registration.remove();
+
+        registrations.clear();
+        handler.removeCallbacks(rankRunnable);
+        rankScheduled = false;
+    }
+
+    public boolean isRankByTrending() {
+        return rankByTrending;
+    }
+
+    /**
+     * This method tells whether the first page has arrived, so the order is no longer
+     * just a restored snapshot.
+     * @return true once the first page is loaded
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public List<String> getOrder() {
+        return order;
+    }
+
+    public ClipStore getClipStore() {
+        return clipStore;
+    }
+
+    public int size() {
+        return order.size();
+    }
+
+    /**
+     * This method sets the number of clips loaded per page.
+     * @param pageSize number of clips per page
+     */
+    public static void setPageSize(int pageSize) {
+        ClipFeed.pageSize = pageSize;
+    }
+
+    /**
+     * This class defines the ClipListener of one watched range of clips. Events update the
+     * clip store and schedule a ranking. A clip leaving one range may enter another before
+     * or after, so each range remembers its clips, and a clip is only removed from the
+     * store once no range holds it.
+     */
+    private class clipManager implements ClipBackend.ClipListener {
+
+        private final Set<String> hashes;
+
+        public clipManager() {
+            this.hashes = new HashSet<>();
+        }
+
+        @Override
+        public void onClipAdded(String hash, Clip clip) {
+            if (hashes.add(hash)) {
+                Integer rangeCount = rangeCounts.get(hash);
+                rangeCounts.put(hash, rangeCount == null ? 1 : rangeCount + 1);
+            }
+
+            putClip(hash, clip);
+            scheduleRank();
+        }
+
+        @Override
+        public void onClipChanged(String hash, Clip clip) {
+            putClip(hash, clip);
+            scheduleRank();
+        }
+
+        @Override
+        public void onClipRemoved(String hash) {
+            if (!hashes.remove(hash))
+                return;
+
+            Integer rangeCount = rangeCounts.get(hash);
+
+            if (rangeCount == null || rangeCount <= 1) {
+                rangeCounts.remove(hash);
+                clipStore.remove(hash);
+                changes.remove(hash);
+                scheduleRank();
+            } else {
+                rangeCounts.put(hash, rangeCount - 1);
+            }
+        }
+    }
+}
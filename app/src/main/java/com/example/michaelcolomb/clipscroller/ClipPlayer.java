@@ -3,7 +3,7 @@ package com.example.michaelcolomb.clipscroller;
 import android.content.Context;
 import android.media.MediaPlayer;
 import android.net.Uri;
-import android.support.annotation.NonNull;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
@@ -13,17 +13,14 @@ import android.widget.ProgressBar;
 import android.widget.Toast;
 import android.widget.VideoView;
 
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.firebase.storage.FileDownloadTask;
-import com.google.firebase.storage.FirebaseStorage;
-import com.google.firebase.storage.StorageReference;
-
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 
 /**
- * This class is used to configure and play videos within the clips.
+ * This class is used to configure and play videos within the clips. Only one clip plays at
+ * a time: starting a clip pauses the one that was playing. The row chosen by the
+ * AutoplayController plays muted without being tapped.
  * @author colomb2
  */
 
@@ -33,59 +30,354 @@ public class ClipPlayer {
     protected static final String TEMP_VIDEO_NAME = "tempVideo";
     protected static final String MP4_FORMAT = "mp4";
     protected static final int SEEK_FRAME = 2500;
+    private static final String TAG = "ClipPlayer";
+    private static final String HTTP_SCHEME = "http";
+    private static final String MODE_CACHED = "cached";
+    private static final String MODE_STREAMING = "streaming";
+    private static final String MODE_DOWNLOAD = "download";
+
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("cache.hits");
+    private static final Metrics.Counter CACHE_MISSES = Metrics.counter("cache.misses");
+    private static final Metrics.Gauge CACHE_BYTES = Metrics.gauge("cache.bytes");
+    private static final Metrics.Counter STREAMED = Metrics.counter("player.streamed");
+    private static final Metrics.Histogram DOWNLOAD_MILLIS =
+            Metrics.histogram("download.ms");
+    private static final Metrics.Histogram DOWNLOAD_BYTES =
+            Metrics.histogram("download.bytes");
+    private static final Metrics.Counter DOWNLOAD_FAILURES =
+            Metrics.counter("download.failures");
+    private static final Metrics.Histogram BIND_TO_PREPARED_MILLIS =
+            Metrics.histogram("player.bind_to_prepared_ms");
+    private static final Metrics.Histogram FIRST_FRAME_MILLIS =
+            Metrics.histogram("player.first_frame_ms");
+
+    private static boolean streamingEnabled = true;
+    private static WeakReference<VideoView> playingView = new WeakReference<>(null);
+    private static WeakReference<VideoView> autoplayView = new WeakReference<>(null);
 
     /**
-     * This method creates a temporary file to store the video file in. It then pulls
-     * from firebase storage based on the downloadUrl. When the video has been successfully
-     * downloaded, the play button is made visible and the touch player is set up.
+     * This method looks up the video in the clip cache. If it is not cached and streaming is
+     * enabled, the video is played through the ClipStreamProxy so playback can start before
+     * the download finishes. Otherwise, it pulls the video from the ClipBackend into a
+     * temporary cache file based on the downloadUrl and commits it to the cache once the
+     * download succeeds. When the video is ready, the play button is made visible and the
+     * touch player is set up.
      * progress bar: http://stackoverflow.com/questions/7731354/how-to-use-a-seekbar-in-android-
      * as-a-seekbar-as-well-as-a-progressbar-simultaneo
      * @param layout of the clip
      * @param downloadUrl of the video clip in storage
+     * @param bindTime elapsed realtime when the row started binding
      */
-    public static void configureVideo(final LinearLayout layout, String downloadUrl) {
-        final Context context = layout.getContext();
-        final File localFile;
-        final VideoView clipView = (VideoView) layout.findViewById(R.id.clip);
-        final ProgressBar progressView = (ProgressBar) layout.findViewById(R.id.progress);
+    public static void configureVideo(LinearLayout layout, String downloadUrl, long bindTime) {
+        configureVideo(layout, downloadUrl, false, bindTime);
+    }
+
+    /**
+     * This method shows a clip's poster in place of its video, so the row renders without
+     * downloading or decoding the video. The video is only configured once the poster is
+     * tapped, and then plays as soon as it is ready. Any video left in the view by a
+     * previous clip is released.
+     * @param layout of the clip
+     * @param posterUrl of the clip's poster in storage
+     * @param downloadUrl of the video clip in storage
+     */
+    public static void configurePoster(final LinearLayout layout, String posterUrl,
+                                       final String downloadUrl) {
+        VideoView clipView = (VideoView) layout.findViewById(R.id.clip);
+        final ImageView posterView = (ImageView) layout.findViewById(R.id.poster);
         final ImageView playButton = (ImageView) layout.findViewById(R.id.play_button);
         final ProgressBar loadingView = (ProgressBar) layout.findViewById(R.id.loadingBar);
 
+        clipView.setTag(null);
+        clipView.setTag(R.id.play_button, null);
+        clipView.setOnTouchListener(null);
+        DecoderPool.getInstance().release(clipView);
+
+        posterView.setVisibility(View.VISIBLE);
+        loadingView.setVisibility(View.GONE);
+        playButton.setVisibility(View.VISIBLE);
+        ClipPoster.load(posterView, posterUrl);
+
+        posterView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                posterView.setOnClickListener(null);
+                playButton.setVisibility(View.INVISIBLE);
+                loadingView.setVisibility(View.VISIBLE);
+                configureVideo(layout, downloadUrl, true, SystemClock.elapsedRealtime());
+            }
+        });
+    }
+
+    /**
+     * This helper method configures the clip's video as described in configureVideo. If
+     * the video should play when ready, it starts from the beginning once prepared. The
+     * video view is tagged with the download url, so a download that finishes after the
+     * row was rebound to another clip is cached but not shown. A row bound again to the
+     * video its player already has prepared is left as it is. If the clip is the one to
+     * autoplay, it starts muted once prepared instead. Cache hits and misses, and the
+     * size, time and failures of downloads, are recorded in Metrics.
+     * @param layout of the clip
+     * @param downloadUrl of the video clip in storage
+     * @param playWhenReady true to play the video once it is prepared
+     * @param startTime elapsed realtime that download and prepare times are measured from
+     */
+    private static void configureVideo(final LinearLayout layout, final String downloadUrl,
+                                       final boolean playWhenReady, final long startTime) {
+        final Context context = layout.getContext();
+        final ClipCache clipCache = ClipCache.getInstance(context);
+        final VideoView clipView = (VideoView) layout.findViewById(R.id.clip);
+        final File tempFile;
+
+        clipView.setTag(downloadUrl);
+
+        if (!playWhenReady)
+            layout.findViewById(R.id.poster).setVisibility(View.GONE);
+
+        if (!playWhenReady && DecoderPool.getInstance().reuse(clipView, downloadUrl))
+            return;
+
+        clipView.setTag(R.id.play_button, null);
+
+        File cachedFile = clipCache.get(downloadUrl);
+
+        if (cachedFile != null) {
+            CACHE_HITS.increment();
+            prepareVideo(layout, downloadUrl, Uri.parse(cachedFile.getPath()), MODE_CACHED,
+                    startTime, playWhenReady);
+            return;
+        }
+
+        CACHE_MISSES.increment();
+
+        if (streamingEnabled && downloadUrl.startsWith(HTTP_SCHEME)) {
+            try {
+                String proxyUrl = ClipStreamProxy.getInstance(context).getProxyUrl(downloadUrl);
+                STREAMED.increment();
+                prepareVideo(layout, downloadUrl, Uri.parse(proxyUrl), MODE_STREAMING,
+                        startTime, playWhenReady);
+                return;
+            } catch (IOException e) {
+                Log.w(TAG, "Streaming unavailable, downloading instead", e);
+            }
+        }
+
         try {
-            localFile = File.createTempFile(TEMP_VIDEO_NAME, MP4_FORMAT);
+            tempFile = clipCache.createTempFile();
         } catch (IOException e) {
             Toast.makeText(context, context.getString(R.string.failedToFindVideo),
                     Toast.LENGTH_LONG).show();
             return;
         }
 
-        StorageReference specifiedVideoRef = FirebaseStorage.getInstance()
-                .getReferenceFromUrl(downloadUrl);
-
-        specifiedVideoRef.getFile(localFile)
-                .addOnSuccessListener(new OnSuccessListener<FileDownloadTask.TaskSnapshot>() {
-                    @Override
-                    public void onSuccess(FileDownloadTask.TaskSnapshot taskSnapshot) {
-                        clipView.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
-                            @Override
-                            public void onPrepared(MediaPlayer mp) {
-                                clipView.setOnTouchListener(
-                                        new ClipTouchListener(progressView, playButton,
-                                                loadingView, clipView));
-                            }
-                        });
-
-                        clipView.setVideoURI(Uri.parse(localFile.getPath()));
-                    }
-                }).addOnFailureListener(new OnFailureListener() {
+        ClipBackend backend = ClipBackends.get(context);
+        backend.downloadVideo(downloadUrl, tempFile, new ClipBackend.Callback<File>() {
             @Override
-            public void onFailure(@NonNull Exception exception) {
+            public void onSuccess(File downloadedFile) {
+                DOWNLOAD_MILLIS.record(SystemClock.elapsedRealtime() - startTime);
+                DOWNLOAD_BYTES.record(downloadedFile.length());
+                File localFile = clipCache.commit(downloadUrl, downloadedFile);
+                CACHE_BYTES.set(clipCache.getSize());
+
+                if (localFile == null) {
+                    DOWNLOAD_FAILURES.increment();
+                    Toast.makeText(context, context.getString(R.string.failedToFindVideo),
+                            Toast.LENGTH_LONG).show();
+                    return;
+                }
+
+                if (downloadUrl.equals(clipView.getTag()))
+                    prepareVideo(layout, downloadUrl, Uri.parse(localFile.getPath()),
+                            MODE_DOWNLOAD, startTime, playWhenReady);
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                DOWNLOAD_FAILURES.increment();
+                clipCache.abort(tempFile);
                 Toast.makeText(context, context.getString(R.string.failedToRetrieveVideo) +
                         "\n" + exception.getMessage(), Toast.LENGTH_LONG).show();
             }
         });
     }
 
+    /**
+     * This helper method sets a video on the clip's video view. The view first takes a
+     * slot in the DecoderPool. When the video is prepared, the touch player is set up and,
+     * if asked, the video starts playing. The clip's poster is hidden once the first frame
+     * renders. The time from the start time until it is prepared and until its first
+     * frame renders is logged with the mode that loaded it, so the streaming and download
+     * paths can be compared. The prepare time is also recorded by the pool. For a row that
+     * was bound rather than tapped, it is recorded in Metrics as the time from binding the
+     * row to its video being playable. The first prepared clip is marked with the
+     * StartupTracer.
+     * @param layout of the clip
+     * @param downloadUrl of the video clip in storage
+     * @param videoUri local path or stream url of the video
+     * @param mode how the video was loaded, for logging
+     * @param startTime elapsed realtime when the row was bound or its video tapped
+     * @param playWhenReady true to play the video once it is prepared
+     */
+    private static void prepareVideo(final LinearLayout layout, final String downloadUrl,
+                                     Uri videoUri, final String mode, final long startTime,
+                                     final boolean playWhenReady) {
+        final VideoView clipView = (VideoView) layout.findViewById(R.id.clip);
+        final ProgressBar progressView = (ProgressBar) layout.findViewById(R.id.progress);
+        final ImageView playButton = (ImageView) layout.findViewById(R.id.play_button);
+        final ProgressBar loadingView = (ProgressBar) layout.findViewById(R.id.loadingBar);
+        final ImageView posterView = (ImageView) layout.findViewById(R.id.poster);
+
+        clipView.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                long prepareMillis = SystemClock.elapsedRealtime() - startTime;
+                Log.d(TAG, "Time to prepared (" + mode + "): " + prepareMillis + " ms");
+                DecoderPool.getInstance().prepared(clipView, prepareMillis);
+
+                if (!playWhenReady)
+                    BIND_TO_PREPARED_MILLIS.record(prepareMillis);
+
+                StartupTracer.mark(StartupTracer.FIRST_PLAYABLE);
+                ClipTouchListener touchListener = new ClipTouchListener(progressView,
+                        playButton, loadingView, clipView);
+                touchListener.setMediaPlayer(mp);
+                clipView.setOnTouchListener(touchListener);
+                clipView.setTag(R.id.play_button, touchListener);
+
+                if (autoplayView.get() == clipView)
+                    touchListener.autoplay(clipView);
+                else if (playWhenReady)
+                    touchListener.playFromStart(clipView);
+            }
+        });
+
+        clipView.setOnInfoListener(new MediaPlayer.OnInfoListener() {
+            @Override
+            public boolean onInfo(MediaPlayer mp, int what, int extra) {
+                if (what == MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START) {
+                    long firstFrameMillis = SystemClock.elapsedRealtime() - startTime;
+                    Log.d(TAG, "Time to first frame (" + mode + "): " + firstFrameMillis
+                            + " ms");
+                    FIRST_FRAME_MILLIS.record(firstFrameMillis);
+                    posterView.setVisibility(View.GONE);
+                }
+
+                return false;
+            }
+        });
+
+        DecoderPool.getInstance().acquire(clipView, downloadUrl, new Runnable() {
+            @Override
+            public void run() {
+                configureEvicted(layout, downloadUrl);
+            }
+        });
+        clipView.setVideoURI(videoUri);
+    }
+
+    /**
+     * This helper method resets a clip whose player was released by the DecoderPool to
+     * make room for another row. The play button is shown, and tapping the video
+     * configures it again and plays it once it is ready.
+     * @param layout of the clip
+     * @param downloadUrl of the video clip in storage
+     */
+    private static void configureEvicted(LinearLayout layout, String downloadUrl) {
+        VideoView clipView = (VideoView) layout.findViewById(R.id.clip);
+        EvictedTouchListener touchListener = new EvictedTouchListener(layout, downloadUrl);
+
+        layout.findViewById(R.id.loadingBar).setVisibility(View.GONE);
+        layout.findViewById(R.id.play_button).setVisibility(View.VISIBLE);
+        clipView.setOnTouchListener(touchListener);
+        clipView.setTag(R.id.play_button, touchListener);
+    }
+
+    /**
+     * This method releases a clip's video when its row is recycled. The video view's tags
+     * are cleared before its slot is given back to the DecoderPool, so a download that
+     * finishes for the recycled row is cached but does not prepare the video again.
+     * @param layout of the clip
+     */
+    public static void release(LinearLayout layout) {
+        VideoView clipView = (VideoView) layout.findViewById(R.id.clip);
+
+        clipView.setTag(null);
+        clipView.setTag(R.id.play_button, null);
+        clipView.setOnTouchListener(null);
+        DecoderPool.getInstance().release(clipView);
+    }
+
+    /**
+     * This method plays a clip muted without it being tapped, as the row the
+     * AutoplayController chose. A prepared clip starts from where it is paused, a clip
+     * shown by its poster or released by the DecoderPool is configured again, and a clip
+     * that is still loading starts once it is prepared. The clip that was playing is paused.
+     * @param layout of the clip
+     */
+    public static void autoplay(LinearLayout layout) {
+        VideoView clipView = (VideoView) layout.findViewById(R.id.clip);
+        ImageView posterView = (ImageView) layout.findViewById(R.id.poster);
+        Object touchListener = clipView.getTag(R.id.play_button);
+
+        autoplayView = new WeakReference<>(clipView);
+
+        if (touchListener instanceof ClipTouchListener)
+            ((ClipTouchListener) touchListener).autoplay(clipView);
+        else if (touchListener instanceof EvictedTouchListener)
+            ((EvictedTouchListener) touchListener).reload();
+        else if (clipView.getTag() == null && posterView.hasOnClickListeners())
+            posterView.performClick();
+    }
+
+    /**
+     * This method pauses a clip that the AutoplayController no longer chooses, so it is
+     * not started when it finishes loading either.
+     * @param layout of the clip
+     */
+    public static void stopAutoplay(LinearLayout layout) {
+        VideoView clipView = (VideoView) layout.findViewById(R.id.clip);
+        Object touchListener = clipView.getTag(R.id.play_button);
+
+        if (autoplayView.get() == clipView)
+            autoplayView.clear();
+
+        if (touchListener instanceof ClipTouchListener)
+            ((ClipTouchListener) touchListener).pause(clipView);
+    }
+
+    /**
+     * This helper method pauses the clip that was playing, if it is not the given one, and
+     * remembers the given one as playing.
+     * @param clipView video clip view that is starting
+     */
+    private static void pauseOthers(VideoView clipView) {
+        VideoView previous = playingView.get();
+
+        if (previous != null && previous != clipView && previous.isPlaying()) {
+            Object touchListener = previous.getTag(R.id.play_button);
+
+            if (touchListener instanceof ClipTouchListener)
+                ((ClipTouchListener) touchListener).pause(previous);
+            else
+                previous.pause();
+        }
+
+        playingView = new WeakReference<>(clipView);
+    }
+
+    /**
+     * This method chooses whether uncached videos are streamed while they download or
+     * downloaded completely before they are played.
+     * @param streamingEnabled true to stream uncached videos
+     */
+    public static void setStreamingEnabled(boolean streamingEnabled) {
+        ClipPlayer.streamingEnabled = streamingEnabled;
+    }
+
+    public static boolean isStreamingEnabled() {
+        return streamingEnabled;
+    }
+
     /**
      * This subclass defines a touch listener to play clips. It is necessary as
      * opposed to a click listener, because VideoView does not support click listeners.
@@ -95,7 +387,9 @@ public class ClipPlayer {
         private static long lastTouchDown = 0;
         private ProgressBar progressBar;
         private ImageView playButton;
+        private MediaPlayer mediaPlayer;
         private boolean pastStart;
+        private boolean muted;
 
         /**
          * This constructor creates the touch listener with the progress bar and play button.
@@ -116,7 +410,8 @@ public class ClipPlayer {
          * This method is called as a user is touching the video. It ensures that it has
          * been at least a threshold number of milliseconds to simulate an onClick method.
          * If this is the first time the button is clicked, it will skip to the beginning
-         * of the video.
+         * of the video. A tap on a clip that is autoplaying muted turns its sound on
+         * rather than pausing it.
          * @param clipView video clip view being touched
          * @param event type of motion done by user
          * @return true if successful
@@ -127,6 +422,12 @@ public class ClipPlayer {
                 lastTouchDown = System.currentTimeMillis();
             } else if (event.getAction() == MotionEvent.ACTION_UP) {
                 if (System.currentTimeMillis() - lastTouchDown < CLICK_ACTION_THRESHHOLD) {
+                    boolean unmuteOnly = muted && ((VideoView) clipView).isPlaying();
+                    setMuted(false);
+
+                    if (unmuteOnly)
+                        return true;
+
                     if (!pastStart) {
                         ((VideoView) clipView).seekTo(0);
                         pastStart = true;
@@ -138,10 +439,76 @@ public class ClipPlayer {
             return true;
         }
 
+        /**
+         * This method plays the video from its beginning, as if the user had tapped it.
+         * @param clipView video clip view to play
+         */
+        public void playFromStart(VideoView clipView) {
+            clipView.seekTo(0);
+            pastStart = true;
+            playPauseVideo(clipView);
+        }
+
+        /**
+         * This method plays the video muted, from its beginning if it has not been played
+         * yet and otherwise from where it was paused.
+         * @param clipView video clip view to play
+         */
+        public void autoplay(VideoView clipView) {
+            if (clipView.isPlaying())
+                return;
+
+            setMuted(true);
+
+            if (!pastStart) {
+                clipView.seekTo(0);
+                pastStart = true;
+            }
+
+            playPauseVideo(clipView);
+        }
+
+        /**
+         * This method pauses the video if it is playing.
+         * @param clipView video clip view to pause
+         */
+        public void pause(VideoView clipView) {
+            if (clipView.isPlaying())
+                playPauseVideo(clipView);
+        }
+
+        /**
+         * This method gives the listener the video's media player, so it can mute it.
+         * @param mediaPlayer of the prepared video
+         */
+        public void setMediaPlayer(MediaPlayer mediaPlayer) {
+            this.mediaPlayer = mediaPlayer;
+        }
+
+        /**
+         * This helper method turns the video's sound off or on. A media player that was
+         * already released by its view is left alone.
+         * @param muted true to turn the sound off
+         */
+        private void setMuted(boolean muted) {
+            this.muted = muted;
+
+            if (mediaPlayer == null)
+                return;
+
+            float volume = muted ? 0 : 1;
+
+            try {
+                mediaPlayer.setVolume(volume, volume);
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Player already released", e);
+            }
+        }
+
         /**
          * This helper method toggles the play/pause state of the video and updates
-         * the appropriate UI elements. When the video starts playing, it starts the
-         * progress bar syncing.
+         * the appropriate UI elements. When the video starts playing, it pauses the clip
+         * that was playing and starts the progress bar syncing.
          * @param videoView view to play video on
          */
         private void playPauseVideo(VideoView videoView) {
@@ -149,6 +516,7 @@ public class ClipPlayer {
                 videoView.pause();
                 playButton.setVisibility(View.VISIBLE);
             } else {
+                pauseOthers(videoView);
                 videoView.requestFocus();
                 videoView.start();
                 configureProgress(progressBar, videoView);
@@ -158,52 +526,51 @@ public class ClipPlayer {
     }
 
     /**
-     * This helper method sets up the progress bar for the clip by setting the max position
-     * and starting to update the progress.
-     * @param progressBar ProgressBar to update
-     * @param clipView VideoView to sync progressView with
+     * This subclass defines the touch listener of a clip whose player was released by the
+     * DecoderPool. Tapping the clip, or autoplaying it, configures its video again and
+     * plays it once it is ready.
      */
-    private static void configureProgress(ProgressBar progressBar, VideoView clipView) {
-        progressBar.setMax(clipView.getDuration());
-        progressBar.postDelayed(new updateProgress(progressBar, clipView),
-                updateProgress.UPDATE_RATE);
-    }
+    private static class EvictedTouchListener implements View.OnTouchListener {
 
-    /**
-     * This runnable class continuously updates the progress bar. It stops when the
-     * video pauses.
-     */
-    private static class updateProgress implements Runnable {
+        private final LinearLayout layout;
+        private final String downloadUrl;
 
-        private ProgressBar progressBar;
-        private VideoView clipView;
+        public EvictedTouchListener(LinearLayout layout, String downloadUrl) {
+            this.layout = layout;
+            this.downloadUrl = downloadUrl;
+        }
 
-        private static int UPDATE_RATE = 10;
+        @Override
+        public boolean onTouch(View view, MotionEvent event) {
+            if (event.getAction() == MotionEvent.ACTION_UP)
+                reload();
 
-        /**
-         * This constructor initializes the runnable instance variables.
-         * @param progressBar progress bar to update
-         * @param clipView VideoView to sync progress bar with
-         */
-        public updateProgress(ProgressBar progressBar, VideoView clipView) {
-            this.progressBar = progressBar;
-            this.clipView = clipView;
+            return true;
         }
 
         /**
-         * This method defines what to do at each iteration of the run. It syncs the
-         * progress bar to video position. Then, if the video is playing, it calls itself
-         * in a set number of milliseconds.
+         * This method configures the clip's video again, showing the loading bar until it
+         * is ready.
          */
-        @Override
-        public void run() {
-            int position = clipView.getCurrentPosition();
-            progressBar.setProgress(position);
-
-            if (clipView.isPlaying())
-                progressBar.postDelayed(this, UPDATE_RATE);
+        public void reload() {
+            VideoView clipView = (VideoView) layout.findViewById(R.id.clip);
 
+            clipView.setOnTouchListener(null);
+            clipView.setTag(R.id.play_button, null);
+            layout.findViewById(R.id.play_button).setVisibility(View.INVISIBLE);
+            layout.findViewById(R.id.loadingBar).setVisibility(View.VISIBLE);
+            configureVideo(layout, downloadUrl, true, SystemClock.elapsedRealtime());
         }
     }
 
+    /**
+     * This helper method sets up the progress bar for the clip by setting the max position
+     * and having the shared ProgressTicker update it until the video pauses.
+     * @param progressBar ProgressBar to update
+     * @param clipView VideoView to sync progressView with
+     */
+    private static void configureProgress(ProgressBar progressBar, VideoView clipView) {
+        progressBar.setMax(clipView.getDuration());
+        ProgressTicker.getInstance().track(progressBar, clipView);
+    }
 }
@@ -0,0 +1,228 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class creates and shows the poster image of a clip. When a clip is submitted, a
+ * small JPEG of the frame at SEEK_FRAME is extracted and uploaded next to the video, so the
+ * feed can show a row from a few kilobytes instead of downloading and decoding its video.
+ * Posters are cached on disk in the ClipCache and decoded bitmaps are kept in a bounded
+ * memory cache. Extraction runs on the thread of the upload that asks for it, and decoding
+ * on a thread of its own, so a slow extraction never holds up the posters of rows on
+ * screen.
+ * @author colomb2
+ */
+
+public class ClipPoster {
+
+    private static final String TAG = "ClipPoster";
+    protected static final String POSTER_SUFFIX = ".jpg";
+    private static final int POSTER_WIDTH = 480;
+    private static final int POSTER_QUALITY = 80;
+    private static final int MEMORY_CACHE_BYTES = 8 * 1024 * 1024;
+    private static final long MICROS_PER_MILLI = 1000;
+
+    private static final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final LruCache<String, Bitmap> bitmaps =
+            new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(String posterUrl, Bitmap bitmap) {
+                    return bitmap.getByteCount();
+                }
+            };
+
+    /**
+     * This method extracts a poster from a video and uploads it through the ClipBackend
+     * under the given name. The poster is extracted on the calling thread, so that posters
+     * are made no more often than their callers run, and this must not be called on the
+     * main thread. The callback is given the poster's download url, or null if no poster
+     * could be made, so that the clip can be added either way.
+     * @param context to use for android interaction
+     * @param videoUri uri of the video to take the poster from
+     * @param name storage path of the poster
+     * @param callback given the poster's download url, or null
+     * @return transfer that stops the poster's upload, or null if there is no poster
+     */
+    public static ClipBackend.Transfer upload(Context context, Uri videoUri, String name,
+                                              final ClipBackend.Callback<String> callback) {
+        Context appContext = context.getApplicationContext();
+        final File posterFile = extract(appContext, videoUri);
+
+        if (posterFile == null) {
+            callback.onSuccess(null);
+            return null;
+        }
+
+        return ClipBackends.get(appContext).uploadVideo(Uri.fromFile(posterFile), name,
+                new ClipBackend.Callback<String>() {
+                    @Override
+                    public void onSuccess(String posterUrl) {
+                        posterFile.delete();
+                        callback.onSuccess(posterUrl);
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        Log.w(TAG, "Failed to upload poster", exception);
+                        posterFile.delete();
+                        callback.onSuccess(null);
+                    }
+                });
+    }
+
+    /**
+     * This helper method decodes the frame at SEEK_FRAME, scales it down to the poster
+     * width and writes it as a JPEG to a temporary file.
+     * @param context to use for android interaction
+     * @param videoUri uri of the video
+     * @return the poster file, or null if no frame could be extracted
+     */
+    private static File extract(Context context, Uri videoUri) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        File posterFile = null;
+
+        try {
+            retriever.setDataSource(context, videoUri);
+            Bitmap frame = retriever.getFrameAtTime(ClipPlayer.SEEK_FRAME * MICROS_PER_MILLI,
+                    MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+
+            if (frame == null)
+                frame = retriever.getFrameAtTime();
+
+            if (frame == null)
+                return null;
+
+            Bitmap poster = frame;
+
+            if (frame.getWidth() > POSTER_WIDTH) {
+                int height = frame.getHeight() * POSTER_WIDTH / frame.getWidth();
+                poster = Bitmap.createScaledBitmap(frame, POSTER_WIDTH, height, true);
+                frame.recycle();
+            }
+
+            posterFile = File.createTempFile(ClipPlayer.TEMP_VIDEO_NAME, POSTER_SUFFIX,
+                    context.getCacheDir());
+            OutputStream output = new FileOutputStream(posterFile);
+
+            try {
+                poster.compress(Bitmap.CompressFormat.JPEG, POSTER_QUALITY, output);
+            } finally {
+                output.close();
+                poster.recycle();
+            }
+
+            return posterFile;
+        } catch (RuntimeException | IOException e) {
+            Log.w(TAG, "Failed to extract poster", e);
+
+            if (posterFile != null)
+                posterFile.delete();
+
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    /**
+     * This method shows a clip's poster in an image view. A poster in memory is shown at
+     * once; otherwise it is read from the disk cache or downloaded and decoded off the main
+     * thread. The view is tagged with the poster url, so a result that arrives after the
+     * view has been rebound to another clip is dropped.
+     * @param posterView to show the poster in
+     * @param posterUrl download url of the poster
+     */
+    public static void load(final ImageView posterView, final String posterUrl) {
+        posterView.setTag(R.id.poster, posterUrl);
+        Bitmap bitmap = bitmaps.get(posterUrl);
+
+        if (bitmap != null) {
+            posterView.setImageBitmap(bitmap);
+            return;
+        }
+
+        posterView.setImageDrawable(null);
+        final ClipCache clipCache = ClipCache.getInstance(posterView.getContext());
+        File cachedFile = clipCache.get(posterUrl);
+
+        if (cachedFile != null) {
+            decode(posterView, posterUrl, cachedFile);
+            return;
+        }
+
+        final File tempFile;
+
+        try {
+            tempFile = clipCache.createTempFile();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to create poster file", e);
+            return;
+        }
+
+        ClipBackend backend = ClipBackends.get(posterView.getContext());
+        backend.downloadVideo(posterUrl, tempFile, new ClipBackend.Callback<File>() {
+            @Override
+            public void onSuccess(File downloadedFile) {
+                File posterFile = clipCache.commit(posterUrl, downloadedFile);
+
+                if (posterFile != null)
+                    decode(posterView, posterUrl, posterFile);
+                else
+                    Log.w(TAG, "Failed to cache poster " + posterUrl);
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                clipCache.abort(tempFile);
+                Log.w(TAG, "Failed to download poster " + posterUrl, exception);
+            }
+        });
+    }
+
+    /**
+     * This helper method decodes a poster file on the decode thread and shows it if the
+     * view still belongs to the poster's clip.
+     * @param posterView to show the poster in
+     * @param posterUrl download url of the poster
+     * @param posterFile cached poster file
+     */
+    private static void decode(final ImageView posterView, final String posterUrl,
+                               final File posterFile) {
+        decodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = BitmapFactory.decodeFile(posterFile.getPath());
+
+                if (bitmap == null)
+                    return;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        bitmaps.put(posterUrl, bitmap);
+
+                        if (posterUrl.equals(posterView.getTag(R.id.poster)))
+                            posterView.setImageBitmap(bitmap);
+                    }
+                });
+            }
+        });
+    }
+}
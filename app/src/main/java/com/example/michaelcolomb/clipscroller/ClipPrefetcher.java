@@ -0,0 +1,234 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class defines a scroll listener that prefetches clip videos ahead of the visible
+ * rows. It looks at the scroll direction and velocity to decide how many clips ahead to
+ * fetch, limits the number of concurrent downloads, and cancels prefetches for clips that
+ * have scrolled out of range. Prefetches either fetch the leading bytes of a video, enough
+ * for the streaming player to start, or the whole video. Clips shown by their poster are
+ * not prefetched, since their video is only fetched once it is played.
+ * @author colomb2
+ */
+
+public class ClipPrefetcher extends RecyclerView.OnScrollListener
+        implements ClipStreamProxy.PrefetchListener {
+
+    public enum Mode { HEAD, FULL }
+
+    private static final String TAG = "ClipPrefetcher";
+    private static final int DEFAULT_MIN_DISTANCE = 2;
+    private static final int DEFAULT_MAX_DISTANCE = 8;
+    private static final int DEFAULT_MAX_CONCURRENT = 2;
+    private static final long DEFAULT_HEAD_BYTES = 512 * 1024;
+    private static final float ROWS_PER_VELOCITY = 1.0f;
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private final Context context;
+    private final LinearLayoutManager layoutManager;
+    private final Handler handler;
+    private final Set<String> activeUrls;
+    private final Set<String> prefetchedUrls;
+    private final LinkedHashSet<String> pendingUrls;
+
+    private Mode mode = Mode.HEAD;
+    private long headBytes = DEFAULT_HEAD_BYTES;
+    private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private int minDistance = DEFAULT_MIN_DISTANCE;
+    private int maxDistance = DEFAULT_MAX_DISTANCE;
+
+    private float velocity;
+    private long lastScrollTime;
+    private int direction = 1;
+
+    /**
+     * This constructor creates a prefetcher for a recycler view laid out by the given
+     * layout manager.
+     * @param context to use for android interaction
+     * @param layoutManager layout manager of the clip recycler view
+     */
+    public ClipPrefetcher(Context context, LinearLayoutManager layoutManager) {
+        this.context = context.getApplicationContext();
+        this.layoutManager = layoutManager;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.activeUrls = new HashSet<>();
+        this.prefetchedUrls = new HashSet<>();
+        this.pendingUrls = new LinkedHashSet<>();
+    }
+
+    /**
+     * This method is called as the recycler view scrolls. It updates the smoothed scroll
+     * velocity and direction and then updates the set of prefetched clips.
+     * @param recyclerView that scrolled
+     * @param dx horizontal scroll distance
+     * @param dy vertical scroll distance
+     */
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = Math.max(1, now - lastScrollTime);
+        float instantVelocity = lastScrollTime == 0 ? 0 : Math.abs(dy) / (float) elapsed;
+
+        velocity = VELOCITY_SMOOTHING * velocity + (1 - VELOCITY_SMOOTHING) * instantVelocity;
+        lastScrollTime = now;
+
+        if (dy != 0)
+            direction = dy > 0 ? 1 : -1;
+
+        prefetch(recyclerView);
+    }
+
+    /**
+     * This method resets the velocity once scrolling stops, so the next prefetch only looks
+     * the minimum distance ahead.
+     * @param recyclerView that changed state
+     * @param newState new scroll state
+     */
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            velocity = 0;
+            lastScrollTime = 0;
+            prefetch(recyclerView);
+        }
+    }
+
+    /**
+     * This method decides which clips should be prefetched given the visible rows and the
+     * scroll state. Queued and running prefetches that are no longer wanted are cancelled,
+     * and new ones are started up to the concurrency limit.
+     * @param recyclerView clip recycler view
+     */
+    public void prefetch(RecyclerView recyclerView) {
+        if (!(recyclerView.getAdapter() instanceof ClipAdapter))
+            return;
+
+        ClipAdapter adapter = (ClipAdapter) recyclerView.getAdapter();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+
+        if (first == RecyclerView.NO_POSITION)
+            return;
+
+        int distance = Math.min(maxDistance, minDistance + (int) (velocity * ROWS_PER_VELOCITY));
+        List<String> wantedUrls = new ArrayList<>();
+        Set<String> inRangeUrls = new HashSet<>();
+
+        for (int i = 1; i <= distance; i++) {
+            addUrl(adapter.getPrefetchUrl(direction > 0 ? last + i : first - i), wantedUrls);
+        }
+
+        for (int position = first; position <= last; position++) {
+            addUrl(adapter.getPrefetchUrl(position), inRangeUrls);
+        }
+
+        inRangeUrls.addAll(wantedUrls);
+        pendingUrls.retainAll(wantedUrls);
+
+        cancelOutOfRange(activeUrls, inRangeUrls);
+        cancelOutOfRange(prefetchedUrls, inRangeUrls);
+
+        for (String downloadUrl : wantedUrls) {
+            if (!activeUrls.contains(downloadUrl) && !prefetchedUrls.contains(downloadUrl))
+                pendingUrls.add(downloadUrl);
+        }
+
+        startPending();
+    }
+
+    private static void addUrl(String downloadUrl, Collection<String> urls) {
+        if (downloadUrl != null)
+            urls.add(downloadUrl);
+    }
+
+    /**
+     * This helper method starts queued prefetches, nearest first, until the concurrency
+     * limit is reached.
+     */
+    private void startPending() {
+        while (activeUrls.size() < maxConcurrent && !pendingUrls.isEmpty()) {
+            String downloadUrl = pendingUrls.iterator().next();
+            pendingUrls.remove(downloadUrl);
+            boolean headOnly = mode == Mode.HEAD && ClipPlayer.isStreamingEnabled();
+            long limitBytes = headOnly ? headBytes : Long.MAX_VALUE;
+
+            try {
+                if (ClipStreamProxy.getInstance(context).prefetch(downloadUrl, limitBytes, this))
+                    activeUrls.add(downloadUrl);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to prefetch " + downloadUrl, e);
+            }
+        }
+    }
+
+    /**
+     * This helper method cancels the prefetches in a set that have scrolled out of range.
+     * Suspended head prefetches are cancelled too, so their bytes are discarded.
+     * @param downloadUrls prefetches to check
+     * @param inRangeUrls clips that are visible or about to be
+     */
+    private void cancelOutOfRange(Set<String> downloadUrls, Set<String> inRangeUrls) {
+        for (String downloadUrl : new ArrayList<>(downloadUrls)) {
+            if (inRangeUrls.contains(downloadUrl))
+                continue;
+
+            downloadUrls.remove(downloadUrl);
+
+            try {
+                ClipStreamProxy.getInstance(context).cancelPrefetch(downloadUrl);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to cancel prefetch of " + downloadUrl, e);
+            }
+        }
+    }
+
+    /**
+     * This method is called from the download thread when a prefetch stops making
+     * progress. The next queued prefetch is started on the main thread.
+     * @param downloadUrl of the prefetched clip
+     */
+    @Override
+    public void onPrefetchFinished(final String downloadUrl) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (activeUrls.remove(downloadUrl))
+                    prefetchedUrls.add(downloadUrl);
+
+                startPending();
+            }
+        });
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public void setHeadBytes(long headBytes) {
+        this.headBytes = headBytes;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public void setPrefetchDistance(int minDistance, int maxDistance) {
+        this.minDistance = minDistance;
+        this.maxDistance = maxDistance;
+    }
+}
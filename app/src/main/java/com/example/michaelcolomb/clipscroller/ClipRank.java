@@ -1,7 +1,5 @@
 package com.example.michaelcolomb.clipscroller;
 
-import com.google.firebase.database.DataSnapshot;
-
 /**
  * This class is used to rank clips. The entire clips with the videos do
  * not need to be loaded immediately.
@@ -28,33 +26,46 @@ public class ClipRank implements Comparable<ClipRank> {
     /**
      * This create method determines the rankValue that a clip should have
      * based on how long ago it was created and the vote count depending
-     * on the value of rankByTrending. It creates ClipRank object based on
-     * this information and returns it.
+     * on the value of rankByTrending. The stored vote count is used, so that the
+     * clip's likes do not need to be read.
      * @param hash to initialize this.hash to
      * @param time epoch time that the clip was created
-     * @param likesSnapshot DataSnapShot that refers to the '/likes' reference level
-     * @return
+     * @param voteCount net vote count of the clip
+     * @return a ClipRank for the clip
      */
-    public static ClipRank create(String hash, long time, DataSnapshot likesSnapshot) {
-        int voteCount = VoteUtilities.getVoteCount(likesSnapshot);
-        double rankValue;
-        long timeSincePublished = System.currentTimeMillis() - time;
+    public static ClipRank create(String hash, long time, int voteCount) {
+        return create(hash, time, voteCount, System.currentTimeMillis());
+    }
 
-        if (rankByTrending)
-            rankValue = voteCount - (timeSincePublished / 60000);
-        else
-            rankValue = -1 * timeSincePublished;
+    /**
+     * This create method determines the rankValue of a clip against a given time. Clips
+     * ranked together should share the same time so that their values are comparable.
+     * @param hash to initialize this.hash to
+     * @param time epoch time that the clip was created
+     * @param voteCount net vote count of the clip
+     * @param now epoch time that the ranking is computed at
+     * @return a ClipRank for the clip
+     */
+    public static ClipRank create(String hash, long time, int voteCount, long now) {
+        return new ClipRank(hash, getScoringStrategy().score(time, voteCount, now));
+    }
 
-        return new ClipRank(hash, rankValue);
+    /**
+     * This method returns the ScoringStrategy for the current ranking mode.
+     * @return TRENDING if ranking by trending, RECENCY otherwise
+     */
+    public static ScoringStrategy getScoringStrategy() {
+        return rankByTrending ? ScoringStrategy.TRENDING : ScoringStrategy.RECENCY;
     }
 
     /**
-     * This method compares this ClipRank to another ClipRank object.
+     * This method compares this ClipRank to another ClipRank object, so that sorting
+     * puts the higher rank first.
      * @param other the other ClipRank object
-     * @return positive if this has higher rank than other, 0 if same, negative otherwise
+     * @return negative if this has higher rank than other, 0 if same, positive otherwise
      */
     public int compareTo(ClipRank other) {
-        return (int) (other.getRank() - this.rankValue);
+        return Double.compare(other.getRank(), this.rankValue);
     }
 
     public String getHash() {
@@ -65,6 +76,10 @@ public class ClipRank implements Comparable<ClipRank> {
         return rankValue;
     }
 
+    public static boolean isRankByTrending() {
+        return rankByTrending;
+    }
+
     public static void setRankByTrending(boolean rankByTrending) {
         ClipRank.rankByTrending = rankByTrending;
     }
@@ -0,0 +1,33 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.app.Application;
+
+/**
+ * This class is the application. It starts timing startup with the StartupTracer and
+ * creates the ClipBackend and ClipCache on a background thread, so that Firebase is set up
+ * and the cache is indexed while the main activity inflates its first frame rather than
+ * before it.
+ * @author colomb2
+ */
+
+public class ClipScrollerApplication extends Application {
+
+    private static final String TAG = "StartupWarmup";
+
+    /**
+     * This method is called when the application's process starts, before any activity.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        StartupTracer.mark(StartupTracer.APPLICATION_CREATED);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ClipBackends.get(ClipScrollerApplication.this);
+                ClipCache.getInstance(ClipScrollerApplication.this);
+            }
+        }, TAG).start();
+    }
+}
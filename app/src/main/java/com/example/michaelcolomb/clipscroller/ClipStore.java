@@ -0,0 +1,71 @@
+package com.example.michaelcolomb.clipscroller;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class stores the decoded clips of a feed in memory, keyed by their hash. The feed
+ * fills it from the clips its backend already delivers, so binding a row is a memory
+ * lookup instead of another database round-trip.
+ * @author colomb2
+ */
+
+public class ClipStore {
+
+    private final Map<String, Clip> clips;
+
+    public ClipStore() {
+        this.clips = new HashMap<>();
+    }
+
+    /**
+     * This method stores a clip under its hash, replacing any clip stored before.
+     * @param hash key of the clip
+     * @param clip decoded clip
+     */
+    public void put(String hash, Clip clip) {
+        clips.put(hash, clip);
+    }
+
+    /**
+     * This method returns the stored clip with the given hash.
+     * @param hash key of the clip
+     * @return the clip, or null if it is not stored
+     */
+    public Clip get(String hash) {
+        return clips.get(hash);
+    }
+
+    public boolean contains(String hash) {
+        return clips.containsKey(hash);
+    }
+
+    /**
+     * This method updates the vote count of a stored clip.
+     * @param hash key of the clip
+     * @param voteCount new net vote count
+     */
+    public void setVoteCount(String hash, int voteCount) {
+        Clip clip = clips.get(hash);
+
+        if (clip != null)
+            clip.setVoteCount(voteCount);
+    }
+
+    public Set<String> getHashes() {
+        return clips.keySet();
+    }
+
+    public void remove(String hash) {
+        clips.remove(hash);
+    }
+
+    public int size() {
+        return clips.size();
+    }
+
+    public void clear() {
+        clips.clear();
+    }
+}
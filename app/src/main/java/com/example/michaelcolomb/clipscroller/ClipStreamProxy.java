@@ -0,0 +1,689 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class defines a local streaming proxy for clip videos. The video player is pointed at
+ * a loopback url, and the proxy downloads the video into a temporary clip cache file while
+ * serving the player's byte-range requests from the bytes that have already arrived. This
+ * lets playback start once the leading bytes are available instead of after the whole file.
+ * Requests far beyond the downloaded bytes, such as an index at the end of the file, are
+ * served by a separate byte-range fetch. When the download completes, the file is committed
+ * to the clip cache and the video's next request is served from the cache or a new download.
+ * Downloads and player requests each run on a fixed number of threads.
+ * @author colomb2
+ */
+
+public class ClipStreamProxy {
+
+    private static final String TAG = "ClipStreamProxy";
+    private static final String LOOPBACK_ADDRESS = "127.0.0.1";
+    private static final String URL_PREFIX = "http://" + LOOPBACK_ADDRESS + ":";
+    private static final String RANGE_HEADER = "range:";
+    private static final String RANGE_PREFIX = "bytes=";
+    private static final String CONTENT_TYPE = "video/mp4";
+    private static final String LINE_END = "\r\n";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BACKLOG = 8;
+    private static final int TIMEOUT = 15000;
+    private static final long RANGE_THRESHOLD = 1024 * 1024;
+    private static final int MAX_DOWNLOADS = 6;
+    private static final int MAX_REQUESTS = 8;
+    private static final int MAX_FINISHED_SOURCES = 16;
+
+    private static ClipStreamProxy instance;
+
+    private final ClipCache clipCache;
+    private final ServerSocket serverSocket;
+    private final ExecutorService downloadExecutor;
+    private final ExecutorService requestExecutor;
+    private final Map<String, StreamSource> sources;
+    private final Map<String, StreamSource> finishedSources;
+    private final Map<String, String> sourceIds;
+    private int nextId;
+
+    /**
+     * This constructor opens the loopback server socket and starts accepting requests.
+     * @param clipCache cache to download videos into
+     * @throws IOException if the server socket could not be opened
+     */
+    private ClipStreamProxy(ClipCache clipCache) throws IOException {
+        this.clipCache = clipCache;
+        this.serverSocket = new ServerSocket(0, BACKLOG, InetAddress.getByName(LOOPBACK_ADDRESS));
+        this.downloadExecutor = Executors.newFixedThreadPool(MAX_DOWNLOADS);
+        this.requestExecutor = Executors.newFixedThreadPool(MAX_REQUESTS);
+        this.sources = new HashMap<>();
+        this.sourceIds = new HashMap<>();
+        this.finishedSources = new LinkedHashMap<String, StreamSource>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StreamSource> eldest) {
+                return size() > MAX_FINISHED_SOURCES;
+            }
+        };
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptRequests();
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * This method returns the application's streaming proxy, starting it on first use.
+     * @param context to use for android interaction
+     * @return the shared ClipStreamProxy
+     * @throws IOException if the proxy could not be started
+     */
+    public static synchronized ClipStreamProxy getInstance(Context context) throws IOException {
+        if (instance == null)
+            instance = new ClipStreamProxy(ClipCache.getInstance(context));
+
+        return instance;
+    }
+
+    /**
+     * This method returns a loopback url that streams the given video. The first call for a
+     * video starts downloading it; later calls share the same download.
+     * @param downloadUrl http(s) url of the video clip in storage
+     * @return loopback url to give to the video player
+     * @throws IOException if a temporary cache file could not be created
+     */
+    public synchronized String getProxyUrl(String downloadUrl) throws IOException {
+        String id = sourceIds.get(downloadUrl);
+
+        if (id == null)
+            id = startSource(downloadUrl, Long.MAX_VALUE, null);
+        else
+            sources.get(id).attach();
+
+        return URL_PREFIX + serverSocket.getLocalPort() + "/" + id;
+    }
+
+    /**
+     * This method starts downloading a video ahead of playback. Once the given number of
+     * leading bytes have arrived, the download stops and gives up its thread until a
+     * player asks for the video. Nothing happens if the video is already cached or being
+     * downloaded.
+     * @param downloadUrl http(s) url of the video clip in storage
+     * @param limitBytes number of leading bytes to fetch, or Long.MAX_VALUE for the whole video
+     * @param listener to notify when the prefetch has finished, failed or been cancelled
+     * @return true if a prefetch was started
+     * @throws IOException if a temporary cache file could not be created
+     */
+    public synchronized boolean prefetch(String downloadUrl, long limitBytes,
+                                         PrefetchListener listener) throws IOException {
+        if (sourceIds.containsKey(downloadUrl) || clipCache.contains(downloadUrl))
+            return false;
+
+        startSource(downloadUrl, limitBytes, listener);
+        return true;
+    }
+
+    /**
+     * This method cancels a prefetch that no player has asked for yet, discarding the
+     * bytes downloaded so far.
+     * @param downloadUrl of the prefetched video
+     */
+    public synchronized void cancelPrefetch(String downloadUrl) {
+        String id = sourceIds.get(downloadUrl);
+
+        if (id != null && sources.get(id).cancel())
+            removeSource(sources.get(id));
+    }
+
+    /**
+     * This helper method creates a download for a video and starts it in the background.
+     * @param downloadUrl of the video clip in storage
+     * @param limitBytes number of leading bytes to fetch until a player attaches
+     * @param listener to notify when a prefetch has finished, or null
+     * @return id of the new download used in its loopback url
+     * @throws IOException if a temporary cache file could not be created
+     */
+    private String startSource(String downloadUrl, long limitBytes, PrefetchListener listener)
+            throws IOException {
+        String id = String.valueOf(nextId++);
+        StreamSource source = new StreamSource(id, downloadUrl, clipCache.createTempFile(),
+                limitBytes, listener);
+        sources.put(id, source);
+        sourceIds.put(downloadUrl, id);
+        downloadExecutor.execute(source);
+
+        return id;
+    }
+
+    /**
+     * This helper method forgets a download that failed or was cancelled, so that the next
+     * request for its video starts a new download. Nothing is removed if a newer download
+     * of the same video has already replaced it.
+     * @param source download to forget
+     */
+    private synchronized void removeSource(StreamSource source) {
+        if (sources.get(source.id) == source)
+            sources.remove(source.id);
+
+        if (source.id.equals(sourceIds.get(source.downloadUrl)))
+            sourceIds.remove(source.downloadUrl);
+    }
+
+    /**
+     * This helper method forgets the download of a video once it is committed to the
+     * cache, so the video's next request is served from the cache, or by a new download
+     * if it has since been evicted. Players already streaming it can still reach it among
+     * the recently finished downloads.
+     * @param source download that finished
+     */
+    private synchronized void finishSource(StreamSource source) {
+        if (sources.get(source.id) != source)
+            return;
+
+        sources.remove(source.id);
+        sourceIds.remove(source.downloadUrl);
+        finishedSources.put(source.id, source);
+    }
+
+    private synchronized StreamSource getSource(String id) {
+        StreamSource source = sources.get(id);
+        return source == null ? finishedSources.get(id) : source;
+    }
+
+    /**
+     * This helper method accepts player connections until the server socket closes, and
+     * hands each one to a worker thread.
+     */
+    private void acceptRequests() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+
+                requestExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serveRequest(socket);
+                    }
+                });
+            } catch (IOException e) {
+                Log.w(TAG, "Stopped accepting stream requests", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * This helper method answers a single player request. It parses the requested byte
+     * range, waits for the video length to be known and then streams the range back.
+     * @param socket connection from the video player
+     */
+    private void serveRequest(Socket socket) {
+        try {
+            socket.setSoTimeout(TIMEOUT);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream()));
+            String requestLine = reader.readLine();
+            long rangeStart = 0;
+
+            for (String line = reader.readLine(); line != null && !line.isEmpty();
+                 line = reader.readLine()) {
+                if (line.toLowerCase().startsWith(RANGE_HEADER))
+                    rangeStart = parseRangeStart(line);
+            }
+
+            OutputStream outputStream = socket.getOutputStream();
+            StreamSource source = requestLine == null ? null
+                    : getSource(parseSourceId(requestLine));
+
+            if (source == null) {
+                writeStatus(outputStream, "404 Not Found");
+                return;
+            }
+
+            long length = source.awaitLength();
+
+            if (length < 0) {
+                writeStatus(outputStream, "502 Bad Gateway");
+                return;
+            } else if (rangeStart >= length) {
+                writeStatus(outputStream, "416 Range Not Satisfiable");
+                return;
+            }
+
+            writeHeaders(outputStream, rangeStart, length);
+
+            if (source.isLocal(rangeStart))
+                source.copyFromFile(outputStream, rangeStart);
+            else
+                copyFromUpstream(source.downloadUrl, outputStream, rangeStart);
+        } catch (IOException e) {
+            // the player closes connections whenever it seeks
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) { }
+        }
+    }
+
+    /**
+     * This helper method streams a byte range straight from storage without storing it,
+     * used when the player asks for bytes far beyond the downloaded part of the video.
+     * @param downloadUrl of the video clip in storage
+     * @param outputStream to write the bytes to
+     * @param rangeStart first byte to stream
+     * @throws IOException if the bytes could not be fetched or written
+     */
+    private static void copyFromUpstream(String downloadUrl, OutputStream outputStream,
+                                         long rangeStart) throws IOException {
+        HttpURLConnection connection = openConnection(downloadUrl, rangeStart);
+
+        try {
+            InputStream inputStream = connection.getInputStream();
+
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL)
+                skipFully(inputStream, rangeStart);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            for (int read = inputStream.read(buffer); read != -1; read = inputStream.read(buffer))
+                outputStream.write(buffer, 0, read);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * This helper method opens a connection to storage, requesting bytes from the given
+     * offset onwards when it is not zero.
+     * @param downloadUrl of the video clip in storage
+     * @param rangeStart first byte to request
+     * @return the opened connection
+     * @throws IOException if the connection could not be opened
+     */
+    private static HttpURLConnection openConnection(String downloadUrl, long rangeStart)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(downloadUrl).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+
+        if (rangeStart > 0)
+            connection.setRequestProperty("Range", RANGE_PREFIX + rangeStart + "-");
+
+        return connection;
+    }
+
+    private static void skipFully(InputStream inputStream, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = inputStream.skip(bytes);
+
+            if (skipped <= 0)
+                throw new IOException("Unexpected end of stream");
+
+            bytes -= skipped;
+        }
+    }
+
+    private static String parseSourceId(String requestLine) {
+        String[] parts = requestLine.split(" ");
+        return parts.length > 1 ? parts[1].substring(1) : "";
+    }
+
+    private static long parseRangeStart(String rangeLine) {
+        String value = rangeLine.substring(RANGE_HEADER.length()).trim();
+
+        if (!value.startsWith(RANGE_PREFIX))
+            return 0;
+
+        int rangeSeparator = value.indexOf('-');
+
+        if (rangeSeparator < RANGE_PREFIX.length())
+            return 0;
+
+        try {
+            return Long.parseLong(value.substring(RANGE_PREFIX.length(), rangeSeparator).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void writeStatus(OutputStream outputStream, String status) throws IOException {
+        outputStream.write(("HTTP/1.1 " + status + LINE_END
+                + "Content-Length: 0" + LINE_END + LINE_END).getBytes());
+    }
+
+    private static void writeHeaders(OutputStream outputStream, long rangeStart, long length)
+            throws IOException {
+        StringBuilder headers = new StringBuilder();
+
+        if (rangeStart > 0)
+            headers.append("HTTP/1.1 206 Partial Content").append(LINE_END)
+                    .append("Content-Range: bytes ").append(rangeStart).append("-")
+                    .append(length - 1).append("/").append(length).append(LINE_END);
+        else
+            headers.append("HTTP/1.1 200 OK").append(LINE_END);
+
+        headers.append("Content-Type: ").append(CONTENT_TYPE).append(LINE_END)
+                .append("Accept-Ranges: bytes").append(LINE_END)
+                .append("Content-Length: ").append(length - rangeStart).append(LINE_END)
+                .append("Connection: close").append(LINE_END).append(LINE_END);
+
+        outputStream.write(headers.toString().getBytes());
+    }
+
+    /**
+     * This interface is notified when a prefetch stops making progress, either because it
+     * has fetched the requested bytes or because it failed or was cancelled.
+     */
+    public interface PrefetchListener {
+        void onPrefetchFinished(String downloadUrl);
+    }
+
+    /**
+     * This class downloads one video into a temporary cache file, tracking how many bytes
+     * have arrived so that player requests can wait for exactly the bytes they need.
+     * A prefetched download is suspended as soon as it reaches its byte limit: it closes
+     * its connection and gives up its thread, so paused prefetches never hold the threads
+     * that players' downloads need, and continues from the bytes it has with a range
+     * request once a player attaches. Requests wait no longer than TIMEOUT for a download
+     * that makes no progress.
+     */
+    private class StreamSource implements Runnable {
+
+        private final String id;
+        private final String downloadUrl;
+        private volatile File file;
+        private long length = -1;
+        private long available;
+        private long limit;
+        private boolean complete;
+        private boolean failed;
+        private boolean cancelled;
+        private boolean attached;
+        private boolean suspended;
+        private PrefetchListener listener;
+
+        public StreamSource(String id, String downloadUrl, File tempFile, long limit,
+                            PrefetchListener listener) {
+            this.id = id;
+            this.downloadUrl = downloadUrl;
+            this.file = tempFile;
+            this.limit = limit;
+            this.listener = listener;
+            this.attached = listener == null;
+        }
+
+        /**
+         * This method downloads the video sequentially into the temporary file, from the
+         * bytes already downloaded if it was suspended, waking waiting requests as bytes
+         * arrive, and commits it to the cache at the end.
+         */
+        @Override
+        public void run() {
+            File tempFile = file;
+            HttpURLConnection connection = null;
+            FileOutputStream outputStream = null;
+
+            try {
+                long offset = getAvailable();
+                connection = openConnection(downloadUrl, offset);
+                InputStream inputStream = connection.getInputStream();
+
+                if (offset == 0) {
+                    String contentLength = connection.getHeaderField("Content-Length");
+
+                    if (contentLength == null)
+                        throw new IOException("Missing content length");
+
+                    setLength(Long.parseLong(contentLength));
+                } else if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    skipFully(inputStream, offset);
+                }
+
+                outputStream = new FileOutputStream(tempFile, offset > 0);
+                byte[] buffer = new byte[BUFFER_SIZE];
+
+                for (int read = inputStream.read(buffer); read != -1;
+                     read = inputStream.read(buffer)) {
+                    outputStream.write(buffer, 0, read);
+                    addAvailable(read);
+
+                    if (!awaitDemand())
+                        return;
+                }
+
+                outputStream.close();
+                outputStream = null;
+                File cachedFile = clipCache.commit(downloadUrl, tempFile);
+
+                if (cachedFile == null)
+                    throw new IOException("Failed to cache " + downloadUrl);
+
+                file = cachedFile;
+                setComplete();
+                finishSource(this);
+            } catch (IOException | NumberFormatException e) {
+                if (!isCancelled())
+                    Log.w(TAG, "Failed to stream " + downloadUrl, e);
+
+                clipCache.abort(tempFile);
+                removeSource(this);
+                setFailed();
+            } finally {
+                if (outputStream != null) {
+                    try {
+                        outputStream.close();
+                    } catch (IOException e) { }
+                }
+
+                if (connection != null)
+                    connection.disconnect();
+            }
+        }
+
+        private synchronized void setLength(long length) {
+            this.length = length;
+            notifyAll();
+        }
+
+        private synchronized void addAvailable(long bytes) {
+            available += bytes;
+            notifyAll();
+        }
+
+        private synchronized void setComplete() {
+            complete = true;
+            notifyAll();
+            notifyPrefetched();
+        }
+
+        private synchronized void setFailed() {
+            failed = true;
+            notifyAll();
+            notifyPrefetched();
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private synchronized long getAvailable() {
+            return available;
+        }
+
+        /**
+         * This method lifts the prefetch byte limit because a player wants the video, and
+         * resumes the download if it was suspended.
+         */
+        public synchronized void attach() {
+            attached = true;
+            limit = Long.MAX_VALUE;
+            notifyAll();
+            notifyPrefetched();
+
+            if (suspended) {
+                suspended = false;
+                downloadExecutor.execute(this);
+            }
+        }
+
+        /**
+         * This method cancels the download if no player has attached to it. A suspended
+         * download has no thread left to clean up, so its bytes are discarded here.
+         * @return true if the download was cancelled
+         */
+        public synchronized boolean cancel() {
+            if (attached || complete || failed)
+                return false;
+
+            cancelled = true;
+            notifyAll();
+
+            if (suspended)
+                clipCache.abort(file);
+
+            return true;
+        }
+
+        /**
+         * This helper method suspends the download once a prefetch has reached its byte
+         * limit, short of the end of the video, and no player has attached.
+         * @return true to keep downloading, or false if the download was suspended
+         * @throws IOException if the prefetch was cancelled
+         */
+        private synchronized boolean awaitDemand() throws IOException {
+            if (cancelled)
+                throw new IOException("Prefetch cancelled");
+
+            if (available >= limit && available < length) {
+                suspended = true;
+                notifyPrefetched();
+                return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * This helper method tells the prefetch listener, once, that the prefetch has
+         * stopped making progress.
+         */
+        private void notifyPrefetched() {
+            if (listener != null) {
+                listener.onPrefetchFinished(downloadUrl);
+                listener = null;
+            }
+        }
+
+        /**
+         * This method blocks until the length of the video is known.
+         * @return length of the video in bytes, or -1 if the download failed
+         * @throws IOException if interrupted or the length is not known within TIMEOUT
+         */
+        public synchronized long awaitLength() throws IOException {
+            long deadline = SystemClock.elapsedRealtime() + TIMEOUT;
+
+            while (length < 0 && !failed)
+                awaitUntil(deadline);
+
+            return failed ? -1 : length;
+        }
+
+        /**
+         * This method decides whether a request starting at the given byte should be
+         * served from the download, or whether it is so far ahead that it should be
+         * fetched separately.
+         * @param rangeStart first byte requested
+         * @return true if the request should wait for the download
+         */
+        public synchronized boolean isLocal(long rangeStart) {
+            if (complete)
+                return file.exists();
+
+            return rangeStart <= available + RANGE_THRESHOLD;
+        }
+
+        /**
+         * This method copies the video from the given offset to the player, waiting for
+         * each chunk of bytes to arrive before copying it.
+         * @param outputStream to write the bytes to
+         * @param position first byte to copy
+         * @throws IOException if the download failed or the player disconnected
+         */
+        public void copyFromFile(OutputStream outputStream, long position) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            try {
+                while (position < length) {
+                    long end = awaitAvailable(position);
+                    randomAccessFile.seek(position);
+                    int read = randomAccessFile.read(buffer, 0,
+                            (int) Math.min(buffer.length, end - position));
+
+                    if (read == -1)
+                        throw new IOException("Unexpected end of file");
+
+                    outputStream.write(buffer, 0, read);
+                    position += read;
+                }
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        /**
+         * This helper method blocks until bytes beyond the given position have arrived.
+         * @param position byte the caller wants to read
+         * @return number of bytes available
+         * @throws IOException if the download failed or no bytes arrived within TIMEOUT
+         */
+        private synchronized long awaitAvailable(long position) throws IOException {
+            long deadline = SystemClock.elapsedRealtime() + TIMEOUT;
+
+            while (available <= position && !complete && !failed)
+                awaitUntil(deadline);
+
+            if (failed)
+                throw new IOException("Download failed");
+
+            return complete ? length : available;
+        }
+
+        /**
+         * This helper method waits to be woken by the download, but no later than the
+         * deadline, so a request does not wait forever on a download that stopped.
+         * @param deadline elapsed realtime to stop waiting at
+         * @throws IOException if the deadline passed or the wait was interrupted
+         */
+        private void awaitUntil(long deadline) throws IOException {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+
+            if (remaining <= 0)
+                throw new IOException("Timed out waiting for " + downloadUrl);
+
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while streaming");
+            }
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * This class re-encodes a picked video to a smaller resolution and bitrate before it is
+ * uploaded, using the platform's hardware codecs. The video track is decoded onto a
+ * TranscodeSurface, scaled by OpenGL ES and encoded as H.264 to the given Profile, and the
+ * audio track is copied unchanged, interleaved with the video by presentation time so the
+ * file can be streamed from its start. Videos that already fit the profile are left alone.
+ * Transcoding blocks, so it must run off the main thread, and stops when that thread is
+ * interrupted.
+ * @author colomb2
+ */
+
+public class ClipTranscoder {
+
+    private static final String TAG = "ClipTranscoder";
+    private static final String OUTPUT_MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final String VIDEO_PREFIX = "video/";
+    private static final String AUDIO_PREFIX = "audio/";
+    private static final String KEY_ROTATION = "rotation-degrees";
+    private static final long TIMEOUT_US = 10000;
+    private static final int SIZE_ALIGNMENT = 16;
+    private static final int DEFAULT_AUDIO_BUFFER = 256 * 1024;
+    private static final float BIT_RATE_SLACK = 1.25f;
+    private static final float PROGRESS_STEP = 0.01f;
+
+    private static Profile defaultProfile = Profile.SD;
+
+    private final Context context;
+    private final Profile profile;
+
+    /**
+     * This class defines the size and bitrate that videos are transcoded to. Videos are
+     * scaled to fit within the maximum width and height in either orientation, keeping
+     * their aspect ratio.
+     */
+    public static class Profile {
+
+        public static final Profile SD = new Profile(854, 480, 1500000, 30, 2);
+        public static final Profile HD = new Profile(1280, 720, 4000000, 30, 2);
+
+        private final int maxWidth;
+        private final int maxHeight;
+        private final int bitRate;
+        private final int frameRate;
+        private final int iFrameInterval;
+
+        /**
+         * This constructor creates a profile.
+         * @param maxWidth longest edge of the video in pixels
+         * @param maxHeight shortest edge of the video in pixels
+         * @param bitRate target video bitrate in bits per second
+         * @param frameRate nominal frame rate passed to the encoder
+         * @param iFrameInterval seconds between key frames
+         */
+        public Profile(int maxWidth, int maxHeight, int bitRate, int frameRate,
+                       int iFrameInterval) {
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.bitRate = bitRate;
+            this.frameRate = frameRate;
+            this.iFrameInterval = iFrameInterval;
+        }
+
+        public int getBitRate() {
+            return bitRate;
+        }
+
+        /**
+         * This method returns a name for the profile's settings, so that a video
+         * transcoded to it can be stored apart from the same video transcoded to others.
+         * @return key made of every setting of the profile
+         */
+        public String getKey() {
+            return String.format(Locale.US, "%dx%d-%d-%d-%d", maxWidth, maxHeight, bitRate,
+                    frameRate, iFrameInterval);
+        }
+
+        /**
+         * This method returns the size a video is scaled to, aligned to what hardware
+         * encoders accept.
+         * @param width of the source video
+         * @param height of the source video
+         * @return width and height of the transcoded video
+         */
+        public int[] scale(int width, int height) {
+            int longEdge = Math.max(width, height);
+            int shortEdge = Math.min(width, height);
+            float scale = Math.min(1f, Math.min(maxWidth / (float) longEdge,
+                    maxHeight / (float) shortEdge));
+
+            return new int[]{align(width * scale), align(height * scale)};
+        }
+
+        /**
+         * This method checks whether a video is larger or denser than this profile.
+         * @param width of the video
+         * @param height of the video
+         * @param bitRate of the video, or 0 if not known
+         * @return true if the video should be transcoded
+         */
+        public boolean exceeds(int width, int height, int bitRate) {
+            return Math.max(width, height) > maxWidth || Math.min(width, height) > maxHeight
+                    || bitRate > this.bitRate * BIT_RATE_SLACK;
+        }
+
+        private static int align(float size) {
+            return Math.max(SIZE_ALIGNMENT, Math.round(size / SIZE_ALIGNMENT) * SIZE_ALIGNMENT);
+        }
+    }
+
+    /**
+     * This interface is told how much of the video has been transcoded.
+     */
+    public interface ProgressListener {
+        /**
+         * @param fraction of the video transcoded, from 0 to 1
+         */
+        void onProgress(float fraction);
+    }
+
+    /**
+     * This constructor creates a transcoder for the given profile.
+     * @param context to use for android interaction
+     * @param profile to transcode videos to
+     */
+    public ClipTranscoder(Context context, Profile profile) {
+        this.context = context.getApplicationContext();
+        this.profile = profile;
+    }
+
+    /**
+     * This method sets the profile that submitted videos are transcoded to.
+     * @param profile default Profile
+     */
+    public static void setDefaultProfile(Profile profile) {
+        defaultProfile = profile;
+    }
+
+    public static Profile getDefaultProfile() {
+        return defaultProfile;
+    }
+
+    /**
+     * This method checks whether a video is larger or of a higher bitrate than the profile,
+     * so that it is worth transcoding.
+     * @param source uri of the video
+     * @return true if the video should be transcoded
+     */
+    public boolean needsTranscode(Uri source) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+
+        try {
+            retriever.setDataSource(context, source);
+            int width = parse(retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            int height = parse(retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            int bitRate = parse(retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_BITRATE));
+
+            return profile.exceeds(width, height, bitRate);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to read video metadata", e);
+            return false;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    private static int parse(String value) {
+        try {
+            return value == null ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * This method transcodes a video into an mp4 file. The destination is deleted if
+     * transcoding fails or is interrupted.
+     * @param source uri of the video to transcode
+     * @param destination file to write the transcoded video to
+     * @param listener told of progress on the calling thread, or null
+     * @throws InterruptedIOException if the calling thread was interrupted
+     * @throws IOException if the video could not be transcoded
+     */
+    public void transcode(Uri source, File destination, ProgressListener listener)
+            throws IOException {
+        MediaExtractor videoExtractor = new MediaExtractor();
+        MediaExtractor audioExtractor = new MediaExtractor();
+        MediaCodec decoder = null;
+        MediaCodec encoder = null;
+        TranscodeSurface surface = null;
+        MediaMuxer muxer = null;
+        boolean succeeded = false;
+
+        try {
+            videoExtractor.setDataSource(context, source, null);
+            audioExtractor.setDataSource(context, source, null);
+
+            int videoTrack = selectTrack(videoExtractor, VIDEO_PREFIX);
+            int audioTrack = selectTrack(audioExtractor, AUDIO_PREFIX);
+
+            if (videoTrack < 0)
+                throw new IOException("No video track in " + source);
+
+            MediaFormat inputFormat = videoExtractor.getTrackFormat(videoTrack);
+            int[] size = profile.scale(inputFormat.getInteger(MediaFormat.KEY_WIDTH),
+                    inputFormat.getInteger(MediaFormat.KEY_HEIGHT));
+
+            MediaFormat outputFormat = MediaFormat.createVideoFormat(OUTPUT_MIME_TYPE,
+                    size[0], size[1]);
+            outputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                    MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, profile.bitRate);
+            outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, profile.frameRate);
+            outputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, profile.iFrameInterval);
+
+            encoder = MediaCodec.createEncoderByType(OUTPUT_MIME_TYPE);
+            encoder.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            surface = new TranscodeSurface(encoder.createInputSurface(), size[0], size[1]);
+            encoder.start();
+
+            decoder = MediaCodec.createDecoderByType(
+                    inputFormat.getString(MediaFormat.KEY_MIME));
+            decoder.configure(inputFormat, surface.getDecoderSurface(), null, 0);
+            decoder.start();
+
+            muxer = new MediaMuxer(destination.getPath(),
+                    MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+            if (inputFormat.containsKey(KEY_ROTATION))
+                muxer.setOrientationHint(inputFormat.getInteger(KEY_ROTATION));
+
+            long durationUs = inputFormat.containsKey(MediaFormat.KEY_DURATION)
+                    ? inputFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+            AudioCopier audio = audioTrack < 0 ? null
+                    : new AudioCopier(audioExtractor, audioExtractor.getTrackFormat(audioTrack));
+
+            transcodeVideo(videoExtractor, decoder, encoder, surface, muxer, audio, durationUs,
+                    listener);
+            muxer.stop();
+            succeeded = true;
+
+            if (listener != null)
+                listener.onProgress(1);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Unable to transcode " + source, e);
+        } finally {
+            videoExtractor.release();
+            audioExtractor.release();
+
+            if (decoder != null)
+                decoder.release();
+
+            if (encoder != null)
+                encoder.release();
+
+            if (surface != null)
+                surface.release();
+
+            if (muxer != null) {
+                try {
+                    muxer.release();
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Unable to release muxer", e);
+                }
+            }
+
+            if (!succeeded)
+                destination.delete();
+        }
+    }
+
+    /**
+     * This helper method selects the first track of the given kind.
+     * @param extractor to select the track on
+     * @param mimePrefix "video/" or "audio/"
+     * @return index of the track, or -1 if there is none
+     */
+    private static int selectTrack(MediaExtractor extractor, String mimePrefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+
+            if (mime != null && mime.startsWith(mimePrefix)) {
+                extractor.selectTrack(i);
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * This helper method feeds the video track through the decoder, draws each decoded
+     * frame onto the encoder's surface and writes the encoded frames to the muxer. The
+     * muxer is started once the encoder's output format is known, after the audio track,
+     * if any, has been added too. Before each encoded frame, the audio presented up to it
+     * is written, so the tracks are interleaved. The thread's interrupt is checked on
+     * every pass, so a stopped upload does not wait for the whole video.
+     * @param extractor with the video track selected
+     * @param decoder started on the video track, rendering onto the surface
+     * @param encoder started with the surface as its input
+     * @param surface connecting the decoder to the encoder
+     * @param muxer to write the encoded video to
+     * @param audio copier of the audio track, or null if there is none
+     * @param durationUs duration of the video, or 0 if not known
+     * @param listener told of progress, or null
+     * @throws InterruptedIOException if the thread was interrupted
+     * @throws IOException if a decoded frame did not arrive
+     */
+    private void transcodeVideo(MediaExtractor extractor, MediaCodec decoder, MediaCodec encoder,
+                                TranscodeSurface surface, MediaMuxer muxer, AudioCopier audio,
+                                long durationUs, ProgressListener listener) throws IOException {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean inputDone = false;
+        boolean decoderDone = false;
+        boolean encoderDone = false;
+        int videoOutputTrack = -1;
+        float reportedProgress = 0;
+
+        while (!encoderDone) {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("Transcode interrupted");
+
+            if (!inputDone) {
+                int inputIndex = decoder.dequeueInputBuffer(TIMEOUT_US);
+
+                if (inputIndex >= 0) {
+                    ByteBuffer inputBuffer = decoder.getInputBuffer(inputIndex);
+                    int sampleSize = extractor.readSampleData(inputBuffer, 0);
+
+                    if (sampleSize < 0) {
+                        decoder.queueInputBuffer(inputIndex, 0, 0, 0,
+                                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        decoder.queueInputBuffer(inputIndex, 0, sampleSize,
+                                extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            if (!decoderDone) {
+                int outputIndex = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+
+                if (outputIndex >= 0) {
+                    boolean render = info.size > 0;
+                    decoder.releaseOutputBuffer(outputIndex, render);
+
+                    if (render) {
+                        surface.drawFrame(info.presentationTimeUs * 1000);
+
+                        float progress = durationUs > 0
+                                ? Math.min(1f, info.presentationTimeUs / (float) durationUs) : 0;
+
+                        if (listener != null && progress - reportedProgress >= PROGRESS_STEP) {
+                            reportedProgress = progress;
+                            listener.onProgress(progress);
+                        }
+                    }
+
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        encoder.signalEndOfInputStream();
+                        decoderDone = true;
+                    }
+                }
+            }
+
+            while (true) {
+                int encodedIndex = encoder.dequeueOutputBuffer(info, decoderDone ? TIMEOUT_US : 0);
+
+                if (encodedIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    break;
+                } else if (encodedIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    videoOutputTrack = muxer.addTrack(encoder.getOutputFormat());
+
+                    if (audio != null)
+                        audio.addTrack(muxer);
+
+                    muxer.start();
+                } else if (encodedIndex >= 0) {
+                    ByteBuffer encoded = encoder.getOutputBuffer(encodedIndex);
+                    boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+
+                    if (!config && info.size > 0) {
+                        if (audio != null)
+                            audio.copyUntil(muxer, info.presentationTimeUs);
+
+                        muxer.writeSampleData(videoOutputTrack, encoded, info);
+                    }
+
+                    encoder.releaseOutputBuffer(encodedIndex, false);
+
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        encoderDone = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (audio != null)
+            audio.copyUntil(muxer, Long.MAX_VALUE);
+    }
+
+    /**
+     * This class copies the audio track's samples into the muxer unchanged, a stretch at a
+     * time, so they can be interleaved with the encoded video.
+     */
+    private static class AudioCopier {
+
+        private final MediaExtractor extractor;
+        private final MediaFormat format;
+        private final ByteBuffer buffer;
+        private final MediaCodec.BufferInfo info;
+        private int track = -1;
+
+        /**
+         * This constructor creates a copier for an extractor's selected audio track.
+         * @param extractor with the audio track selected
+         * @param format of the audio track
+         */
+        public AudioCopier(MediaExtractor extractor, MediaFormat format) {
+            int bufferSize = format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                    ? format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : DEFAULT_AUDIO_BUFFER;
+            this.extractor = extractor;
+            this.format = format;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+            this.info = new MediaCodec.BufferInfo();
+        }
+
+        /**
+         * This method adds the audio track to the muxer before it is started.
+         * @param muxer to add the track to
+         */
+        public void addTrack(MediaMuxer muxer) {
+            track = muxer.addTrack(format);
+        }
+
+        /**
+         * This method writes the audio samples presented up to the given time.
+         * @param muxer to write the audio to
+         * @param timeUs presentation time to copy up to, inclusive
+         */
+        public void copyUntil(MediaMuxer muxer, long timeUs) {
+            long sampleTime;
+
+            while ((sampleTime = extractor.getSampleTime()) >= 0 && sampleTime <= timeUs) {
+                int sampleSize = extractor.readSampleData(buffer, 0);
+
+                if (sampleSize < 0)
+                    return;
+
+                int flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                        ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                info.set(0, sampleSize, sampleTime, flags);
+                muxer.writeSampleData(track, buffer, info);
+                extractor.advance();
+            }
+        }
+    }
+}
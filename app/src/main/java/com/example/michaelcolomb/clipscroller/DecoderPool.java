@@ -0,0 +1,237 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.widget.VideoView;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caps how many clip rows hold a media player, and with it a decoder and a
+ * surface, at the same time. A row takes a slot before its video is prepared and gives it
+ * back when it is recycled. When every slot is taken, the row that was used least
+ * recently, preferring one that is not playing, has its player released and is told so
+ * it can offer to load the video again. A row bound again to the video it already has
+ * prepared keeps its player instead of preparing a new one. The pool counts those hits
+ * and times every prepare. The number of players held and evictions are also kept in
+ * Metrics. All methods must be called on the main thread.
+ * @author colomb2
+ */
+
+public class DecoderPool {
+
+    protected static final int DEFAULT_MAX_DECODERS = 3;
+
+    private static final Metrics.Gauge ACTIVE = Metrics.gauge("decoders.active");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("decoders.evictions");
+
+    private static DecoderPool instance;
+
+    private final LinkedHashMap<VideoView, Slot> slots;
+    private int maxDecoders;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long prepareCount;
+    private long totalPrepareMillis;
+    private long maxPrepareMillis;
+    private int peakActive;
+
+    /**
+     * This constructor creates an empty pool.
+     * @param maxDecoders most players that may be held at once
+     */
+    DecoderPool(int maxDecoders) {
+        this.slots = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxDecoders = maxDecoders;
+    }
+
+    /**
+     * This method returns the application's shared pool.
+     * @return the shared DecoderPool
+     */
+    public static DecoderPool getInstance() {
+        if (instance == null)
+            instance = new DecoderPool(DEFAULT_MAX_DECODERS);
+
+        return instance;
+    }
+
+    /**
+     * This method checks whether a video view already has the given video prepared, in
+     * which case it can be shown again without preparing it. A reuse counts as a hit.
+     * @param videoView of the row
+     * @param downloadUrl of the video to show
+     * @return true if the view's player can be reused
+     */
+    public boolean reuse(VideoView videoView, String downloadUrl) {
+        Slot slot = slots.get(videoView);
+
+        if (slot == null || !slot.prepared || !downloadUrl.equals(slot.downloadUrl))
+            return false;
+
+        hitCount++;
+        return true;
+    }
+
+    /**
+     * This method gives a video view a slot before it prepares a video, counting a miss.
+     * If the pool is full, the least recently used view is released first.
+     * @param videoView of the row
+     * @param downloadUrl of the video to prepare
+     * @param onEvicted run if the view's player is later released to make room, or null
+     */
+    public void acquire(VideoView videoView, String downloadUrl, Runnable onEvicted) {
+        missCount++;
+        slots.remove(videoView);
+
+        while (slots.size() >= maxDecoders)
+            evict();
+
+        slots.put(videoView, new Slot(downloadUrl, onEvicted));
+        peakActive = Math.max(peakActive, slots.size());
+        ACTIVE.set(slots.size());
+    }
+
+    /**
+     * This method records that a view's video was prepared and how long it took.
+     * @param videoView of the row
+     * @param prepareMillis milliseconds from configuring the video until it was prepared
+     */
+    public void prepared(VideoView videoView, long prepareMillis) {
+        Slot slot = slots.get(videoView);
+
+        if (slot != null)
+            slot.prepared = true;
+
+        prepareCount++;
+        totalPrepareMillis += prepareMillis;
+        maxPrepareMillis = Math.max(maxPrepareMillis, prepareMillis);
+    }
+
+    /**
+     * This method releases a view's player and gives back its slot, such as when its row
+     * is recycled.
+     * @param videoView of the row
+     */
+    public void release(VideoView videoView) {
+        slots.remove(videoView);
+        videoView.stopPlayback();
+        ACTIVE.set(slots.size());
+    }
+
+    /**
+     * This helper method releases the least recently used view that is not playing, or
+     * the least recently used view if they are all playing, and tells its row.
+     */
+    private void evict() {
+        Map.Entry<VideoView, Slot> victim = null;
+        Iterator<Map.Entry<VideoView, Slot>> iterator = slots.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<VideoView, Slot> entry = iterator.next();
+
+            if (victim == null)
+                victim = entry;
+
+            if (!entry.getKey().isPlaying()) {
+                victim = entry;
+                break;
+            }
+        }
+
+        slots.remove(victim.getKey());
+        victim.getKey().stopPlayback();
+        evictionCount++;
+        EVICTIONS.increment();
+        ACTIVE.set(slots.size());
+
+        if (victim.getValue().onEvicted != null)
+            victim.getValue().onEvicted.run();
+    }
+
+    /**
+     * This method sets the most players that may be held at once, releasing views if
+     * more are held.
+     * @param maxDecoders at least one
+     */
+    public void setMaxDecoders(int maxDecoders) {
+        this.maxDecoders = Math.max(1, maxDecoders);
+
+        while (slots.size() > this.maxDecoders)
+            evict();
+    }
+
+    public int getMaxDecoders() {
+        return maxDecoders;
+    }
+
+    public int getActiveCount() {
+        return slots.size();
+    }
+
+    public int getPeakActiveCount() {
+        return peakActive;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * This method returns the share of binds that reused a prepared player.
+     * @return hits divided by hits and misses, or 0 if there were none
+     */
+    public double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : hitCount / (double) total;
+    }
+
+    /**
+     * This method returns the mean time from configuring a video until it was prepared.
+     * @return mean prepare latency in milliseconds, or 0 if nothing was prepared
+     */
+    public double getMeanPrepareMillis() {
+        return prepareCount == 0 ? 0 : totalPrepareMillis / (double) prepareCount;
+    }
+
+    public long getMaxPrepareMillis() {
+        return maxPrepareMillis;
+    }
+
+    /**
+     * This method resets the counters, keeping the slots that are held.
+     */
+    public void resetStats() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+        prepareCount = 0;
+        totalPrepareMillis = 0;
+        maxPrepareMillis = 0;
+        peakActive = slots.size();
+    }
+
+    /**
+     * This class holds the video a view's slot was taken for and whether it is prepared.
+     */
+    private static class Slot {
+
+        private final String downloadUrl;
+        private final Runnable onEvicted;
+        private boolean prepared;
+
+        public Slot(String downloadUrl, Runnable onEvicted) {
+            this.downloadUrl = downloadUrl;
+            this.onEvicted = onEvicted;
+        }
+    }
+}
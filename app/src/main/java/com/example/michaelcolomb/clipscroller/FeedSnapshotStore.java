@@ -0,0 +1,296 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class keeps the last ranked feed on disk, so the first screen can be shown from it
+ * at launch before any clip arrives from the ClipBackend. A snapshot holds the top
+ * MAX_CLIPS clips in ranked order with their title, urls, time and votes, written in a
+ * compact binary form that starts with its format VERSION. A snapshot of another version
+ * or that cannot be read is discarded. Snapshots are written on a background thread, and
+ * one asked for while another is being written replaces any that is still waiting.
+ * @author colomb2
+ */
+
+public class FeedSnapshotStore {
+
+    protected static final int VERSION = 1;
+    protected static final int MAX_CLIPS = 20;
+    private static final String TAG = "FeedSnapshotStore";
+    private static final String SNAPSHOT_FILE = "feed_snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static FeedSnapshotStore instance;
+
+    private final File file;
+    private final ExecutorService writer;
+    private final AtomicReference<Snapshot> pending;
+
+    /**
+     * This constructor creates a store kept in the given file.
+     * @param file to keep the snapshot in
+     */
+    FeedSnapshotStore(File file) {
+        this.file = file;
+        this.writer = Executors.newSingleThreadExecutor();
+        this.pending = new AtomicReference<>();
+    }
+
+    /**
+     * This method returns the application's shared store, kept in the application's files
+     * directory.
+     * @param context to use for android interaction
+     * @return the shared FeedSnapshotStore
+     */
+    public static synchronized FeedSnapshotStore getInstance(Context context) {
+        if (instance == null)
+            instance = new FeedSnapshotStore(
+                    new File(context.getApplicationContext().getFilesDir(), SNAPSHOT_FILE));
+
+        return instance;
+    }
+
+    /**
+     * This method reads the saved snapshot. It is small enough to read on the main thread
+     * at launch.
+     * @return the snapshot, or null if there is none or it cannot be used
+     */
+    public Snapshot load() {
+        DataInputStream input;
+
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+
+        try {
+            try {
+                return read(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable feed snapshot", e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * This method saves the top of a ranked feed in the background. The clips are copied
+     * before returning, so the feed may keep changing.
+     * @param rankByTrending true if the feed is ranked by trend
+     * @param order clip hashes in ranked order
+     * @param clipStore holding the feed's clips
+     */
+    public void save(boolean rankByTrending, List<String> order, ClipStore clipStore) {
+        List<String> savedOrder = new ArrayList<>();
+        Map<String, Clip> clips = new HashMap<>();
+
+        for (String hash : order) {
+            Clip clip = clipStore.get(hash);
+
+            if (clip == null || clip.getDownloadUrl() == null)
+                continue;
+
+            savedOrder.add(hash);
+            clips.put(hash, copy(clip));
+
+            if (savedOrder.size() == MAX_CLIPS)
+                break;
+        }
+
+        Snapshot snapshot = new Snapshot(rankByTrending, System.currentTimeMillis(),
+                savedOrder, clips);
+
+        if (pending.getAndSet(snapshot) != null)
+            return;
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                Snapshot latest = pending.getAndSet(null);
+
+                if (latest != null)
+                    write(latest);
+            }
+        });
+    }
+
+    /**
+     * This method waits for the snapshots asked for so far to be written.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flush() throws InterruptedException {
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() { }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * This method deletes the saved snapshot.
+     */
+    public void clear() {
+        file.delete();
+    }
+
+    /**
+     * This helper method writes a snapshot to a temporary file and renames it into place,
+     * so that a crash while saving never leaves a partial snapshot.
+     * @param snapshot to write
+     */
+    private void write(Snapshot snapshot) {
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile)));
+
+            try {
+                output.writeInt(VERSION);
+                output.writeBoolean(snapshot.rankByTrending);
+                output.writeLong(snapshot.savedTime);
+                output.writeInt(snapshot.order.size());
+
+                for (String hash : snapshot.order) {
+                    Clip clip = snapshot.clips.get(hash);
+                    output.writeUTF(hash);
+                    writeString(output, clip.getTitle());
+                    output.writeUTF(clip.getDownloadUrl());
+                    writeString(output, clip.getPosterUrl());
+                    output.writeLong(clip.getTime());
+                    output.writeInt(clip.getVoteCount());
+                    output.writeDouble(clip.getHotScore());
+                }
+            } finally {
+                output.close();
+            }
+
+            if (!tempFile.renameTo(file))
+                throw new IOException("Unable to rename " + tempFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save feed snapshot", e);
+        }
+    }
+
+    /**
+     * This helper method reads a snapshot written by write.
+     * @param input to read from
+     * @return the snapshot, or null if it has another version
+     * @throws IOException if the snapshot is cut short or malformed
+     */
+    private static Snapshot read(DataInputStream input) throws IOException {
+        if (input.readInt() != VERSION)
+            return null;
+
+        boolean rankByTrending = input.readBoolean();
+        long savedTime = input.readLong();
+        int count = input.readInt();
+
+        if (count < 0 || count > MAX_CLIPS)
+            throw new IOException("Snapshot holds " + count + " clips");
+
+        List<String> order = new ArrayList<>(count);
+        Map<String, Clip> clips = new HashMap<>();
+
+        for (int i = 0; i < count; i++) {
+            String hash = input.readUTF();
+            Clip clip = new Clip();
+            clip.setTitle(readString(input));
+            clip.setDownloadUrl(input.readUTF());
+            clip.setPosterUrl(readString(input));
+            clip.setTime(input.readLong());
+            clip.setVoteCount(input.readInt());
+            clip.setHotScore(input.readDouble());
+
+            order.add(hash);
+            clips.put(hash, clip);
+        }
+
+        return new Snapshot(rankByTrending, savedTime, order, clips);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+
+        if (value != null)
+            output.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static Clip copy(Clip clip) {
+        Clip copy = new Clip();
+        copy.setTitle(clip.getTitle());
+        copy.setDownloadUrl(clip.getDownloadUrl());
+        copy.setPosterUrl(clip.getPosterUrl());
+        copy.setTime(clip.getTime());
+        copy.setVoteCount(clip.getVoteCount());
+        copy.setHotScore(clip.getHotScore());
+        return copy;
+    }
+
+    /**
+     * This class holds a saved feed: its ranking mode, when it was saved, and its clips in
+     * ranked order.
+     */
+    public static class Snapshot {
+
+        private final boolean rankByTrending;
+        private final long savedTime;
+        private final List<String> order;
+        private final Map<String, Clip> clips;
+
+        public Snapshot(boolean rankByTrending, long savedTime, List<String> order,
+                        Map<String, Clip> clips) {
+            this.rankByTrending = rankByTrending;
+            this.savedTime = savedTime;
+            this.order = Collections.unmodifiableList(order);
+            this.clips = clips;
+        }
+
+        public boolean isRankByTrending() {
+            return rankByTrending;
+        }
+
+        public long getSavedTime() {
+            return savedTime;
+        }
+
+        public List<String> getOrder() {
+            return order;
+        }
+
+        public Clip getClip(String hash) {
+            return clips.get(hash);
+        }
+    }
+}
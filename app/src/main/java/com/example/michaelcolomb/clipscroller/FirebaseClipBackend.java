@@ -0,0 +1,369 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.Transaction;
+import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.storage.FileDownloadTask;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class defines the ClipBackend used by the application, which keeps clips in the
+ * Firebase Database and their videos in Firebase Storage. Each clip's likes are kept apart
+ * from the clip, with their count, in a votes node, so querying clips never downloads
+ * likes. Clip snapshots are decoded field by field, and clips created before vote counts
+ * or hot scores were stored have them backfilled once, as do clips whose likes are still
+ * stored inside them. Videos are uploaded with a ResumableUploader, so an upload that is
+ * cut off continues from the last committed chunk of its storage session.
+ * @author colomb2
+ */
+
+public class FirebaseClipBackend implements ClipBackend {
+
+    private static final String TITLE_ADDRESS = "title";
+    private static final String DOWNLOAD_URL_ADDRESS = "downloadUrl";
+    private static final String POSTER_URL_ADDRESS = "posterUrl";
+    private static final String TIME_ADDRESS = "time";
+
+    private final DatabaseReference clipsReference;
+    private final DatabaseReference votesReference;
+    private final FirebaseStorage storage;
+    private final SubscriptionRegistry subscriptionRegistry;
+    private final Set<String> backfilledHashes;
+    private final ResumableUploader uploader;
+
+    /**
+     * This constructor creates a backend over the given clips and votes references and
+     * storage.
+     * @param context to use for android interaction
+     * @param clipsReference DatabaseReference of the clips
+     * @param votesReference DatabaseReference of the clips' votes
+     * @param storage FirebaseStorage holding the videos
+     */
+    public FirebaseClipBackend(Context context, DatabaseReference clipsReference,
+                               DatabaseReference votesReference, FirebaseStorage storage) {
+        this.clipsReference = clipsReference;
+        this.votesReference = votesReference;
+        this.storage = storage;
+        this.subscriptionRegistry = new SubscriptionRegistry();
+        this.backfilledHashes = new HashSet<>();
+        this.uploader = new ResumableUploader(context, storage.getReference());
+    }
+
+    @Override
+    public void loadPage(String orderKey, Double endValue, String endKey, int limit,
+                         final Callback<LinkedHashMap<String, Clip>> callback) {
+        Query pageQuery = range(orderKey, null, null, endValue, endKey, limit);
+
+        pageQuery.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                LinkedHashMap<String, Clip> clips = new LinkedHashMap<>();
+
+                for (DataSnapshot clipSnapshot : dataSnapshot.getChildren())
+                    clips.put(clipSnapshot.getKey(), decode(clipSnapshot));
+
+                callback.onSuccess(clips);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                callback.onFailure(databaseError.toException());
+            }
+        });
+    }
+
+    @Override
+    public Registration watchRange(String orderKey, Double startValue, String startKey,
+                                   Double endValue, String endKey, int limit,
+                                   final ClipListener listener) {
+        final Query rangeQuery = range(orderKey, startValue, startKey, endValue, endKey, limit);
+        final ChildEventListener rangeListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+                listener.onClipAdded(dataSnapshot.getKey(), decode(dataSnapshot));
+            }
+
+            @Override
+            public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+                listener.onClipChanged(dataSnapshot.getKey(), decode(dataSnapshot));
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot dataSnapshot) {
+                listener.onClipRemoved(dataSnapshot.getKey());
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) { }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) { }
+        };
+
+        rangeQuery.addChildEventListener(rangeListener);
+
+        return new Registration() {
+            @Override
+            public void remove() {
+                rangeQuery.removeEventListener(rangeListener);
+            }
+        };
+    }
+
+    /**
+     * This helper method builds the query for a range of clips.
+     * @param orderKey child to order clips by
+     * @param startValue lowest order value to include, or null for no start
+     * @param startKey clip hash that breaks ties at the start value, or null
+     * @param endValue highest order value to include, or null for no end
+     * @param endKey clip hash that breaks ties at the end value, or null
+     * @param limit maximum number of clips, or 0 for no limit
+     * @return query for the range
+     */
+    private Query range(String orderKey, Double startValue, String startKey,
+                        Double endValue, String endKey, int limit) {
+        Query query = clipsReference.orderByChild(orderKey);
+
+        if (startValue != null)
+            query = startKey == null ? query.startAt(startValue)
+                    : query.startAt(startValue, startKey);
+
+        if (endValue != null)
+            query = endKey == null ? query.endAt(endValue) : query.endAt(endValue, endKey);
+
+        if (limit > 0)
+            query = query.limitToLast(limit);
+
+        return query;
+    }
+
+    @Override
+    public Registration watchVote(String hash, String instanceId, final VoteListener listener) {
+        final DatabaseReference voteReference = votesReference.child(hash)
+                .child(VoteUtilities.LIKES_ADDRESS).child(instanceId);
+        final ValueEventListener voteListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                listener.onVoteChanged(dataSnapshot.getValue(Boolean.class));
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) { }
+        };
+
+        subscriptionRegistry.subscribe(voteReference, voteListener);
+
+        return new Registration() {
+            @Override
+            public void remove() {
+                subscriptionRegistry.unsubscribe(voteReference, voteListener);
+            }
+        };
+    }
+
+    @Override
+    public void castVote(String hash, String instanceId, Boolean vote) {
+        VoteUtilities.castVote(votesReference.child(hash), clipsReference.child(hash),
+                instanceId, vote, null);
+    }
+
+    /**
+     * This method writes each vote in its clip's vote transaction, so every count moves by
+     * exactly the vote its like replaced on the server, and then copies the count to the
+     * clip in a transaction of its own. A batch of votes therefore costs two round trips
+     * per vote.
+     * @param votes to write
+     * @param callback told once every vote is committed, or of the first failure
+     */
+    @Override
+    public void castVotes(List<VoteBatcher.Vote> votes, Callback<Void> callback) {
+        if (votes.isEmpty()) {
+            callback.onSuccess(null);
+            return;
+        }
+
+        BatchCallback batchCallback = new BatchCallback(votes.size(), callback);
+
+        for (VoteBatcher.Vote vote : votes)
+            VoteUtilities.castVote(votesReference.child(vote.getHash()),
+                    clipsReference.child(vote.getHash()), vote.getInstanceId(), vote.getVote(),
+                    batchCallback);
+    }
+
+    /**
+     * This method adds a clip in a transaction that only writes it if nothing is stored
+     * under its hash yet, so a clip added again after its first add succeeded keeps its
+     * votes.
+     * @param hash key to add the clip under
+     * @param clip to add
+     * @param callback given the clip's hash, or null if not needed
+     */
+    @Override
+    public void addClip(final String hash, final Clip clip, final Callback<String> callback) {
+        clipsReference.child(hash).runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                if (currentData.getValue() != null)
+                    return Transaction.abort();
+
+                currentData.setValue(clip);
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError databaseError, boolean committed,
+                                   DataSnapshot dataSnapshot) {
+                if (callback == null)
+                    return;
+
+                if (databaseError == null)
+                    callback.onSuccess(hash);
+                else
+                    callback.onFailure(databaseError.toException());
+            }
+        });
+    }
+
+    @Override
+    public void downloadVideo(String downloadUrl, final File destination,
+                              final Callback<File> callback) {
+        storage.getReferenceFromUrl(downloadUrl).getFile(destination)
+                .addOnSuccessListener(new OnSuccessListener<FileDownloadTask.TaskSnapshot>() {
+                    @Override
+                    public void onSuccess(FileDownloadTask.TaskSnapshot taskSnapshot) {
+                        callback.onSuccess(destination);
+                    }
+                }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception exception) {
+                callback.onFailure(exception);
+            }
+        });
+    }
+
+    @Override
+    public Transfer uploadVideo(Uri source, String name, Callback<String> callback) {
+        return uploader.upload(source, name, callback);
+    }
+
+    @Override
+    public void findVideo(String name, final Callback<String> callback) {
+        storage.getReference().child(name).getMetadata()
+                .addOnSuccessListener(new OnSuccessListener<StorageMetadata>() {
+                    @Override
+                    public void onSuccess(StorageMetadata metadata) {
+                        Uri downloadUrl = metadata.getDownloadUrl();
+                        callback.onSuccess(downloadUrl == null ? null : downloadUrl.toString());
+                    }
+                }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception exception) {
+                if (exception instanceof StorageException && ((StorageException) exception)
+                        .getErrorCode() == StorageException.ERROR_OBJECT_NOT_FOUND)
+                    callback.onSuccess(null);
+                else
+                    callback.onFailure(exception);
+            }
+        });
+    }
+
+    /**
+     * This helper method decodes a clip snapshot. Only the fields the feed needs are read.
+     * Missing vote counts and hot scores are computed and backfilled, and likes still
+     * stored in the clip are moved to its votes node.
+     * @param clipSnapshot DataSnapshot that refers to the clip reference level
+     * @return the decoded clip
+     */
+    private Clip decode(DataSnapshot clipSnapshot) {
+        Clip clip = new Clip();
+        clip.setTitle(clipSnapshot.child(TITLE_ADDRESS).getValue(String.class));
+        clip.setDownloadUrl(clipSnapshot.child(DOWNLOAD_URL_ADDRESS).getValue(String.class));
+        clip.setPosterUrl(clipSnapshot.child(POSTER_URL_ADDRESS).getValue(String.class));
+
+        Long time = clipSnapshot.child(TIME_ADDRESS).getValue(Long.class);
+        clip.setTime(time == null ? 0 : time);
+        clip.setVoteCount(VoteUtilities.getStoredVoteCount(clipSnapshot));
+
+        Double hotScore = clipSnapshot.child(VoteUtilities.HOT_SCORE_ADDRESS)
+                .getValue(Double.class);
+        clip.setHotScore(hotScore == null
+                ? VoteUtilities.getHotScore(clip.getTime(), clip.getVoteCount()) : hotScore);
+
+        boolean storedLikes = clipSnapshot.hasChild(VoteUtilities.LIKES_ADDRESS);
+        boolean missingVoteCount = !clipSnapshot.hasChild(VoteUtilities.VOTE_COUNT_ADDRESS);
+
+        if ((storedLikes || missingVoteCount || hotScore == null)
+                && backfilledHashes.add(clipSnapshot.getKey())) {
+            if (storedLikes)
+                VoteUtilities.migrateLikes(votesReference.child(clipSnapshot.getKey()),
+                        clipSnapshot);
+            else if (missingVoteCount)
+                VoteUtilities.backfillVoteCount(clipSnapshot.getRef(), clip.getVoteCount());
+
+            if (hotScore == null && !storedLikes && clip.getTime() > 0)
+                VoteUtilities.backfillHotScore(clipSnapshot.getRef(), clip.getHotScore());
+        }
+
+        return clip;
+    }
+
+    /**
+     * This method returns the registry of the backend's vote subscriptions, so the number
+     * of live listeners can be inspected.
+     * @return the backend's SubscriptionRegistry
+     */
+    public SubscriptionRegistry getSubscriptionRegistry() {
+        return subscriptionRegistry;
+    }
+
+    /**
+     * This class collects the results of a batch of vote transactions and tells the
+     * batch's callback once all of them have committed, or as soon as one fails.
+     */
+    private static class BatchCallback implements Callback<Void> {
+
+        private final Callback<Void> callback;
+        private int remaining;
+        private boolean failed;
+
+        public BatchCallback(int count, Callback<Void> callback) {
+            this.remaining = count;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onSuccess(Void result) {
+            if (--remaining == 0 && !failed)
+                callback.onSuccess(null);
+        }
+
+        @Override
+        public void onFailure(Exception exception) {
+            remaining--;
+
+            if (!failed) {
+                failed = true;
+                callback.onFailure(exception);
+            }
+        }
+    }
+}
@@ -6,43 +6,62 @@ import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
+import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
 
 /**
  * This class runs the main activity for the application. It coordinates the recycler view
  * with the Firebase Database and Storage to retrieve submitted videos, while allowing users
  * to watch and interact with the clips, which can be viewed in order of trend or recent
- * submission. Users may also continue onto the submission activity.
+ * submission. Users may also continue onto the submission activity. The state of the
+ * UploadQueue is shown above the feed while clips are waiting to upload. Startup is
+ * staged: only the feed is set up before the first frame, and the rest is deferred until
+ * after it is drawn, with disk work on a background thread. Each stage is timed by the
+ * StartupTracer.
  * @author colomb2
  */
 public class MainActivity extends AppCompatActivity {
 
     private EditText mTitleField;
     private RecyclerView mRecyclerView;
-    private DatabaseReference mEntriesReference;
     private ClipAdapter clipAdapter;
+    private AutoplayController autoplayController;
     private Menu mMenu;
+    private TextView uploadStatus;
+    private UploadQueue uploadQueue;
+    private UploadQueue.Listener uploadListener;
 
     private static final int MY_PERMISSIONS_REQUEST_READ_EXTERNAL_STORAGE = 1;
     private static final long TWO_SECONDS = 2000;
+    private static final String TAG = "MainActivity";
+    private static final String DUMP_METRICS = "metrics";
     private static final String TRENDING = "trending";
     private static final String NOT_TRENDING = "not_trending";
+    private static final int PERCENT = 100;
     protected static final String CLIP_ADDRESS = "colomb2/clips";
+    protected static final String VOTE_ADDRESS = "colomb2/votes";
 
     /**
-     * This method is called when the main activity is created. It asks for permission
-     * if required. It sets up the recycler view with a new adapter to retrieve and display
-     * videos from each stored clip.
+     * This method is called when the main activity is created. It sets up the recycler
+     * view with a new adapter to retrieve and display videos from each stored clip, a
+     * prefetcher to fetch videos ahead of scrolling, a listener that loads the next page of
+     * clips as the user nears the end of the list, and an AutoplayController that plays the
+     * clip most in view once scrolling settles. Everything else waits for the first frame.
      * @param savedInstanceState past state of live main activity
      */
     @Override
@@ -50,24 +69,201 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        FirebaseDatabase mDatabase = FirebaseDatabase.getInstance();
-        mEntriesReference = mDatabase.getReference(CLIP_ADDRESS);
-
         mTitleField = (EditText) findViewById(R.id.title);
+        uploadStatus = (TextView) findViewById(R.id.upload_status);
 
-        managePermissions();
+        clipAdapter = ClipAdapter.create(this, ClipBackends.get(this));
 
-        clipAdapter = ClipAdapter.create(this, mEntriesReference);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
 
         mRecyclerView = (RecyclerView) findViewById(R.id.rv_clips);
         mRecyclerView.setHasFixedSize(false);
-        mRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        mRecyclerView.setLayoutManager(layoutManager);
         mRecyclerView.setAdapter(clipAdapter);
+        mRecyclerView.addOnScrollListener(new ClipPrefetcher(this, layoutManager));
+        mRecyclerView.addOnScrollListener(new pageLoader(layoutManager));
+
+        autoplayController = new AutoplayController(mRecyclerView);
+        mRecyclerView.addOnScrollListener(autoplayController);
+        mRecyclerView.addOnChildAttachStateChangeListener(autoplayController);
+
+        StartupTracer.mark(StartupTracer.ACTIVITY_CREATED);
+        awaitFirstFrame();
+    }
+
+    /**
+     * This helper method runs the deferred startup once the first frame has been drawn.
+     * The pre-draw listener sees the frame about to be drawn, and the message it posts runs
+     * after that frame.
+     */
+    private void awaitFirstFrame() {
+        final View decorView = getWindow().getDecorView();
+
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                decorView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        StartupTracer.mark(StartupTracer.FIRST_FRAME);
+                        runDeferredStartup();
+                    }
+                });
+
+                return true;
+            }
+        });
+    }
+
+    /**
+     * This helper method runs the startup work that the first frame does not need. It asks
+     * for permission if required. On a background thread, it deletes leftover temporary
+     * files and loads the upload queue, scheduling it in case clips are still waiting.
+     * The queue is then shown on the main thread.
+     */
+    private void runDeferredStartup() {
+        managePermissions();
+
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ClipAdapter.clearCache(MainActivity.this);
+                final UploadQueue queue = UploadQueue.getInstance(MainActivity.this);
+
+                if (queue.hasPending())
+                    UploadService.schedule(MainActivity.this);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isDestroyed())
+                            showUploadQueue(queue);
+
+                        StartupTracer.mark(StartupTracer.DEFERRED_DONE);
+                    }
+                });
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * This helper method starts showing the upload queue above the feed and enables the
+     * menu item that depends on it.
+     * @param queue shared UploadQueue
+     */
+    private void showUploadQueue(UploadQueue queue) {
+        uploadQueue = queue;
+        uploadListener = new UploadQueue.Listener() {
+            @Override
+            public void onQueueChanged(List<UploadQueue.Entry> entries) {
+                showUploadStatus(entries);
+            }
+        };
+        uploadQueue.addListener(uploadListener);
+        showUploadStatus(uploadQueue.getEntries());
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * This method is called when the main activity is destroyed. It releases the adapter's
+     * database subscriptions, stops autoplaying and stops showing the upload queue.
+     */
+    @Override
+    protected void onDestroy() {
+        autoplayController.setEnabled(false);
+
+        if (uploadQueue != null)
+            uploadQueue.removeListener(uploadListener);
+
+        clipAdapter.release();
+        super.onDestroy();
+    }
+
+    /**
+     * This helper method summarizes the upload queue in the status bar above the feed:
+     * how many clips are uploading or waiting, how far a clip being transcoded is, and how
+     * many failed. The bar is hidden when the queue is empty.
+     * @param entries in the upload queue
+     */
+    private void showUploadStatus(List<UploadQueue.Entry> entries) {
+        int uploading = 0;
+        int failed = 0;
+        UploadQueue.Entry transcoding = null;
+
+        for (UploadQueue.Entry entry : entries) {
+            if (entry.getState() == UploadQueue.State.UPLOADING)
+                uploading++;
+            else if (entry.getState() == UploadQueue.State.FAILED)
+                failed++;
+
+            if (transcoding == null && entry.isTranscoding())
+                transcoding = entry;
+        }
+
+        int waiting = entries.size() - failed;
+
+        if (entries.isEmpty()) {
+            uploadStatus.setVisibility(View.GONE);
+            return;
+        }
+
+        if (failed > 0)
+            uploadStatus.setText(getString(R.string.uploadFailed, failed));
+        else if (transcoding != null)
+            uploadStatus.setText(getString(R.string.uploadTranscoding,
+                    (int) (transcoding.getTranscodeProgress() * PERCENT), waiting));
+        else if (uploading > 0)
+            uploadStatus.setText(getString(R.string.uploadStatus, uploading, waiting));
+        else if (uploadQueue.isUnmeteredOnly())
+            uploadStatus.setText(getString(R.string.uploadWaitingUnmetered, waiting));
+        else
+            uploadStatus.setText(getString(R.string.uploadWaiting, waiting));
+
+        uploadStatus.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * This method is called by dumpsys. Given the metrics argument, it writes the Metrics
+     * registry as JSON instead of the usual dump, such as for
+     * adb shell dumpsys activity com.example.michaelcolomb.clipscroller/.MainActivity metrics
+     * @param prefix to put before each line
+     * @param fd file descriptor of the output
+     * @param writer to write to
+     * @param args given to dumpsys after the activity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args == null || args.length == 0 || !DUMP_METRICS.equals(args[0])) {
+            super.dump(prefix, fd, writer, args);
+            return;
+        }
+
+        try {
+            Metrics.dump(writer);
+            writer.println();
+        } catch (IOException e) {
+            writer.println("Failed to dump metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method is called when the user taps the upload status. It retries the uploads
+     * that ran out of attempts.
+     * @param view of the upload status
+     */
+    public void retryUploads(View view) {
+        if (uploadQueue != null)
+            uploadQueue.retryFailed();
     }
 
     /**
      * This method inflates the action bar menu. It allows users to decide how to
-     * rank videos and when to refresh.
+     * rank videos and when to refresh. The unmetered item is enabled once the upload queue
+     * has loaded.
      * @param menu to inflate
      * @return true upon successful inflation
      */
@@ -75,6 +271,9 @@ public class MainActivity extends AppCompatActivity {
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.action_menu, menu);mMenu = menu;
+        MenuItem unmeteredItem = menu.findItem(R.id.unmetered_only);
+        unmeteredItem.setEnabled(uploadQueue != null);
+        unmeteredItem.setChecked(uploadQueue != null && uploadQueue.isUnmeteredOnly());
         return true;
     }
 
@@ -128,7 +327,9 @@ public class MainActivity extends AppCompatActivity {
     /**
      * This method responds to a click on a menu item. If the ranking button is selected, its
      * state is toggled, changing appropriate UI elements and updating the ClipRank class.
-     * After either menu item is selected, the recycler view will update.
+     * After either menu item is selected, the live feed is ranked again and the rows that
+     * moved are updated in place. The unmetered item toggles whether clips only upload over
+     * Wi-Fi.
      * @param item MenuItem that was selected
      * @return true upon successful completion
      */
@@ -137,6 +338,13 @@ public class MainActivity extends AppCompatActivity {
         boolean trendingSelected = item.getItemId() == R.id.trending;
         boolean refreshSelected = item.getItemId() == R.id.refresh;
 
+        if (item.getItemId() == R.id.unmetered_only) {
+            item.setChecked(!item.isChecked());
+            uploadQueue.setUnmeteredOnly(item.isChecked());
+            showUploadStatus(uploadQueue.getEntries());
+            return true;
+        }
+
         if (trendingSelected) {
             MenuItem trendingItem = mMenu.findItem(R.id.trending);
 
@@ -161,11 +369,41 @@ public class MainActivity extends AppCompatActivity {
             }
         }
 
-        if (trendingSelected || refreshSelected) {
-            clipAdapter = ClipAdapter.create(this, mEntriesReference);
-            mRecyclerView.setAdapter(clipAdapter);
-        }
+        if (trendingSelected || refreshSelected)
+            clipAdapter.refresh();
 
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * This class defines a scroll listener that loads the next page of clips when the
+     * user scrolls close to the end of the loaded list.
+     */
+    private class pageLoader extends RecyclerView.OnScrollListener {
+
+        private LinearLayoutManager layoutManager;
+
+        /**
+         * This constructor stores the layout manager used to find the visible rows.
+         * @param layoutManager layout manager of the recycler view
+         */
+        public pageLoader(LinearLayoutManager layoutManager) {
+            this.layoutManager = layoutManager;
+        }
+
+        /**
+         * This method is called as the recycler view scrolls. It asks the current adapter
+         * for the next page when the last visible row is near the end of the list.
+         * @param recyclerView that scrolled
+         * @param dx horizontal scroll distance
+         * @param dy vertical scroll distance
+         */
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            int lastVisiblePosition = layoutManager.findLastVisibleItemPosition();
+
+            if (dy > 0 && clipAdapter.isNearEnd(lastVisiblePosition))
+                clipAdapter.loadNextPage();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.os.SystemClock;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is the application's registry of counters, gauges and histograms. Metrics are
+ * looked up by name once, usually into a static field, and then updated without locks, so
+ * they can be used on the bind and playback paths. Counters and the counts of histograms
+ * are striped across several padded cells chosen by thread, so threads updating the same
+ * metric do not contend for one cache line. Histograms sort values into power of two
+ * buckets. The whole registry can be written out as JSON with dump, such as by
+ * MainActivity when asked by dumpsys.
+ * @author colomb2
+ */
+
+public class Metrics {
+
+    protected static final int BUCKETS = 40;
+    private static final int STRIPES = 8;
+    private static final int PADDING = 8;
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms =
+            new ConcurrentHashMap<>();
+
+    /**
+     * This method returns the counter with the given name, creating it on first use.
+     * @param name of the counter
+     * @return the shared Counter
+     */
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+
+            if (counter == null)
+                counter = created;
+        }
+
+        return counter;
+    }
+
+    /**
+     * This method returns the gauge with the given name, creating it on first use.
+     * @param name of the gauge
+     * @return the shared Gauge
+     */
+    public static Gauge gauge(String name) {
+        Gauge gauge = gauges.get(name);
+
+        if (gauge == null) {
+            Gauge created = new Gauge();
+            gauge = gauges.putIfAbsent(name, created);
+
+            if (gauge == null)
+                gauge = created;
+        }
+
+        return gauge;
+    }
+
+    /**
+     * This method returns the histogram with the given name, creating it on first use.
+     * @param name of the histogram
+     * @return the shared Histogram
+     */
+    public static Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+
+            if (histogram == null)
+                histogram = created;
+        }
+
+        return histogram;
+    }
+
+    /**
+     * This method sets every metric back to zero, keeping the metrics registered.
+     */
+    public static void reset() {
+        for (Counter counter : counters.values())
+            counter.reset();
+
+        for (Gauge gauge : gauges.values())
+            gauge.set(0);
+
+        for (Histogram histogram : histograms.values())
+            histogram.reset();
+    }
+
+    /**
+     * This method writes every metric as a JSON object, sorted by name. Histograms give
+     * their count, sum, mean, max, approximate percentiles and non-empty buckets, each
+     * bucket as its upper bound and count. Metrics still being updated may be off by the
+     * updates made while they are written.
+     * @param writer to write to, which is not closed
+     * @throws IOException if the writer fails
+     */
+    public static void dump(Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("uptime_ms").value(SystemClock.elapsedRealtime());
+
+        json.name("counters").beginObject();
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet())
+            json.name(entry.getKey()).value(entry.getValue().get());
+        json.endObject();
+
+        json.name("gauges").beginObject();
+        for (Map.Entry<String, Gauge> entry : new TreeMap<>(gauges).entrySet())
+            json.name(entry.getKey()).value(entry.getValue().get());
+        json.endObject();
+
+        json.name("histograms").beginObject();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            json.name(entry.getKey());
+            entry.getValue().write(json);
+        }
+        json.endObject();
+
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * This helper method picks the stripe of the calling thread.
+     * @return index of the first long of the thread's padded cell
+     */
+    private static int stripe() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * This class defines a count that only goes up, such as of cache hits.
+     */
+    public static class Counter {
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+        Counter() { }
+
+        public void increment() {
+            cells.getAndIncrement(stripe());
+        }
+
+        public void add(long amount) {
+            cells.getAndAdd(stripe(), amount);
+        }
+
+        /**
+         * This method sums the counter's cells.
+         * @return the count
+         */
+        public long get() {
+            long sum = 0;
+
+            for (int i = 0; i < STRIPES; i++)
+                sum += cells.get(i * PADDING);
+
+            return sum;
+        }
+
+        private void reset() {
+            for (int i = 0; i < STRIPES; i++)
+                cells.set(i * PADDING, 0);
+        }
+    }
+
+    /**
+     * This class defines a value that is set as it changes, such as the bytes in a cache.
+     */
+    public static class Gauge {
+
+        private final AtomicLong value = new AtomicLong();
+
+        Gauge() { }
+
+        public void set(long value) {
+            this.value.set(value);
+        }
+
+        public void add(long amount) {
+            value.getAndAdd(amount);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * This class defines a distribution of values, such as latencies or sizes. Bucket i
+     * holds the values below 2^i that are at least 2^(i-1), and the last bucket holds
+     * every larger value. Negative values are counted as zero.
+     */
+    public static class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final Counter count = new Counter();
+        private final Counter sum = new Counter();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() { }
+
+        /**
+         * This method adds a value to the distribution.
+         * @param value to add
+         */
+        public void record(long value) {
+            value = Math.max(0, value);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+
+            buckets.getAndIncrement(bucket);
+            count.increment();
+            sum.add(value);
+
+            long currentMax = max.get();
+
+            while (value > currentMax && !max.compareAndSet(currentMax, value))
+                currentMax = max.get();
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * This method estimates a percentile as the upper bound of the bucket it falls in,
+         * capped at the largest value recorded.
+         * @param percentile between 0 and 1
+         * @return the estimate, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+
+                if (seen >= rank && snapshot[i] > 0)
+                    return Math.min(upperBound(i), max.get());
+            }
+
+            return 0;
+        }
+
+        /**
+         * This helper method writes the histogram as a JSON object.
+         * @param json to write to
+         * @throws IOException if the writer fails
+         */
+        private void write(JsonWriter json) throws IOException {
+            long histogramCount = getCount();
+
+            json.beginObject();
+            json.name("count").value(histogramCount);
+            json.name("sum").value(getSum());
+            json.name("mean").value(histogramCount == 0 ? 0
+                    : getSum() / (double) histogramCount);
+            json.name("max").value(getMax());
+
+            for (double percentile : PERCENTILES)
+                json.name("p" + Math.round(percentile * 100)).value(getPercentile(percentile));
+
+            json.name("buckets").beginArray();
+
+            for (int i = 0; i < BUCKETS; i++) {
+                long bucketCount = buckets.get(i);
+
+                if (bucketCount > 0)
+                    json.beginArray().value(upperBound(i)).value(bucketCount).endArray();
+            }
+
+            json.endArray();
+            json.endObject();
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++)
+                buckets.set(i, 0);
+
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+
+        /**
+         * This helper method returns the largest value a bucket holds.
+         * @param bucket index of the bucket
+         * @return its largest value, or Long.MAX_VALUE for the last bucket
+         */
+        private static long upperBound(int bucket) {
+            return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+    }
+}
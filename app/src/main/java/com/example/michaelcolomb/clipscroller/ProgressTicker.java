@@ -0,0 +1,178 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.widget.MediaController;
+import android.widget.ProgressBar;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class keeps the progress bars of playing clips in step with their videos from a
+ * single display frame callback. Every tracked bar is updated in one pass per frame, so
+ * the main thread wakes at most once per refresh however many clips are playing. Bars
+ * that are off the screen are only updated every OFFSCREEN_INTERVAL, and the callback is
+ * not posted at all while nothing is playing. All methods must be called on the main
+ * thread.
+ * @author colomb2
+ */
+
+public class ProgressTicker implements Choreographer.FrameCallback {
+
+    protected static final long OFFSCREEN_INTERVAL = 250;
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private static ProgressTicker instance;
+
+    private final List<Binding> bindings;
+    private final Rect visibleRect;
+    private boolean ticking;
+    private long wakeupCount;
+    private long statsStartTime;
+
+    /**
+     * This constructor creates a ticker that is not tracking any progress bars.
+     */
+    ProgressTicker() {
+        this.bindings = new ArrayList<>();
+        this.visibleRect = new Rect();
+        this.statsStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * This method returns the application's shared ticker.
+     * @return the shared ProgressTicker
+     */
+    public static ProgressTicker getInstance() {
+        if (instance == null)
+            instance = new ProgressTicker();
+
+        return instance;
+    }
+
+    /**
+     * This method starts updating a progress bar from a playing video until the video
+     * stops playing. A bar that is already tracked is moved to the new video. The next
+     * update is on the next frame, even if the ticker was waiting on off-screen bars.
+     * @param progressBar ProgressBar to update
+     * @param player video to sync the progress bar with
+     */
+    public void track(ProgressBar progressBar, MediaController.MediaPlayerControl player) {
+        untrack(progressBar);
+        bindings.add(new Binding(progressBar, player));
+
+        Choreographer choreographer = Choreographer.getInstance();
+        choreographer.removeFrameCallback(this);
+        choreographer.postFrameCallback(this);
+        ticking = true;
+    }
+
+    /**
+     * This method stops updating a progress bar.
+     * @param progressBar ProgressBar to stop updating
+     */
+    public void untrack(ProgressBar progressBar) {
+        Iterator<Binding> iterator = bindings.iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().progressBar == progressBar)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * This method is called once per display frame while a tracked video is playing. It
+     * updates every visible bar, and every off-screen bar whose interval has passed, and
+     * forgets the bars whose videos stopped after giving them their final position. The
+     * next callback is posted for the next frame, or after OFFSCREEN_INTERVAL if every bar
+     * is off the screen.
+     * @param frameTimeNanos time of the frame
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        wakeupCount++;
+        boolean anyVisible = false;
+        Iterator<Binding> iterator = bindings.iterator();
+
+        while (iterator.hasNext()) {
+            Binding binding = iterator.next();
+            boolean playing = binding.player.isPlaying();
+            boolean visible = isVisible(binding.progressBar);
+
+            if (!playing || visible || frameTimeNanos - binding.lastUpdateNanos
+                    >= OFFSCREEN_INTERVAL * NANOS_PER_MILLI) {
+                binding.progressBar.setProgress(binding.player.getCurrentPosition());
+                binding.lastUpdateNanos = frameTimeNanos;
+            }
+
+            if (!playing)
+                iterator.remove();
+            else
+                anyVisible |= visible;
+        }
+
+        if (bindings.isEmpty())
+            ticking = false;
+        else if (anyVisible)
+            Choreographer.getInstance().postFrameCallback(this);
+        else
+            Choreographer.getInstance().postFrameCallbackDelayed(this, OFFSCREEN_INTERVAL);
+    }
+
+    /**
+     * This helper method checks whether any part of a progress bar is on the screen.
+     * @param progressBar ProgressBar to check
+     * @return true if the bar is shown and not scrolled out of its window
+     */
+    private boolean isVisible(ProgressBar progressBar) {
+        return progressBar.isShown() && progressBar.getGlobalVisibleRect(visibleRect);
+    }
+
+    public boolean isTicking() {
+        return ticking;
+    }
+
+    public int getTrackedCount() {
+        return bindings.size();
+    }
+
+    /**
+     * This method returns how many times per second the ticker has woken the main thread
+     * since its statistics were last reset.
+     * @return frame callbacks per second
+     */
+    public double getWakeupsPerSecond() {
+        long elapsed = SystemClock.elapsedRealtime() - statsStartTime;
+        return elapsed <= 0 ? 0 : wakeupCount * 1000.0 / elapsed;
+    }
+
+    public long getWakeupCount() {
+        return wakeupCount;
+    }
+
+    /**
+     * This method starts counting wakeups from zero.
+     */
+    public void resetStats() {
+        wakeupCount = 0;
+        statsStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * This class holds a tracked progress bar, its video and when it was last updated.
+     */
+    private static class Binding {
+
+        private final ProgressBar progressBar;
+        private final MediaController.MediaPlayerControl player;
+        private long lastUpdateNanos;
+
+        public Binding(ProgressBar progressBar, MediaController.MediaPlayerControl player) {
+            this.progressBar = progressBar;
+            this.player = player;
+        }
+    }
+}
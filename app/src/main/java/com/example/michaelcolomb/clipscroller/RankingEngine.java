@@ -0,0 +1,204 @@
+package com.example.michaelcolomb.clipscroller;
+
+/**
+ * This class ranks clips without creating an object per clip. Candidates are added into
+ * parallel primitive arrays, scored against a single time by a ScoringStrategy, and the
+ * best K are selected with a bounded heap and then sorted. The arrays are kept between
+ * rankings, so ranking the same number of clips again allocates nothing.
+ * @author colomb2
+ */
+
+public class RankingEngine {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private String[] hashes;
+    private long[] times;
+    private int[] voteCounts;
+    private double[] scores;
+    private int[] heap;
+    private int[] ranked;
+    private int size;
+    private int rankedCount;
+
+    public RankingEngine() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * This constructor creates an engine with room for the given number of candidates
+     * before its arrays need to grow.
+     * @param capacity expected number of candidates
+     */
+    public RankingEngine(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.hashes = new String[capacity];
+        this.times = new long[capacity];
+        this.voteCounts = new int[capacity];
+        this.scores = new double[capacity];
+        this.heap = new int[capacity];
+        this.ranked = new int[capacity];
+    }
+
+    /**
+     * This method adds a clip to be ranked.
+     * @param hash key of the clip
+     * @param time epoch time that the clip was created
+     * @param voteCount net vote count of the clip
+     */
+    public void add(String hash, long time, int voteCount) {
+        if (size == times.length)
+            grow();
+
+        hashes[size] = hash;
+        times[size] = time;
+        voteCounts[size] = voteCount;
+        size++;
+    }
+
+    /**
+     * This method removes every candidate, keeping the arrays for the next ranking.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            hashes[i] = null;
+
+        size = 0;
+        rankedCount = 0;
+    }
+
+    /**
+     * This method scores every candidate against the same time and selects the best
+     * limit of them, best first. Candidates with equal scores keep the order they were
+     * added in. The result is read with getRankedCount and getRankedHash.
+     * @param strategy scoring to rank by
+     * @param now epoch time to score every candidate against
+     * @param limit maximum number of candidates to select
+     * @return number of candidates selected
+     */
+    public int rank(ScoringStrategy strategy, long now, int limit) {
+        int k = Math.min(Math.max(limit, 0), size);
+
+        for (int i = 0; i < size; i++)
+            scores[i] = strategy.score(times[i], voteCounts[i], now);
+
+        // Keep the best k in a heap with the worst of them at the root.
+        int heapSize = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (heapSize < k) {
+                heap[heapSize] = i;
+                siftUp(heapSize++);
+            } else if (k > 0 && isBetter(i, heap[0])) {
+                heap[0] = i;
+                siftDown(0, heapSize);
+            }
+        }
+
+        // Removing the worst repeatedly fills the result from the back.
+        for (int end = heapSize - 1; end >= 0; end--) {
+            ranked[end] = heap[0];
+            heap[0] = heap[end];
+            siftDown(0, end);
+        }
+
+        rankedCount = k;
+        return k;
+    }
+
+    /**
+     * This helper method decides whether one candidate ranks above another.
+     * @param first index of a candidate
+     * @param second index of another candidate
+     * @return true if first ranks above second
+     */
+    private boolean isBetter(int first, int second) {
+        int comparison = Double.compare(scores[first], scores[second]);
+        return comparison > 0 || (comparison == 0 && first < second);
+    }
+
+    private void siftUp(int position) {
+        int candidate = heap[position];
+
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+
+            if (!isBetter(heap[parent], candidate))
+                break;
+
+            heap[position] = heap[parent];
+            position = parent;
+        }
+
+        heap[position] = candidate;
+    }
+
+    private void siftDown(int position, int heapSize) {
+        int candidate = heap[position];
+
+        while (true) {
+            int child = 2 * position + 1;
+
+            if (child >= heapSize)
+                break;
+
+            if (child + 1 < heapSize && isBetter(heap[child], heap[child + 1]))
+                child++;
+
+            if (!isBetter(candidate, heap[child]))
+                break;
+
+            heap[position] = heap[child];
+            position = child;
+        }
+
+        heap[position] = candidate;
+    }
+
+    /**
+     * This helper method doubles the capacity of the candidate arrays.
+     */
+    private void grow() {
+        int capacity = times.length * 2;
+        String[] newHashes = new String[capacity];
+        long[] newTimes = new long[capacity];
+        int[] newVoteCounts = new int[capacity];
+
+        System.arraycopy(hashes, 0, newHashes, 0, size);
+        System.arraycopy(times, 0, newTimes, 0, size);
+        System.arraycopy(voteCounts, 0, newVoteCounts, 0, size);
+
+        hashes = newHashes;
+        times = newTimes;
+        voteCounts = newVoteCounts;
+        scores = new double[capacity];
+        heap = new int[capacity];
+        ranked = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getRankedCount() {
+        return rankedCount;
+    }
+
+    /**
+     * This method returns the hash of a selected candidate.
+     * @param position in the ranking, 0 being best
+     * @return hash of the candidate at that position
+     */
+    public String getRankedHash(int position) {
+        return hashes[ranked[position]];
+    }
+
+    /**
+     * This method returns the score of a selected candidate.
+     * @param position in the ranking, 0 being best
+     * @return score of the candidate at that position
+     */
+    public double getRankedScore(int position) {
+        return scores[ranked[position]];
+    }
+}
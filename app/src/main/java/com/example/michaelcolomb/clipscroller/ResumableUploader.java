@@ -0,0 +1,249 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.storage.OnProgressListener;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * This class uploads files to Firebase Storage in resumable upload sessions. The session
+ * uri of each upload and the bytes sent in it are saved in SharedPreferences as the
+ * upload progresses. If the upload fails, is cancelled, or the process dies, uploading the
+ * same source to the same name later hands the saved session back to Firebase Storage,
+ * which asks the server how much it committed and continues from there rather than byte
+ * zero. A session is only given up, and the upload started again, when the server no
+ * longer has it. Callbacks are called on the main thread.
+ * @author colomb2
+ */
+
+public class ResumableUploader {
+
+    private static final String TAG = "ResumableUploader";
+    protected static final String PREFERENCES_NAME = "resumable_uploads";
+    private static final String SESSION_URI = "uri";
+    private static final String SESSION_SENT = "sent";
+    private static final String SESSION_SOURCE = "source";
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_GONE = 410;
+
+    private final SharedPreferences preferences;
+    private final StorageReference root;
+
+    /**
+     * This constructor creates an uploader for the objects under a storage reference.
+     * @param context to use for android interaction
+     * @param root StorageReference that object names are resolved against
+     */
+    public ResumableUploader(Context context, StorageReference root) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.root = root;
+    }
+
+    /**
+     * This method checks whether an upload to the given name was interrupted and can be
+     * resumed.
+     * @param name storage path of the object
+     * @return true if a session is saved for the name
+     */
+    public boolean hasSession(String name) {
+        return preferences.contains(name);
+    }
+
+    /**
+     * This method returns how many bytes of an interrupted upload were sent. The server
+     * may not have committed all of them, so a resumed upload can send some again.
+     * @param name storage path of the object
+     * @return bytes sent in the saved session, or 0 if there is none
+     */
+    public long getSentBytes(String name) {
+        String saved = preferences.getString(name, null);
+
+        if (saved == null)
+            return 0;
+
+        try {
+            return new JSONObject(saved).getLong(SESSION_SENT);
+        } catch (JSONException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * This method uploads a file, resuming a saved session for the same source and name if
+     * there is one. The session is forgotten once the upload completes. If it fails or is
+     * cancelled, the session is kept, so that a later call can resume it.
+     * @param source uri of the file to upload
+     * @param name storage path of the object
+     * @param callback given the object's download url once the upload completes
+     * @return transfer that stops the upload
+     */
+    public ClipBackend.Transfer upload(Uri source, String name,
+                                       ClipBackend.Callback<String> callback) {
+        Upload upload = new Upload();
+        start(source, name, loadSession(name, source), upload, callback);
+        return upload;
+    }
+
+    /**
+     * This helper method starts an upload task, in the given session or a new one. If the
+     * server has lost the given session, the upload is started once more in a new one.
+     * @param source uri of the file to upload
+     * @param name storage path of the object
+     * @param sessionUri of the session to resume, or null to start a new one
+     * @param upload transfer that the task is handed to
+     * @param callback given the object's download url once the upload completes
+     */
+    private void start(final Uri source, final String name, final Uri sessionUri,
+                       final Upload upload, final ClipBackend.Callback<String> callback) {
+        if (upload.isCancelled())
+            return;
+
+        StorageReference reference = root.child(name);
+        UploadTask task = sessionUri == null ? reference.putFile(source)
+                : reference.putFile(source, new StorageMetadata.Builder().build(), sessionUri);
+        upload.setTask(task);
+
+        task.addOnProgressListener(new OnProgressListener<UploadTask.TaskSnapshot>() {
+            @Override
+            public void onProgress(UploadTask.TaskSnapshot taskSnapshot) {
+                Uri uploadSessionUri = taskSnapshot.getUploadSessionUri();
+
+                if (uploadSessionUri != null)
+                    saveSession(name, source, uploadSessionUri,
+                            taskSnapshot.getBytesTransferred());
+            }
+        }).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
+            @Override
+            public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
+                clearSession(name);
+                callback.onSuccess(taskSnapshot.getDownloadUrl().toString());
+            }
+        }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception exception) {
+                if (sessionUri != null && exception instanceof StorageException
+                        && isSessionGone(((StorageException) exception).getHttpResultCode())) {
+                    Log.w(TAG, "Session for " + name + " is gone, starting again", exception);
+                    clearSession(name);
+                    start(source, name, null, upload, callback);
+                } else {
+                    callback.onFailure(exception);
+                }
+            }
+        });
+    }
+
+    /**
+     * This method checks whether a failed request means the server no longer has the
+     * session. Other failures, such as a denied permission or a bad request, would fail
+     * a new session just the same, so they keep the session and fail the upload.
+     * @param httpResultCode of the failed request
+     * @return true if the upload should start again in a new session
+     */
+    static boolean isSessionGone(int httpResultCode) {
+        return httpResultCode == HTTP_NOT_FOUND || httpResultCode == HTTP_GONE;
+    }
+
+    /**
+     * This method loads the session saved for a name, if it belongs to the same source.
+     * A session saved for another source is forgotten.
+     * @param name storage path of the object
+     * @param source uri of the file to upload
+     * @return uri of the saved session, or null if there is none
+     */
+    Uri loadSession(String name, Uri source) {
+        String saved = preferences.getString(name, null);
+
+        if (saved == null)
+            return null;
+
+        try {
+            JSONObject json = new JSONObject(saved);
+
+            if (source.toString().equals(json.getString(SESSION_SOURCE)))
+                return Uri.parse(json.getString(SESSION_URI));
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding unreadable session for " + name, e);
+        }
+
+        clearSession(name);
+        return null;
+    }
+
+    /**
+     * This method saves a session, with the source it belongs to and the bytes sent in it,
+     * for the name.
+     * @param name storage path of the object
+     * @param source uri of the file to upload
+     * @param sessionUri of the session
+     * @param sentBytes bytes sent in the session
+     */
+    void saveSession(String name, Uri source, Uri sessionUri, long sentBytes) {
+        try {
+            String saved = new JSONObject()
+                    .put(SESSION_URI, sessionUri.toString())
+                    .put(SESSION_SENT, sentBytes)
+                    .put(SESSION_SOURCE, source.toString())
+                    .toString();
+            preferences.edit().putString(name, saved).apply();
+        } catch (JSONException e) {
+            Log.w(TAG, "Unable to save session for " + name, e);
+        }
+    }
+
+    /**
+     * This helper method forgets the saved session for a name.
+     * @param name storage path of the object
+     */
+    private void clearSession(String name) {
+        preferences.edit().remove(name).apply();
+    }
+
+    /**
+     * This class defines the transfer returned for an upload. Cancelling it pauses the
+     * upload's task rather than cancelling it, because a cancelled task ends its session on
+     * the server, and the session is what lets a later upload resume.
+     */
+    private static class Upload implements ClipBackend.Transfer {
+
+        private volatile UploadTask task;
+        private volatile boolean cancelled;
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            UploadTask current = task;
+
+            if (current != null)
+                current.pause();
+        }
+
+        /**
+         * This method hands the upload the task that is sending it, pausing the task at
+         * once if the upload was cancelled while it started.
+         * @param task sending the upload
+         */
+        public void setTask(UploadTask task) {
+            this.task = task;
+
+            if (cancelled)
+                task.pause();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.michaelcolomb.clipscroller;
+
+/**
+ * This interface defines how a clip is scored for ranking. Higher scores rank first.
+ * Every clip in a ranking is scored against the same time, so that scores in one batch
+ * are comparable.
+ * @author colomb2
+ */
+
+public interface ScoringStrategy {
+
+    long MINUTE = 60000;
+    long HOT_DECAY = 45000000;
+
+    /**
+     * This strategy ranks the newest clips first.
+     */
+    ScoringStrategy RECENCY = new ScoringStrategy() {
+        @Override
+        public double score(long time, int voteCount, long now) {
+            return -(double) (now - time);
+        }
+    };
+
+    /**
+     * This strategy ranks clips by their vote count, less one for every minute since
+     * they were created.
+     */
+    ScoringStrategy TRENDING = new ScoringStrategy() {
+        @Override
+        public double score(long time, int voteCount, long now) {
+            return voteCount - (now - time) / MINUTE;
+        }
+    };
+
+    /**
+     * This strategy ranks clips by the order of magnitude of their vote count plus a bonus
+     * that grows with creation time, so every tenfold increase in votes is worth the same
+     * as being HOT_DECAY milliseconds newer. Scores do not depend on the current time.
+     */
+    ScoringStrategy HOT = new ScoringStrategy() {
+        @Override
+        public double score(long time, int voteCount, long now) {
+            double order = Math.log10(Math.max(Math.abs(voteCount), 1));
+            return Math.signum(voteCount) * order + (double) time / HOT_DECAY;
+        }
+    };
+
+    /**
+     * This method scores a clip.
+     * @param time epoch time that the clip was created
+     * @param voteCount net vote count of the clip
+     * @param now epoch time that the ranking is computed at
+     * @return score of the clip, higher first
+     */
+    double score(long time, int voteCount, long now);
+}
@@ -0,0 +1,87 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class times the stages of starting the application, from the start of its process
+ * to the first frame, the first clip title shown and the first clip ready to play. Each
+ * stage is recorded the first time it is reached and logged with the milliseconds since
+ * the process started, so cold start regressions show up in the log and in benchmarks.
+ * Each stage is also kept as a Metrics gauge. Stages may be marked from any thread.
+ * @author colomb2
+ */
+
+public class StartupTracer {
+
+    public static final String APPLICATION_CREATED = "application_created";
+    public static final String ACTIVITY_CREATED = "activity_created";
+    public static final String FIRST_FRAME = "first_frame";
+    public static final String FIRST_TITLE = "first_title";
+    public static final String FIRST_PLAYABLE = "first_playable";
+    public static final String DEFERRED_DONE = "deferred_done";
+
+    private static final String TAG = "StartupTracer";
+
+    private static final Map<String, Long> stages = new LinkedHashMap<>();
+    private static long startTime = getProcessStartTime();
+
+    /**
+     * This method records that a stage was reached, unless it was reached before.
+     * @param stage name of the stage
+     */
+    public static synchronized void mark(String stage) {
+        if (stages.containsKey(stage))
+            return;
+
+        long millis = SystemClock.elapsedRealtime() - startTime;
+        stages.put(stage, millis);
+        Metrics.gauge("startup." + stage + "_ms").set(millis);
+        Log.i(TAG, stage + ": " + millis + " ms");
+    }
+
+    /**
+     * This method returns when a stage was reached.
+     * @param stage name of the stage
+     * @return milliseconds from the start to the stage, or -1 if it was not reached
+     */
+    public static synchronized long getStageMillis(String stage) {
+        Long millis = stages.get(stage);
+        return millis == null ? -1 : millis;
+    }
+
+    /**
+     * This method returns every stage reached so far, in the order they were reached.
+     * @return milliseconds from the start to each stage
+     */
+    public static synchronized Map<String, Long> getStages() {
+        return new LinkedHashMap<>(stages);
+    }
+
+    /**
+     * This method forgets the stages reached and starts timing from now, so a launch of
+     * the activity in a process that is already running can be timed.
+     */
+    public static synchronized void reset() {
+        stages.clear();
+        startTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * This helper method finds when the process started. Before Android N this is not
+     * available, so the time this class is first used is taken instead, which is when the
+     * application is created.
+     * @return elapsed realtime at which the process started
+     */
+    private static long getProcessStartTime() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            return Process.getStartElapsedRealtime();
+
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -4,7 +4,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
 import android.app.Fragment;
 import android.support.v7.app.AppCompatActivity;
 import android.text.Editable;
@@ -21,13 +20,6 @@ import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.VideoView;
 
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.storage.FirebaseStorage;
-import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
 
 /**
  * This class defines the submission activity for submitting new clips to the application.
@@ -43,7 +35,7 @@ public class SubmissionActivity extends AppCompatActivity {
     private static final int PLAY_WIDTH = 300;
     private static final int PLAY_HEIGHT = 300;
     private static final String VIDEO_FILTER = "video/*";
-    private static final String VIDEO_DIRECTORY = "video/";
+    private static final String TAG = "SubmissionActivity";
 
     private EditText mEditTitleView;
     private View clipFragmentView;
@@ -95,12 +87,15 @@ public class SubmissionActivity extends AppCompatActivity {
     /**
      * This method prompts the user for a video to store. A new window will be launched for
      * the user to choose from videos in their media gallery or other location of their choosing.
+     * The video is opened as a document, so that permission to read it can be kept until
+     * the UploadQueue has uploaded it.
      * http://stackoverflow.com/questions/4922037/android-let-user-pick-image-or-video-from-gallery
      * @param view of the upload button
      */
     public void retrieveMedia(View view) {
         Intent pickIntent = new Intent();
-        pickIntent.setAction(Intent.ACTION_GET_CONTENT);
+        pickIntent.setAction(Intent.ACTION_OPEN_DOCUMENT);
+        pickIntent.addCategory(Intent.CATEGORY_OPENABLE);
         pickIntent.setType(VIDEO_FILTER);
         Intent videoIntent = Intent.createChooser(pickIntent, getString(R.string.pickVideo));
         startActivityForResult(videoIntent, MEDIA_CODE);
@@ -108,8 +103,8 @@ public class SubmissionActivity extends AppCompatActivity {
 
     /**
      * This method will respond when the upload intent has finished. If the result was
-     * successful, the preview fragment fields are populated and the fragment is made
-     * visible.
+     * successful, permission to read the video is persisted, and the preview fragment fields
+     * are populated and the fragment is made visible.
      * @param requestCode code that identifies the activity result
      * @param resultCode code that describes the success of the acvtivity intent
      * @param data that contains the selected video
@@ -117,6 +112,14 @@ public class SubmissionActivity extends AppCompatActivity {
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (resultCode == RESULT_OK && requestCode == MEDIA_CODE) {
             clipData = data.getData();
+
+            try {
+                getContentResolver().takePersistableUriPermission(clipData,
+                        Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException e) {
+                Log.w(TAG, "Unable to keep permission to read " + clipData, e);
+            }
+
             clipFragment.setVideo(clipData);
             clipFragmentView.setVisibility(View.VISIBLE);
             preview.setVisibility(View.VISIBLE);
@@ -127,47 +130,22 @@ public class SubmissionActivity extends AppCompatActivity {
 
     /**
      * This method is called when the user chooses to submit their clip. It checks to ensure
-     * that the title field is not empty. Then, it stores the video in storage and pushes
-     * a newly made clip into the database, which includes the video storage address. After the
-     * clip is uploaded to the database/storage, the user is displayed a toast to inform them,
-     * and the activity finishes.
+     * that the title field is not empty. Then, the clip is added to the UploadQueue, which
+     * transcodes, uploads and adds it in the background, the user is displayed a toast to
+     * inform them, and the activity finishes.
      * @param view
      */
     public void submit(View view) {
-        final String title = mEditTitleView.getText().toString().trim();
-        final Context context = this;
+        String title = mEditTitleView.getText().toString().trim();
+        Context context = this;
 
         if (title.isEmpty()) {
             Toast.makeText(context, getString(R.string.emptyTitleOnSubmit), Toast.LENGTH_LONG).show();
             return;
         }
 
-        StorageReference videoStorageRef = FirebaseStorage.getInstance().getReference();
-        StorageReference videoRef = videoStorageRef.child(VIDEO_DIRECTORY + title);
-
-        videoRef.putFile(clipData)
-                .addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                    @Override
-                    public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                        // Get a URL to the uploaded content
-                        String downloadUrl = taskSnapshot.getDownloadUrl().toString();
-                        Clip addedClip = new Clip(title, downloadUrl);
-
-                        FirebaseDatabase mDatabase = FirebaseDatabase.getInstance();
-                        DatabaseReference mEntriesReference =
-                                mDatabase.getReference(MainActivity.CLIP_ADDRESS);
-
-                        mEntriesReference.push().setValue(addedClip);
-                    }
-                })
-                .addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception exception) {
-                        Toast.makeText(context, getString(R.string.failedToProcessVideo),
-                                Toast.LENGTH_LONG).show();
-                    }
-                });
-
+        submit.setEnabled(false);
+        UploadQueue.getInstance(context).enqueue(title, clipData);
         Toast.makeText(context, getString(R.string.successfulUpload), Toast.LENGTH_LONG).show();
         finish();
     }
@@ -0,0 +1,147 @@
+package com.example.michaelcolomb.clipscroller;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class defines a reference-counted registry of database subscriptions. Each database
+ * path has at most one ValueEventListener attached, which fans its updates out to every
+ * observer of that path. The listener is detached when its last observer unsubscribes,
+ * so listeners no longer pile up as views are rebound.
+ * @author colomb2
+ */
+
+public class SubscriptionRegistry {
+
+    private final Map<String, Subscription> subscriptions;
+
+    public SubscriptionRegistry() {
+        this.subscriptions = new HashMap<>();
+    }
+
+    /**
+     * This method subscribes an observer to a database path. The first observer of a path
+     * attaches a listener to the database; later observers share it and are immediately
+     * given the latest value if one has arrived.
+     * @param reference DatabaseReference of the path to observe
+     * @param observer listener to notify of changes to the path
+     */
+    public void subscribe(DatabaseReference reference, ValueEventListener observer) {
+        String path = reference.toString();
+        Subscription subscription = subscriptions.get(path);
+
+        if (subscription == null) {
+            subscription = new Subscription(reference);
+            subscriptions.put(path, subscription);
+            reference.addValueEventListener(subscription);
+        }
+
+        subscription.addObserver(observer);
+    }
+
+    /**
+     * This method unsubscribes an observer from a database path. The database listener is
+     * detached when the path has no observers left.
+     * @param reference DatabaseReference of the observed path
+     * @param observer listener that was subscribed
+     */
+    public void unsubscribe(DatabaseReference reference, ValueEventListener observer) {
+        String path = reference.toString();
+        Subscription subscription = subscriptions.get(path);
+
+        if (subscription != null && subscription.removeObserver(observer)) {
+            reference.removeEventListener(subscription);
+            subscriptions.remove(path);
+        }
+    }
+
+    /**
+     * This method detaches every database listener in the registry, for when its owner
+     * is discarded.
+     */
+    public void clear() {
+        for (Subscription subscription : subscriptions.values())
+            subscription.reference.removeEventListener(subscription);
+
+        subscriptions.clear();
+    }
+
+    /**
+     * This method returns the number of database listeners currently attached.
+     * @return number of live subscriptions
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * This method returns the number of observers across all subscriptions.
+     * @return number of observers
+     */
+    public int getObserverCount() {
+        int observerCount = 0;
+
+        for (Subscription subscription : subscriptions.values())
+            observerCount += subscription.observers.size();
+
+        return observerCount;
+    }
+
+    /**
+     * This class defines the single database listener for one path. It remembers the
+     * latest value and passes every update on to its observers.
+     */
+    private static class Subscription implements ValueEventListener {
+
+        private final DatabaseReference reference;
+        private final List<ValueEventListener> observers;
+        private DataSnapshot latestSnapshot;
+
+        public Subscription(DatabaseReference reference) {
+            this.reference = reference;
+            this.observers = new ArrayList<>();
+        }
+
+        /**
+         * This method adds an observer, passing it the latest value if there is one.
+         * @param observer listener to add
+         */
+        public void addObserver(ValueEventListener observer) {
+            observers.add(observer);
+
+            if (latestSnapshot != null)
+                observer.onDataChange(latestSnapshot);
+        }
+
+        /**
+         * This method removes an observer.
+         * @param observer listener to remove
+         * @return true if no observers are left
+         */
+        public boolean removeObserver(ValueEventListener observer) {
+            observers.remove(observer);
+            return observers.isEmpty();
+        }
+
+        @Override
+        public void onDataChange(DataSnapshot dataSnapshot) {
+            latestSnapshot = dataSnapshot;
+
+            for (ValueEventListener observer : new ArrayList<>(observers))
+                observer.onDataChange(dataSnapshot);
+        }
+
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            for (ValueEventListener observer : new ArrayList<>(observers))
+                observer.onCancelled(databaseError);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * This class connects a video decoder to a video encoder for the ClipTranscoder. The
+ * decoder renders into a SurfaceTexture, and each frame is drawn with OpenGL ES onto the
+ * encoder's input surface, which scales it to the encoder's size without copying it
+ * through the CPU. It must be created, used and released on one thread.
+ * @author colomb2
+ */
+
+class TranscodeSurface implements SurfaceTexture.OnFrameAvailableListener {
+
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+    private static final long FRAME_TIMEOUT_MS = 2500;
+    private static final int FLOAT_BYTES = 4;
+    private static final int VERTEX_STRIDE = 4 * FLOAT_BYTES;
+    private static final float[] VERTICES = {
+            -1, -1, 0, 0,
+            1, -1, 1, 0,
+            -1, 1, 0, 1,
+            1, 1, 1, 1,
+    };
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uSTMatrix;\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec4 aTextureCoord;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = aPosition;\n" +
+            "    vTextureCoord = (uSTMatrix * aTextureCoord).xy;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+            "}\n";
+
+    private final Object frameLock = new Object();
+    private final float[] textureMatrix = new float[16];
+    private final FloatBuffer vertices;
+    private final Surface encoderSurface;
+    private final int width;
+    private final int height;
+
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+    private SurfaceTexture surfaceTexture;
+    private Surface decoderSurface;
+    private int program;
+    private int textureId;
+    private int positionHandle;
+    private int textureCoordHandle;
+    private int textureMatrixHandle;
+    private boolean frameAvailable;
+
+    /**
+     * This constructor makes the encoder's input surface current for OpenGL ES on the
+     * calling thread and creates the surface the decoder renders into.
+     * @param encoderSurface input surface of the encoder
+     * @param width of the encoded video
+     * @param height of the encoded video
+     * @throws IOException if OpenGL ES could not be set up
+     */
+    public TranscodeSurface(Surface encoderSurface, int width, int height) throws IOException {
+        this.encoderSurface = encoderSurface;
+        this.width = width;
+        this.height = height;
+        this.vertices = ByteBuffer.allocateDirect(VERTICES.length * FLOAT_BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertices.put(VERTICES).position(0);
+
+        try {
+            setUpEgl();
+            setUpProgram();
+        } catch (IOException e) {
+            release();
+            throw e;
+        }
+
+        surfaceTexture = new SurfaceTexture(textureId);
+        surfaceTexture.setOnFrameAvailableListener(this);
+        decoderSurface = new Surface(surfaceTexture);
+    }
+
+    /**
+     * This helper method creates an EGL context that can record to the encoder's surface
+     * and makes it current.
+     * @throws IOException if EGL could not be set up
+     */
+    private void setUpEgl() throws IOException {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1))
+            throw new IOException("Unable to initialize EGL");
+
+        int[] configAttributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] configCount = new int[1];
+
+        if (!EGL14.eglChooseConfig(eglDisplay, configAttributes, 0, configs, 0, 1,
+                configCount, 0) || configCount[0] == 0)
+            throw new IOException("No recordable EGL config");
+
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        eglContext = EGL14.eglCreateContext(eglDisplay, configs[0], EGL14.EGL_NO_CONTEXT,
+                contextAttributes, 0);
+        eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, configs[0], encoderSurface,
+                new int[]{EGL14.EGL_NONE}, 0);
+
+        if (eglContext == EGL14.EGL_NO_CONTEXT || eglSurface == EGL14.EGL_NO_SURFACE
+                || !EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext))
+            throw new IOException("Unable to make EGL surface current: "
+                    + EGL14.eglGetError());
+    }
+
+    /**
+     * This helper method compiles the program that draws the decoded frame and creates
+     * the external texture the decoder's frames are bound to.
+     * @throws IOException if the program could not be built
+     */
+    private void setUpProgram() throws IOException {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+
+        program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+
+        if (status[0] != GLES20.GL_TRUE)
+            throw new IOException("Unable to link program: "
+                    + GLES20.glGetProgramInfoLog(program));
+
+        positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+        textureCoordHandle = GLES20.glGetAttribLocation(program, "aTextureCoord");
+        textureMatrixHandle = GLES20.glGetUniformLocation(program, "uSTMatrix");
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        textureId = textures[0];
+
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+                GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+                GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+                GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+                GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    }
+
+    private static int loadShader(int type, String source) throws IOException {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+
+        if (status[0] == 0)
+            throw new IOException("Unable to compile shader: "
+                    + GLES20.glGetShaderInfoLog(shader));
+
+        return shader;
+    }
+
+    /**
+     * This method returns the surface the decoder should render its frames into.
+     * @return the decoder's output surface
+     */
+    public Surface getDecoderSurface() {
+        return decoderSurface;
+    }
+
+    /**
+     * This method is called when the decoder has rendered a frame. It wakes the thread
+     * waiting in awaitFrame.
+     * @param surfaceTexture that received the frame
+     */
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        synchronized (frameLock) {
+            frameAvailable = true;
+            frameLock.notifyAll();
+        }
+    }
+
+    /**
+     * This method waits for the decoder's next frame and draws it onto the encoder's
+     * surface with the given presentation time.
+     * @param presentationTimeNanos presentation time of the frame
+     * @throws IOException if no frame arrived in time
+     */
+    public void drawFrame(long presentationTimeNanos) throws IOException {
+        awaitFrame();
+        surfaceTexture.updateTexImage();
+        surfaceTexture.getTransformMatrix(textureMatrix);
+
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+
+        vertices.position(0);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false,
+                VERTEX_STRIDE, vertices);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+
+        vertices.position(2);
+        GLES20.glVertexAttribPointer(textureCoordHandle, 2, GLES20.GL_FLOAT, false,
+                VERTEX_STRIDE, vertices);
+        GLES20.glEnableVertexAttribArray(textureCoordHandle);
+
+        GLES20.glUniformMatrix4fv(textureMatrixHandle, 1, false, textureMatrix, 0);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+        EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, presentationTimeNanos);
+        EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+    }
+
+    /**
+     * This helper method waits for onFrameAvailable. Frames are signalled on the main
+     * looper, so the transcoding thread must not be the main thread.
+     * @throws IOException if no frame arrived in time
+     */
+    private void awaitFrame() throws IOException {
+        synchronized (frameLock) {
+            long deadline = System.currentTimeMillis() + FRAME_TIMEOUT_MS;
+
+            while (!frameAvailable) {
+                long wait = deadline - System.currentTimeMillis();
+
+                if (wait <= 0)
+                    throw new IOException("Timed out waiting for a decoded frame");
+
+                try {
+                    frameLock.wait(wait);
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted waiting for a decoded frame", e);
+                }
+            }
+
+            frameAvailable = false;
+        }
+    }
+
+    /**
+     * This method releases the surfaces, texture and EGL context.
+     */
+    public void release() {
+        if (decoderSurface != null)
+            decoderSurface.release();
+
+        if (surfaceTexture != null)
+            surfaceTexture.release();
+
+        if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+                    EGL14.EGL_NO_CONTEXT);
+
+            if (eglSurface != EGL14.EGL_NO_SURFACE)
+                EGL14.eglDestroySurface(eglDisplay, eglSurface);
+
+            if (eglContext != EGL14.EGL_NO_CONTEXT)
+                EGL14.eglDestroyContext(eglDisplay, eglContext);
+
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(eglDisplay);
+        }
+
+        encoderSurface.release();
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+        eglContext = EGL14.EGL_NO_CONTEXT;
+        eglSurface = EGL14.EGL_NO_SURFACE;
+    }
+}
@@ -0,0 +1,851 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps the clips waiting to be uploaded in a file, so that submitting a clip
+ * does not depend on the submission activity staying alive. Each clip goes through its
+ * steps in order: the picked video is hashed, its poster is uploaded, its video is
+ * transcoded and uploaded, and only once the video's bytes are committed is the clip added
+ * to the database. The result of each step is saved, so a clip that is interrupted picks
+ * up at the step it reached. Posters are stored under the SHA-256 hash of the picked
+ * video's bytes, and videos under that hash and the transcoding profile, so a video that
+ * is already in storage is neither transcoded nor sent again and clips of the same video
+ * share one object. The queue is run by the UploadService, a few clips at a time, and
+ * clips that fail are retried with backoff until they run out of attempts.
+ * @author colomb2
+ */
+
+public class UploadQueue {
+
+    private static final String TAG = "UploadQueue";
+    private static final String QUEUE_FILE = "upload_queue.json";
+    private static final String UPLOAD_DIRECTORY = "uploads";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String PREFERENCES_NAME = "upload_queue";
+    private static final String UNMETERED_ONLY = "unmetered_only";
+    private static final String ENCODING = "UTF-8";
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    protected static final String VIDEO_DIRECTORY = "video/sha256/";
+    protected static final String POSTER_DIRECTORY = "poster/sha256/";
+    protected static final String VIDEO_SUFFIX = ".mp4";
+    protected static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 2;
+    protected static final int MAX_ATTEMPTS = 5;
+    private static final long CALL_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    private static final long TRANSFER_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    private static final float NOT_TRANSCODING = -1f;
+    private static final int PERCENT = 100;
+
+    private static UploadQueue instance;
+
+    private final Context context;
+    private final File file;
+    private final File uploadDirectory;
+    private final SharedPreferences preferences;
+    private final Gson gson;
+    private final Handler mainHandler;
+    private final List<Entry> entries;
+    private final List<Listener> listeners;
+    private int maxConcurrentUploads = DEFAULT_MAX_CONCURRENT_UPLOADS;
+
+    /**
+     * This enum defines where a clip is in the queue.
+     */
+    public enum State {
+        QUEUED, UPLOADING, FAILED
+    }
+
+    /**
+     * This interface is told on the main thread whenever the queue changes.
+     */
+    public interface Listener {
+        void onQueueChanged(List<Entry> entries);
+    }
+
+    /**
+     * This constructor creates a queue kept in the given file and loads the clips already
+     * in it. Clips that were uploading when the process died are queued again.
+     * @param context to use for android interaction
+     * @param file to keep the queue in
+     */
+    UploadQueue(Context context, File file) {
+        this.context = context.getApplicationContext();
+        this.file = file;
+        this.uploadDirectory = new File(file.getParentFile(), UPLOAD_DIRECTORY);
+        this.preferences = this.context.getSharedPreferences(PREFERENCES_NAME,
+                Context.MODE_PRIVATE);
+        this.gson = new Gson();
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.entries = new ArrayList<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+
+        uploadDirectory.mkdirs();
+        load();
+    }
+
+    /**
+     * This method returns the application's shared upload queue, creating it in the
+     * application's files directory on first use.
+     * @param context to use for android interaction
+     * @return the shared UploadQueue
+     */
+    public static synchronized UploadQueue getInstance(Context context) {
+        if (instance == null)
+            instance = new UploadQueue(context,
+                    new File(context.getApplicationContext().getFilesDir(), QUEUE_FILE));
+
+        return instance;
+    }
+
+    /**
+     * This method adds a clip to the end of the queue and schedules the UploadService to
+     * upload it. The video must stay readable until it is uploaded, such as a document
+     * whose permission has been persisted.
+     * @param title of the clip
+     * @param videoUri uri of the picked video
+     * @return the new entry
+     */
+    public Entry enqueue(String title, Uri videoUri) {
+        Entry entry = new Entry(UUID.randomUUID().toString(), title, videoUri.toString(),
+                System.currentTimeMillis());
+
+        synchronized (this) {
+            entries.add(entry);
+            save();
+        }
+
+        notifyListeners();
+        UploadService.schedule(context);
+        return entry.copy();
+    }
+
+    /**
+     * This method returns copies of the clips in the queue, oldest first.
+     * @return the queued entries
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> copies = new ArrayList<>();
+
+        for (Entry entry : entries)
+            copies.add(entry.copy());
+
+        return copies;
+    }
+
+    /**
+     * This method checks whether any clip is waiting to be uploaded, not counting clips
+     * that ran out of attempts.
+     * @return true if the queue has work for the UploadService
+     */
+    public synchronized boolean hasPending() {
+        for (Entry entry : entries) {
+            if (entry.state != State.FAILED)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * This method gives every clip that ran out of attempts a fresh set of attempts and
+     * schedules the UploadService.
+     */
+    public void retryFailed() {
+        synchronized (this) {
+            for (Entry entry : entries) {
+                if (entry.state == State.FAILED) {
+                    entry.state = State.QUEUED;
+                    entry.attempts = 0;
+                }
+            }
+
+            save();
+        }
+
+        notifyListeners();
+        UploadService.schedule(context);
+    }
+
+    /**
+     * This method sets whether clips are only uploaded over an unmetered network. The
+     * setting is kept with the queue and the UploadService is scheduled again to use it.
+     * @param unmeteredOnly true to wait for an unmetered network
+     */
+    public void setUnmeteredOnly(boolean unmeteredOnly) {
+        preferences.edit().putBoolean(UNMETERED_ONLY, unmeteredOnly).apply();
+
+        if (hasPending())
+            UploadService.schedule(context);
+    }
+
+    public boolean isUnmeteredOnly() {
+        return preferences.getBoolean(UNMETERED_ONLY, false);
+    }
+
+    /**
+     * This method sets how many clips are uploaded at the same time.
+     * @param maxConcurrentUploads at least one
+     */
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        this.maxConcurrentUploads = Math.max(1, maxConcurrentUploads);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * This method uploads the queued clips, up to the concurrency cap at a time, and blocks
+     * until each clip that was queued when it was called, or while it ran, has been tried
+     * once. Clips that fail are kept for a later run until they run out of attempts, and
+     * a clip that fails does not stop the others.
+     * Must not be called on the main thread.
+     * @return true if a clip failed and should be retried later
+     */
+    public boolean runPending() {
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentUploads);
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executor);
+        Set<String> tried = new HashSet<>();
+        boolean retry = false;
+        int running = 0;
+
+        try {
+            while (true) {
+                while (running < maxConcurrentUploads) {
+                    final Entry entry = next(tried);
+
+                    if (entry == null)
+                        break;
+
+                    tried.add(entry.id);
+                    running++;
+                    completionService.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return upload(entry);
+                        }
+                    });
+                }
+
+                if (running == 0)
+                    return retry;
+
+                Future<Boolean> result = completionService.take();
+                running--;
+
+                try {
+                    retry |= !result.get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Upload crashed", e);
+                    retry = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Stopped running the upload queue", e);
+            Thread.currentThread().interrupt();
+            return true;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * This helper method takes the oldest queued clip that has not been tried in this run
+     * and marks it as uploading.
+     * @param tried ids of the clips already tried
+     * @return the entry to upload, or null if there is none
+     */
+    private synchronized Entry next(Set<String> tried) {
+        for (Entry entry : entries) {
+            if (entry.state == State.QUEUED && !tried.contains(entry.id)) {
+                entry.state = State.UPLOADING;
+                save();
+                notifyListeners();
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * This helper method takes a clip through the steps it has not finished yet. The
+     * picked video is hashed as it streams, and its poster and video are only uploaded if
+     * storage does not already hold them under that hash. Storage is asked before the
+     * video is transcoded, so a video that is already stored is not transcoded again. The
+     * clip is added to the database last, after its video is committed to storage, and is
+     * then removed from the queue. If a step fails, even with an unexpected exception such
+     * as losing the permission to read the video, the clip is queued again, or marked
+     * failed if it has run out of attempts.
+     * @param entry to upload
+     * @return true if the clip was added, false if it failed
+     */
+    private boolean upload(Entry entry) {
+        ClipBackend backend = ClipBackends.get(context);
+
+        try {
+            if (entry.contentHash == null) {
+                String contentHash = hash(Uri.parse(entry.videoUri));
+
+                synchronized (this) {
+                    entry.contentHash = contentHash;
+                    save();
+                }
+
+                notifyListeners();
+            }
+
+            if (!entry.posterDone) {
+                String posterName = POSTER_DIRECTORY + entry.contentHash
+                        + ClipPoster.POSTER_SUFFIX;
+                String posterUrl = find(backend, posterName);
+
+                if (posterUrl == null) {
+                    BlockingCallback<String> posterCallback =
+                            new BlockingCallback<>(TRANSFER_TIMEOUT);
+                    posterUrl = posterCallback.get(ClipPoster.upload(context,
+                            Uri.parse(entry.videoUri), posterName, posterCallback));
+                }
+
+                synchronized (this) {
+                    entry.posterUrl = posterUrl;
+                    entry.posterDone = true;
+                    save();
+                }
+
+                notifyListeners();
+            }
+
+            if (entry.downloadUrl == null) {
+                ClipTranscoder.Profile profile = ClipTranscoder.getDefaultProfile();
+
+                if (entry.videoName == null) {
+                    boolean transcode = new ClipTranscoder(context, profile)
+                            .needsTranscode(Uri.parse(entry.videoUri));
+                    String videoName = getVideoName(entry.contentHash,
+                            transcode ? profile : null);
+
+                    synchronized (this) {
+                        entry.videoName = videoName;
+                        save();
+                    }
+                }
+
+                String downloadUrl = find(backend, entry.videoName);
+
+                if (downloadUrl == null && entry.uploadUri == null) {
+                    Uri transcodedUri = null;
+                    String videoName = entry.videoName;
+
+                    if (!videoName.equals(getVideoName(entry.contentHash, null)))
+                        transcodedUri = transcode(entry, profile);
+
+                    if (transcodedUri == null) {
+                        videoName = getVideoName(entry.contentHash, null);
+                        downloadUrl = find(backend, videoName);
+                    }
+
+                    synchronized (this) {
+                        entry.uploadUri = transcodedUri == null
+                                ? entry.videoUri : transcodedUri.toString();
+                        entry.videoName = videoName;
+                        save();
+                    }
+
+                    notifyListeners();
+                }
+
+                if (downloadUrl == null) {
+                    BlockingCallback<String> videoCallback =
+                            new BlockingCallback<>(TRANSFER_TIMEOUT);
+                    downloadUrl = videoCallback.get(backend.uploadVideo(
+                            Uri.parse(entry.uploadUri), entry.videoName, videoCallback));
+                }
+
+                synchronized (this) {
+                    entry.downloadUrl = downloadUrl;
+                    save();
+                }
+
+                notifyListeners();
+            }
+
+            Clip clip = new Clip(entry.title, entry.downloadUrl);
+            clip.setPosterUrl(entry.posterUrl);
+            BlockingCallback<String> clipCallback = new BlockingCallback<>(CALL_TIMEOUT);
+            backend.addClip(entry.id, clip, clipCallback);
+            clipCallback.get();
+
+            remove(entry);
+            return true;
+        } catch (InterruptedIOException e) {
+            Log.i(TAG, "Stopped uploading " + entry.title);
+            requeue(entry);
+            return false;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to upload " + entry.title, e);
+            fail(entry, e);
+            return false;
+        }
+    }
+
+    /**
+     * This helper method looks for an object already in storage.
+     * @param backend to look in
+     * @param name storage path of the object
+     * @return download url of the object, or null if it is not stored
+     * @throws IOException if storage could not be asked
+     */
+    private static String find(ClipBackend backend, String name) throws IOException {
+        BlockingCallback<String> findCallback = new BlockingCallback<>(CALL_TIMEOUT);
+        backend.findVideo(name, findCallback);
+        return findCallback.get();
+    }
+
+    /**
+     * This helper method hashes a video as it streams from its uri, without holding it
+     * in memory.
+     * @param videoUri uri of the video
+     * @return hex encoded SHA-256 hash of the video's bytes
+     * @throws IOException if the video could not be read
+     */
+    private String hash(Uri videoUri) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("No " + HASH_ALGORITHM, e);
+        }
+
+        InputStream input = context.getContentResolver().openInputStream(videoUri);
+
+        if (input == null)
+            throw new IOException("Unable to open " + videoUri);
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            for (int read = input.read(buffer); read != -1; read = input.read(buffer))
+                digest.update(buffer, 0, read);
+        } finally {
+            input.close();
+        }
+
+        StringBuilder hash = new StringBuilder();
+
+        for (byte b : digest.digest())
+            hash.append(String.format("%02x", b));
+
+        return hash.toString();
+    }
+
+    /**
+     * This helper method returns the storage path of a video. A video transcoded to a
+     * profile is stored under the hash of the picked video and the profile's key, and a
+     * video uploaded as picked under the hash alone.
+     * @param contentHash hash of the picked video's bytes
+     * @param profile the video is transcoded to, or null if it is uploaded as picked
+     * @return storage path of the video
+     */
+    private static String getVideoName(String contentHash, ClipTranscoder.Profile profile) {
+        if (profile == null)
+            return VIDEO_DIRECTORY + contentHash + VIDEO_SUFFIX;
+
+        return VIDEO_DIRECTORY + contentHash + "-" + profile.getKey() + VIDEO_SUFFIX;
+    }
+
+    /**
+     * This helper method transcodes a clip's video into the upload directory. The
+     * transcode's progress is kept on the entry, and the listeners are told each time it
+     * moves by a percent.
+     * @param entry to transcode
+     * @param profile to transcode the video to
+     * @return uri of the transcoded video, or null if it could not be transcoded and the
+     * original should be uploaded
+     * @throws InterruptedIOException if the transcode was stopped, so the clip is queued
+     * again rather than uploaded untranscoded
+     */
+    private Uri transcode(final Entry entry, ClipTranscoder.Profile profile)
+            throws InterruptedIOException {
+        File transcodedFile = new File(uploadDirectory, entry.id + VIDEO_SUFFIX);
+        setTranscodeProgress(entry, 0f);
+
+        try {
+            new ClipTranscoder(context, profile).transcode(Uri.parse(entry.videoUri),
+                    transcodedFile, new ClipTranscoder.ProgressListener() {
+                        @Override
+                        public void onProgress(float fraction) {
+                            setTranscodeProgress(entry, fraction);
+                        }
+                    });
+            return Uri.fromFile(transcodedFile);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            Log.w(TAG, "Uploading the original video, transcoding failed", e);
+            return null;
+        } finally {
+            setTranscodeProgress(entry, NOT_TRANSCODING);
+        }
+    }
+
+    /**
+     * This helper method records how far a clip's video has been transcoded, telling the
+     * listeners if it moved by at least a percent or the transcode started or ended.
+     * @param entry being transcoded
+     * @param fraction transcoded from 0 to 1, or NOT_TRANSCODING once the transcode ended
+     */
+    private void setTranscodeProgress(Entry entry, float fraction) {
+        synchronized (this) {
+            if (fraction >= 0 && entry.transcodeProgress >= 0
+                    && (int) (fraction * PERCENT) == (int) (entry.transcodeProgress * PERCENT))
+                return;
+
+            entry.transcodeProgress = fraction;
+        }
+
+        notifyListeners();
+    }
+
+    /**
+     * This helper method queues a clip again without counting an attempt, such as when
+     * the UploadService is stopped because the network went away.
+     * @param entry that was stopped
+     */
+    private void requeue(Entry entry) {
+        synchronized (this) {
+            entry.state = State.QUEUED;
+            save();
+        }
+
+        notifyListeners();
+    }
+
+    /**
+     * This helper method counts a failed attempt, queueing the clip again or marking it
+     * failed once it has run out of attempts.
+     * @param entry that failed
+     * @param exception that it failed with
+     */
+    private void fail(Entry entry, Exception exception) {
+        synchronized (this) {
+            entry.attempts++;
+            entry.lastError = exception.getMessage();
+            entry.state = entry.attempts >= MAX_ATTEMPTS ? State.FAILED : State.QUEUED;
+            save();
+        }
+
+        notifyListeners();
+    }
+
+    /**
+     * This helper method removes an added clip from the queue, deleting its transcoded
+     * copy and releasing the permission to read its video.
+     * @param entry that was added
+     */
+    private void remove(Entry entry) {
+        synchronized (this) {
+            entries.remove(entry);
+            save();
+        }
+
+        new File(uploadDirectory, entry.id + VIDEO_SUFFIX).delete();
+        Uri videoUri = Uri.parse(entry.videoUri);
+
+        if (ContentResolver.SCHEME_CONTENT.equals(videoUri.getScheme())) {
+            try {
+                context.getContentResolver().releasePersistableUriPermission(videoUri,
+                        Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException e) {
+                Log.w(TAG, "No permission to release for " + videoUri);
+            }
+        }
+
+        notifyListeners();
+    }
+
+    /**
+     * This helper method tells the listeners about the queue on the main thread.
+     */
+    private void notifyListeners() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                List<Entry> snapshot = getEntries();
+
+                for (Listener listener : listeners)
+                    listener.onQueueChanged(snapshot);
+            }
+        });
+    }
+
+    /**
+     * This helper method reads the queue from its file. Clips that were uploading are
+     * queued again. An unreadable file is treated as an empty queue.
+     */
+    private synchronized void load() {
+        if (!file.exists())
+            return;
+
+        try {
+            Reader reader = new InputStreamReader(new FileInputStream(file), ENCODING);
+
+            try {
+                List<Entry> saved = gson.fromJson(reader, new TypeToken<List<Entry>>() {
+                }.getType());
+
+                if (saved != null)
+                    entries.addAll(saved);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | JsonParseException e) {
+            Log.w(TAG, "Discarding unreadable upload queue", e);
+        }
+
+        for (Entry entry : entries) {
+            entry.transcodeProgress = NOT_TRANSCODING;
+
+            if (entry.state == State.UPLOADING)
+                entry.state = State.QUEUED;
+        }
+    }
+
+    /**
+     * This helper method writes the queue to a temporary file and renames it into place,
+     * so that a crash while saving never leaves a partial queue. Must be called while
+     * holding the queue's lock.
+     */
+    private void save() {
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING);
+
+            try {
+                gson.toJson(entries, writer);
+            } finally {
+                writer.close();
+            }
+
+            if (!tempFile.renameTo(file))
+                throw new IOException("Unable to rename " + tempFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save upload queue", e);
+        }
+    }
+
+    /**
+     * This class holds one clip in the queue and the results of the steps it finished.
+     */
+    public static class Entry {
+
+        private String id;
+        private String title;
+        private String videoUri;
+        private String uploadUri;
+        private String contentHash;
+        private String videoName;
+        private boolean posterDone;
+        private String posterUrl;
+        private String downloadUrl;
+        private State state;
+        private int attempts;
+        private long time;
+        private String lastError;
+        private transient float transcodeProgress = NOT_TRANSCODING;
+
+        public Entry(String id, String title, String videoUri, long time) {
+            this.id = id;
+            this.title = title;
+            this.videoUri = videoUri;
+            this.time = time;
+            this.state = State.QUEUED;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public String getLastError() {
+            return lastError;
+        }
+
+        /**
+         * This method checks whether the clip's video is being transcoded.
+         * @return true if getTranscodeProgress tells how far the transcode is
+         */
+        public boolean isTranscoding() {
+            return transcodeProgress >= 0;
+        }
+
+        public float getTranscodeProgress() {
+            return transcodeProgress;
+        }
+
+        /**
+         * This method checks whether the clip's video has been committed to storage.
+         * @return true if only adding the clip to the database is left
+         */
+        public boolean isVideoUploaded() {
+            return downloadUrl != null;
+        }
+
+        private Entry copy() {
+            Entry copy = new Entry(id, title, videoUri, time);
+            copy.uploadUri = uploadUri;
+            copy.contentHash = contentHash;
+            copy.videoName = videoName;
+            copy.posterDone = posterDone;
+            copy.posterUrl = posterUrl;
+            copy.downloadUrl = downloadUrl;
+            copy.state = state;
+            copy.attempts = attempts;
+            copy.lastError = lastError;
+            copy.transcodeProgress = transcodeProgress;
+            return copy;
+        }
+    }
+
+    /**
+     * This class defines a ClipBackend callback that an upload thread can wait on.
+     */
+    private static class BlockingCallback<T> implements ClipBackend.Callback<T> {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final long timeout;
+        private volatile T result;
+        private volatile Exception exception;
+
+        /**
+         * This constructor creates a callback that is waited on for at most the timeout.
+         * @param timeout milliseconds to wait for the call
+         */
+        public BlockingCallback(long timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void onSuccess(T result) {
+            this.result = result;
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(Exception exception) {
+            this.exception = exception;
+            latch.countDown();
+        }
+
+        /**
+         * This method waits for the call to finish.
+         * @return the call's result
+         * @throws InterruptedIOException if the wait was interrupted
+         * @throws IOException if the call failed or did not finish within the timeout
+         */
+        public T get() throws IOException {
+            return get(null);
+        }
+
+        /**
+         * This method waits for a transfer to finish. If the wait is interrupted or times
+         * out, the transfer is cancelled, so it does not go on sending once nothing waits
+         * for it, such as over a metered network after the UploadService was stopped.
+         * @param transfer to cancel if it does not finish, or null if there is none
+         * @return the transfer's result
+         * @throws InterruptedIOException if the wait was interrupted
+         * @throws IOException if the transfer failed or did not finish within the timeout
+         */
+        public T get(ClipBackend.Transfer transfer) throws IOException {
+            try {
+                if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                    if (transfer != null)
+                        transfer.cancel();
+
+                    throw new IOException("Timed out after " + timeout + " ms");
+                }
+            } catch (InterruptedException e) {
+                if (transfer != null)
+                    transfer.cancel();
+
+                Thread.currentThread().interrupt();
+                InterruptedIOException interrupted =
+                        new InterruptedIOException("Upload interrupted");
+                interrupted.initCause(e);
+                throw interrupted;
+            }
+
+            if (exception instanceof IOException)
+                throw (IOException) exception;
+            else if (exception != null)
+                throw new IOException(exception);
+
+            return result;
+        }
+    }
+}
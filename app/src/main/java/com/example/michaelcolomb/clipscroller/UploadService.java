@@ -0,0 +1,107 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * This class defines the job that runs the UploadQueue in the background. It is scheduled
+ * with the JobScheduler whenever a clip is queued, so uploads continue after the
+ * submission activity has finished and are started again after the process dies or the
+ * device restarts. The job waits for a network, or an unmetered network if the queue asks
+ * for one, and the JobScheduler backs it off exponentially while clips keep failing.
+ * @author colomb2
+ */
+
+public class UploadService extends JobService {
+
+    private static final String TAG = "UploadService";
+    private static final int JOB_ID = 1;
+    protected static final long INITIAL_BACKOFF = 30000;
+
+    private static volatile boolean running;
+
+    private Thread worker;
+
+    /**
+     * This method schedules the upload job with the queue's network requirement. A job
+     * that is already running is left alone, as it picks up clips queued while it runs.
+     * @param context to use for android interaction
+     */
+    public static void schedule(Context context) {
+        if (running)
+            return;
+
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+
+        if (scheduler.schedule(createJob(context)) != JobScheduler.RESULT_SUCCESS)
+            Log.e(TAG, "Failed to schedule uploads");
+    }
+
+    /**
+     * This method builds the upload job, requiring an unmetered network if the queue asks
+     * for one and backing off exponentially from INITIAL_BACKOFF.
+     * @param context to use for android interaction
+     * @return the JobInfo to schedule
+     */
+    static JobInfo createJob(Context context) {
+        UploadQueue queue = UploadQueue.getInstance(context);
+        int networkType = queue.isUnmeteredOnly()
+                ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY;
+
+        return new JobInfo.Builder(JOB_ID, new ComponentName(context, UploadService.class))
+                .setRequiredNetworkType(networkType)
+                .setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                .setPersisted(true)
+                .build();
+    }
+
+    /**
+     * This method is called when the job's network is available. It runs the queue on a
+     * worker thread and finishes the job when every queued clip has been tried, asking to
+     * be rescheduled with backoff if any of them failed.
+     * @param params of the job
+     * @return true, as the work continues on the worker thread
+     */
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        running = true;
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                UploadQueue queue = UploadQueue.getInstance(UploadService.this);
+                boolean retry = queue.runPending();
+
+                running = false;
+                jobFinished(params, retry);
+
+                if (!retry && queue.hasPending())
+                    schedule(UploadService.this);
+            }
+        }, TAG);
+        worker.start();
+
+        return true;
+    }
+
+    /**
+     * This method is called when the job's network is lost. The uploads in progress are
+     * interrupted without counting an attempt, which cancels their transfers so nothing
+     * more is sent; their saved progress lets the rescheduled job pick them up.
+     * @param params of the job
+     * @return true to be rescheduled
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (worker != null)
+            worker.interrupt();
+
+        return true;
+    }
+}
@@ -0,0 +1,347 @@
+package com.example.michaelcolomb.clipscroller;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class buffers the user's votes before they are written through the ClipBackend.
+ * Each tap replaces the clip's pending vote, so toggling a vote several times writes only
+ * where it ends up, and a vote that ends where it started is not written at all. The
+ * pending votes of every clip are handed to the backend together once no vote has been
+ * cast for DEBOUNCE, or MAX_DELAY after the first of them, and the backend writes each of
+ * them in its own clip's transactions. A vote stays pending or in flight until the
+ * backend confirms it, and pending votes are kept in shared preferences, so votes cast
+ * offline or before the process died are written when the network returns or the
+ * application is next started. All methods must be called on the main thread.
+ * @author colomb2
+ */
+
+public class VoteBatcher {
+
+    protected static final long DEBOUNCE = 1000;
+    protected static final long MAX_DELAY = 5000;
+    private static final String TAG = "VoteBatcher";
+    private static final String PREFERENCES_NAME = "vote_batcher";
+    private static final String PENDING_KEY = "pending";
+
+    private static final Metrics.Counter BATCHES = Metrics.counter("vote.batches");
+    private static final Metrics.Counter BATCHED_VOTES = Metrics.counter("vote.batched");
+
+    private static VoteBatcher instance;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final Gson gson;
+    private final Handler handler;
+    private final Runnable flushRunnable;
+    private final LinkedHashMap<String, Vote> pending;
+    private final Map<String, Vote> inFlight;
+    private final Map<String, Boolean> knownVotes;
+    private final ConnectivityManager.NetworkCallback networkCallback;
+
+    private long firstPendingTime;
+
+    /**
+     * This constructor creates a batcher kept in the given shared preferences. Votes left
+     * pending by an earlier process are loaded and written soon, and pending votes are
+     * written again whenever a network becomes available.
+     * @param context to use for android interaction
+     * @param preferencesName name of the shared preferences to keep pending votes in
+     */
+    VoteBatcher(Context context, String preferencesName) {
+        this.context = context.getApplicationContext();
+        this.preferences = this.context.getSharedPreferences(preferencesName,
+                Context.MODE_PRIVATE);
+        this.gson = new Gson();
+        this.handler = new Handler(Looper.getMainLooper());
+        this.pending = new LinkedHashMap<>();
+        this.inFlight = new HashMap<>();
+        this.knownVotes = new HashMap<>();
+        this.flushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        this.networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                handler.post(flushRunnable);
+            }
+        };
+
+        load();
+        watchNetwork();
+
+        if (!pending.isEmpty())
+            schedule();
+    }
+
+    /**
+     * This method returns the application's shared batcher.
+     * @param context to use for android interaction
+     * @return the shared VoteBatcher
+     */
+    public static VoteBatcher getInstance(Context context) {
+        if (instance == null)
+            instance = new VoteBatcher(context, PREFERENCES_NAME);
+
+        return instance;
+    }
+
+    /**
+     * This method records a tap on a vote button. The clip's pending vote is replaced, and
+     * dropped if the vote is back to the one already stored.
+     * @param hash key of the clip
+     * @param instanceId user's instance id
+     * @param vote true if upvote, false if downvote, null to remove the vote
+     */
+    public void vote(String hash, String instanceId, Boolean vote) {
+        Vote pendingVote = pending.get(hash);
+
+        if (pendingVote == null) {
+            pendingVote = new Vote(hash, instanceId, vote);
+
+            if (inFlight.containsKey(hash)) {
+                pendingVote.previousVote = inFlight.get(hash).vote;
+                pendingVote.previousKnown = true;
+            } else if (knownVotes.containsKey(hash)) {
+                pendingVote.previousVote = knownVotes.get(hash);
+                pendingVote.previousKnown = true;
+            }
+
+            pending.put(hash, pendingVote);
+        } else {
+            pendingVote.vote = vote;
+        }
+
+        if (pendingVote.previousKnown && equal(pendingVote.previousVote, vote))
+            pending.remove(hash);
+
+        save();
+        schedule();
+    }
+
+    /**
+     * This method is told the user's stored vote on a clip as it is watched, so later taps
+     * know the vote they replace.
+     * @param hash key of the clip
+     * @param vote stored vote, or null if there is none
+     * @return the vote to show, which is the pending vote if the user has one
+     */
+    public Boolean onVoteObserved(String hash, Boolean vote) {
+        if (!inFlight.containsKey(hash))
+            knownVotes.put(hash, vote);
+
+        Vote pendingVote = pending.get(hash);
+
+        if (pendingVote != null)
+            return pendingVote.vote;
+
+        return inFlight.containsKey(hash) ? inFlight.get(hash).vote : vote;
+    }
+
+    /**
+     * This method hands the pending votes to the backend now, together. The backend writes
+     * each vote in its own clip's transactions, against the vote stored on the server, so
+     * votes loaded from an earlier process, whose previous values are not known, are
+     * batched like any other, and a vote written twice is counted once. Nothing is written
+     * while a batch is still in flight; the votes wait for it to finish.
+     */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+
+        if (pending.isEmpty() || !inFlight.isEmpty())
+            return;
+
+        final List<Vote> batch = new ArrayList<>(pending.values());
+
+        for (Vote vote : batch)
+            inFlight.put(vote.hash, vote);
+
+        pending.clear();
+        firstPendingTime = 0;
+        save();
+
+        BATCHES.increment();
+        BATCHED_VOTES.add(batch.size());
+        ClipBackends.get(context).castVotes(batch, new ClipBackend.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                for (Vote vote : batch)
+                    knownVotes.put(vote.hash, vote.vote);
+
+                inFlight.clear();
+                save();
+                schedule();
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                Log.w(TAG, "Failed to write votes", exception);
+                requeue(batch);
+                inFlight.clear();
+                save();
+            }
+        });
+    }
+
+    /**
+     * This helper method puts the votes of a failed batch back in front of the votes cast
+     * since, which then replace the same value the failed vote did. They are not retried
+     * on a timer, but with the next tap or when a network becomes available.
+     * @param batch of votes that were not written
+     */
+    private void requeue(List<Vote> batch) {
+        LinkedHashMap<String, Vote> newer = new LinkedHashMap<>(pending);
+        pending.clear();
+
+        for (Vote vote : batch) {
+            Vote newerVote = newer.remove(vote.hash);
+
+            if (newerVote != null) {
+                newerVote.previousVote = vote.previousVote;
+                newerVote.previousKnown = vote.previousKnown;
+                vote = newerVote;
+            }
+
+            if (!vote.previousKnown || !equal(vote.previousVote, vote.vote))
+                pending.put(vote.hash, vote);
+        }
+
+        pending.putAll(newer);
+    }
+
+    /**
+     * This helper method schedules the next flush DEBOUNCE after the last vote, but no
+     * later than MAX_DELAY after the first vote still pending.
+     */
+    private void schedule() {
+        handler.removeCallbacks(flushRunnable);
+
+        if (pending.isEmpty()) {
+            firstPendingTime = 0;
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+
+        if (firstPendingTime == 0)
+            firstPendingTime = now;
+
+        handler.postAtTime(flushRunnable, Math.min(now + DEBOUNCE, firstPendingTime + MAX_DELAY));
+    }
+
+    /**
+     * This method stops the batcher watching the network and cancels its scheduled flush.
+     * Pending votes stay saved, for the next batcher to write.
+     */
+    public void release() {
+        handler.removeCallbacks(flushRunnable);
+        getConnectivityManager().unregisterNetworkCallback(networkCallback);
+    }
+
+    /**
+     * This helper method flushes the pending votes whenever a network becomes available.
+     */
+    private void watchNetwork() {
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+
+        getConnectivityManager().registerNetworkCallback(request, networkCallback);
+    }
+
+    private ConnectivityManager getConnectivityManager() {
+        return (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    /**
+     * This helper method saves the pending and in-flight votes, so they are written even
+     * if the process dies first.
+     */
+    private void save() {
+        List<Vote> votes = new ArrayList<>(inFlight.values());
+        votes.addAll(pending.values());
+        preferences.edit().putString(PENDING_KEY, gson.toJson(votes)).apply();
+    }
+
+    /**
+     * This helper method loads the votes saved by an earlier process. Whether their
+     * previous values are still stored is not known, so they are kept even if they match
+     * a value observed later.
+     */
+    private void load() {
+        String json = preferences.getString(PENDING_KEY, null);
+
+        if (json == null)
+            return;
+
+        try {
+            List<Vote> votes = gson.fromJson(json, new TypeToken<List<Vote>>() { }.getType());
+
+            for (Vote vote : votes) {
+                vote.previousKnown = false;
+                pending.put(vote.hash, vote);
+            }
+        } catch (JsonParseException e) {
+            Log.w(TAG, "Discarding unreadable pending votes", e);
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size() + inFlight.size();
+    }
+
+    private static boolean equal(Boolean first, Boolean second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * This class holds a user's vote on a clip and the vote it replaces.
+     */
+    public static class Vote {
+
+        private String hash;
+        private String instanceId;
+        private Boolean vote;
+        private Boolean previousVote;
+        private boolean previousKnown;
+
+        public Vote(String hash, String instanceId, Boolean vote) {
+            this.hash = hash;
+            this.instanceId = instanceId;
+            this.vote = vote;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public String getInstanceId() {
+            return instanceId;
+        }
+
+        public Boolean getVote() {
+            return vote;
+        }
+    }
+}
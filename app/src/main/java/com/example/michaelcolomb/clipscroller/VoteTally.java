@@ -0,0 +1,50 @@
+package com.example.michaelcolomb.clipscroller;
+
+import java.util.Map;
+
+/**
+ * This class defines the vote arithmetic shared by VoteUtilities and the benchmarks. It
+ * works on a clip's likes as a plain map from instance id to vote, so it does not depend
+ * on Firebase or Android and can be measured on the JVM.
+ * @author colomb2
+ */
+
+public class VoteTally {
+
+    /**
+     * This method converts a stored vote into its direction.
+     * @param vote true if upvote, false if downvote, null if no vote
+     * @return 1 if upvote, 0 if no vote, -1 if downvote
+     */
+    public static int toDirection(Boolean vote) {
+        if (vote == null)
+            return 0;
+
+        return vote ? 1 : -1;
+    }
+
+    /**
+     * This method sums a clip's votes. Upvotes count one positive and downvotes count one
+     * negative.
+     * @param likes map of instance id to vote
+     * @return total sum of votes
+     */
+    public static int count(Map<String, Boolean> likes) {
+        int voteCount = 0;
+
+        for (Boolean vote : likes.values())
+            voteCount += toDirection(vote);
+
+        return voteCount;
+    }
+
+    /**
+     * This method returns the direction of the specified user's vote with a single lookup.
+     * @param likes map of instance id to vote
+     * @param instanceId user's instance id
+     * @return 1 if upvote, 0 if no vote, -1 if downvote
+     */
+    public static int direction(Map<String, Boolean> likes, String instanceId) {
+        return toDirection(likes.get(instanceId));
+    }
+}
@@ -1,8 +1,16 @@
 package com.example.michaelcolomb.clipscroller;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class defines methods that are useful for handling vote operations.
@@ -11,6 +19,18 @@ import com.google.firebase.database.DataSnapshot;
 
 public class VoteUtilities {
 
+    private static final String TAG = "VoteUtilities";
+    protected static final String LIKES_ADDRESS = "likes";
+    protected static final String VOTE_COUNT_ADDRESS = "voteCount";
+    protected static final String HOT_SCORE_ADDRESS = "hotScore";
+    protected static final String VERSION_ADDRESS = "version";
+    protected static final String VOTE_VERSION_ADDRESS = "voteVersion";
+    protected static final String TIME_ADDRESS = "time";
+
+    private static final Metrics.Histogram VOTE_WRITE_MILLIS = Metrics.histogram("vote.write_ms");
+    private static final Metrics.Counter VOTE_ATTEMPTS = Metrics.counter("vote.attempts");
+    private static final Metrics.Counter VOTE_FAILURES = Metrics.counter("vote.failures");
+
     /**
      * This method reads through a clip's votes to find the total count. Upvotes count one
      * positive and downvotes count one negative.
@@ -20,36 +40,258 @@ public class VoteUtilities {
     public static int getVoteCount(DataSnapshot likesSnapshot) {
         int voteCount = 0;
 
-        for (DataSnapshot postSnapshot: likesSnapshot.getChildren()) {
-            boolean voteDirection = postSnapshot.getValue(boolean.class);
-
-            if (voteDirection)
-                voteCount++;
-            else
-                voteCount--;
-        }
+        for (DataSnapshot postSnapshot: likesSnapshot.getChildren())
+            voteCount += VoteTally.toDirection(postSnapshot.getValue(Boolean.class));
 
         return voteCount;
     }
 
     /**
-     * This method returns the direction of the specified user's vote.
+     * This method returns a clip's stored vote count. Clips created before the count was
+     * stored fall back to counting the likes that were then stored inside them.
+     * @param clipSnapshot DataSnapshot that refers to the clip reference level
+     * @return total sum of votes
+     */
+    public static int getStoredVoteCount(DataSnapshot clipSnapshot) {
+        DataSnapshot countSnapshot = clipSnapshot.child(VOTE_COUNT_ADDRESS);
+
+        if (countSnapshot.exists())
+            return countSnapshot.getValue(int.class);
+
+        return getVoteCount(clipSnapshot.child(LIKES_ADDRESS));
+    }
+
+    /**
+     * This method computes a clip's hot score. The score does not depend on the current
+     * time, so it only changes when the clip's votes do and can be stored and indexed.
+     * @param time epoch time that the clip was created
+     * @param voteCount net vote count of the clip
+     * @return hot score of the clip
+     */
+    public static double getHotScore(long time, int voteCount) {
+        return ScoringStrategy.HOT.score(time, voteCount, time);
+    }
+
+    /**
+     * This method returns the direction of the specified user's vote. The user's entry is
+     * looked up directly rather than by scanning every vote.
      * @param likesSnapshot DataSnapShot that refers to the '/likes' reference level
      * @param instanceId user's instance id
      * @return 1 if upvote, 0 if no vote, -1 if downvote
      */
     public static int getVoteDirection(DataSnapshot likesSnapshot, String instanceId) {
-        for (DataSnapshot postSnapshot: likesSnapshot.getChildren()) {
-            if (postSnapshot.getKey().equals(instanceId)) {
-                boolean voteDirection = postSnapshot.getValue(boolean.class);
+        return VoteTally.toDirection(likesSnapshot.child(instanceId).getValue(Boolean.class));
+    }
+
+    /**
+     * This method converts a stored vote into its direction.
+     * @param vote true if upvote, false if downvote, null if no vote
+     * @return 1 if upvote, 0 if no vote, -1 if downvote
+     */
+    public static int toDirection(Boolean vote) {
+        return VoteTally.toDirection(vote);
+    }
+
+    /**
+     * This method stores, changes or removes a user's vote on a clip. A clip's likes are
+     * kept apart from the clip, in its votes node, together with their count and a version
+     * that goes up with every vote, so the like, the count and the version are changed in
+     * one transaction and the count moves by exactly the vote the like replaced. The
+     * committed count is then copied to the clip, where the feed reads and orders by it,
+     * with copyVoteCount. The time until the vote is committed, the transaction's attempts
+     * and its failures are recorded in Metrics.
+     * @param votesReference DatabaseReference of the clip's votes
+     * @param clipReference DatabaseReference of the clip
+     * @param instanceId user's instance id
+     * @param vote true if upvote, false if downvote, null to remove the vote
+     * @param callback told once the vote is committed, or null if not needed
+     */
+    public static void castVote(DatabaseReference votesReference,
+                                final DatabaseReference clipReference,
+                                final String instanceId, final Boolean vote,
+                                final ClipBackend.Callback<Void> callback) {
+        final long startTime = SystemClock.elapsedRealtime();
+
+        votesReference.runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                VOTE_ATTEMPTS.increment();
+                MutableData likeData = currentData.child(LIKES_ADDRESS).child(instanceId);
+                MutableData countData = currentData.child(VOTE_COUNT_ADDRESS);
+                MutableData versionData = currentData.child(VERSION_ADDRESS);
+
+                Boolean previousVote = likeData.getValue(Boolean.class);
+                Integer voteCount = countData.getValue(Integer.class);
+                Long version = versionData.getValue(Long.class);
 
-                if (voteDirection)
-                    return 1;
+                likeData.setValue(vote);
+                countData.setValue((voteCount == null ? 0 : voteCount)
+                        + toDirection(vote) - toDirection(previousVote));
+                versionData.setValue((version == null ? 0 : version) + 1);
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError databaseError, boolean committed,
+                                   DataSnapshot dataSnapshot) {
+                VOTE_WRITE_MILLIS.record(SystemClock.elapsedRealtime() - startTime);
+
+                if (!committed || databaseError != null) {
+                    VOTE_FAILURES.increment();
+                    Exception failure = databaseError == null
+                            ? new IllegalStateException("Vote not committed")
+                            : databaseError.toException();
+                    Log.w(TAG, "Failed to vote", failure);
+
+                    if (callback != null)
+                        callback.onFailure(failure);
+
+                    return;
+                }
+
+                copyVoteCount(clipReference, dataSnapshot);
+
+                if (callback != null)
+                    callback.onSuccess(null);
+            }
+        });
+    }
+
+    /**
+     * This helper method copies a committed vote count from a clip's votes node to the
+     * clip in a transaction, together with the hot score computed from it and the clip's
+     * own time. The copy carries the version of the votes it was committed with, and a
+     * copy older than the one the clip already has is dropped, so copies that arrive out
+     * of order cannot leave a stale count or score. A clip without a time keeps its score.
+     * @param clipReference DatabaseReference of the clip
+     * @param votesSnapshot committed DataSnapshot of the clip's votes
+     */
+    private static void copyVoteCount(DatabaseReference clipReference,
+                                      DataSnapshot votesSnapshot) {
+        final Integer voteCount = votesSnapshot.child(VOTE_COUNT_ADDRESS)
+                .getValue(Integer.class);
+        final Long version = votesSnapshot.child(VERSION_ADDRESS).getValue(Long.class);
+
+        if (voteCount == null || version == null)
+            return;
+
+        clipReference.runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                if (currentData.getValue() == null)
+                    return Transaction.success(currentData);
+
+                Long copiedVersion = currentData.child(VOTE_VERSION_ADDRESS)
+                        .getValue(Long.class);
+
+                if (copiedVersion != null && copiedVersion >= version)
+                    return Transaction.abort();
+
+                Long time = currentData.child(TIME_ADDRESS).getValue(Long.class);
+                currentData.child(VOTE_COUNT_ADDRESS).setValue(voteCount);
+                currentData.child(VOTE_VERSION_ADDRESS).setValue(version);
+
+                if (time != null && time > 0)
+                    currentData.child(HOT_SCORE_ADDRESS).setValue(getHotScore(time, voteCount));
+
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError databaseError, boolean committed,
+                                   DataSnapshot dataSnapshot) {
+                if (databaseError != null)
+                    Log.w(TAG, "Failed to copy vote count", databaseError.toException());
+            }
+        });
+    }
+
+    /**
+     * This method moves the likes of a clip created while likes were stored inside clips
+     * into the clip's votes node, with their count, so that loading the feed no longer
+     * downloads them. Nothing is moved if the votes node already exists. Either way, the
+     * likes are then removed from the clip and its count and hot score are copied from the
+     * votes node.
+     * @param votesReference DatabaseReference of the clip's votes
+     * @param clipSnapshot DataSnapshot of the clip, with its likes
+     */
+    public static void migrateLikes(DatabaseReference votesReference,
+                                    DataSnapshot clipSnapshot) {
+        final DatabaseReference clipReference = clipSnapshot.getRef();
+        final Map<String, Boolean> likes = new HashMap<>();
+
+        for (DataSnapshot likeSnapshot : clipSnapshot.child(LIKES_ADDRESS).getChildren())
+            likes.put(likeSnapshot.getKey(), likeSnapshot.getValue(Boolean.class));
+
+        votesReference.runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                if (currentData.getValue() != null)
+                    return Transaction.abort();
+
+                currentData.child(LIKES_ADDRESS).setValue(likes);
+                currentData.child(VOTE_COUNT_ADDRESS).setValue(VoteTally.count(likes));
+                currentData.child(VERSION_ADDRESS).setValue(1);
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError databaseError, boolean committed,
+                                   DataSnapshot dataSnapshot) {
+                if (databaseError != null) {
+                    Log.w(TAG, "Failed to migrate likes", databaseError.toException());
+                    return;
+                }
+
+                clipReference.child(LIKES_ADDRESS).removeValue();
+                copyVoteCount(clipReference, dataSnapshot);
+            }
+        });
+    }
+
+    /**
+     * This method stores the vote count of a clip created before counts were stored, using
+     * the count of its likes. Nothing is written if a count has been stored in the meantime.
+     * @param clipReference DatabaseReference of the clip
+     * @param voteCount sum of the clip's likes
+     */
+    public static void backfillVoteCount(DatabaseReference clipReference, final int voteCount) {
+        clipReference.child(VOTE_COUNT_ADDRESS).runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                if (currentData.getValue() != null)
+                    return Transaction.abort();
+
+                currentData.setValue(voteCount);
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError databaseError, boolean committed,
+                                   DataSnapshot dataSnapshot) { }
+        });
+    }
+
+    /**
+     * This method stores the hot score of a clip created before hot scores were stored.
+     * Nothing is written if a score has been stored in the meantime.
+     * @param clipReference DatabaseReference of the clip
+     * @param hotScore hot score computed from the clip's time and vote count
+     */
+    public static void backfillHotScore(DatabaseReference clipReference, final double hotScore) {
+        clipReference.child(HOT_SCORE_ADDRESS).runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                if (currentData.getValue() != null)
+                    return Transaction.abort();
 
-                return -1;
+                currentData.setValue(hotScore);
+                return Transaction.success(currentData);
             }
-        }
 
-        return 0;
+            @Override
+            public void onComplete(DatabaseError databaseError, boolean committed,
+                                   DataSnapshot dataSnapshot) { }
+        });
     }
 }
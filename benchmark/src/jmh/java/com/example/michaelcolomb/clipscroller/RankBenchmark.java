@@ -0,0 +1,101 @@
+package com.example.michaelcolomb.clipscroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks ranking a feed of clips. Creating and sorting a ClipRank per clip,
+ * as the adapter used to, is measured next to the RankingEngine selecting a page of the
+ * best clips and ranking every clip.
+ * @author colomb2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RankBenchmark {
+
+    private static final long SEED = 2017;
+    private static final long NOW = 1500000000000L;
+    private static final long MONTH = 30L * 86400000L;
+    private static final int MAX_VOTES = 1000;
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int clips;
+
+    @Param({"false", "true"})
+    public boolean trending;
+
+    private String[] hashes;
+    private long[] times;
+    private int[] voteCounts;
+    private RankingEngine engine;
+
+    /**
+     * This method builds a synthetic feed of clips created over the past month.
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(SEED);
+        hashes = new String[clips];
+        times = new long[clips];
+        voteCounts = new int[clips];
+        engine = new RankingEngine(clips);
+
+        for (int i = 0; i < clips; i++) {
+            hashes[i] = Long.toHexString(random.nextLong());
+            times[i] = NOW - (long) (random.nextDouble() * MONTH);
+            voteCounts[i] = random.nextInt(2 * MAX_VOTES + 1) - MAX_VOTES;
+        }
+
+        ClipRank.setRankByTrending(trending);
+    }
+
+    @Benchmark
+    public List<ClipRank> create() {
+        List<ClipRank> ranks = new ArrayList<>(clips);
+
+        for (int i = 0; i < clips; i++)
+            ranks.add(ClipRank.create(hashes[i], times[i], voteCounts[i], NOW));
+
+        return ranks;
+    }
+
+    @Benchmark
+    public List<ClipRank> createAndSort() {
+        List<ClipRank> ranks = create();
+        Collections.sort(ranks);
+        return ranks;
+    }
+
+    @Benchmark
+    public int engineTopPage() {
+        fillEngine();
+        return engine.rank(ClipRank.getScoringStrategy(), NOW, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public int engineRankAll() {
+        fillEngine();
+        return engine.rank(ClipRank.getScoringStrategy(), NOW, clips);
+    }
+
+    private void fillEngine() {
+        engine.clear();
+
+        for (int i = 0; i < clips; i++)
+            engine.add(hashes[i], times[i], voteCounts[i]);
+    }
+}
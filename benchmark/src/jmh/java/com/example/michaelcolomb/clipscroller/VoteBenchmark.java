@@ -0,0 +1,84 @@
+package com.example.michaelcolomb.clipscroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks vote aggregation over a clip's likes, from a handful of votes up
+ * to a million. The likes are a synthetic map of instance id to vote, as a clip's likes
+ * reference holds them.
+ * @author colomb2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VoteBenchmark {
+
+    private static final long SEED = 2017;
+    private static final String MISSING_ID = "missing";
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int votes;
+
+    private Map<String, Boolean> likes;
+    private String voterId;
+
+    /**
+     * This method builds the synthetic likes, with about two upvotes for each downvote,
+     * and picks a voter from the middle of them.
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(SEED);
+        likes = new HashMap<>(votes * 2);
+
+        for (int i = 0; i < votes; i++) {
+            String instanceId = Long.toHexString(random.nextLong());
+            likes.put(instanceId, random.nextInt(3) > 0);
+
+            if (i == votes / 2)
+                voterId = instanceId;
+        }
+    }
+
+    @Benchmark
+    public int count() {
+        return VoteTally.count(likes);
+    }
+
+    @Benchmark
+    public int direction() {
+        return VoteTally.direction(likes, voterId);
+    }
+
+    @Benchmark
+    public int directionMissing() {
+        return VoteTally.direction(likes, MISSING_ID);
+    }
+
+    /**
+     * This benchmark finds a vote by scanning every entry, as getVoteDirection did before
+     * it looked the user's entry up directly, to serve as a baseline.
+     * @return direction of the voter's vote
+     */
+    @Benchmark
+    public int directionByScan() {
+        for (Map.Entry<String, Boolean> entry : likes.entrySet()) {
+            if (entry.getKey().equals(voterId))
+                return VoteTally.toDirection(entry.getValue());
+        }
+
+        return 0;
+    }
+}